@@ -0,0 +1,88 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.AnswerPreview;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.Sched;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * Checks that the answer preview doesn't change the card, and that answering gives the previewed outcome.
+ */
+public class AnswerPreviewTest extends AndroidTestCase {
+
+    public void testNewCard() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            addNote(col);
+            Sched sched = col.getSched();
+            sched.reset();
+            Card card = sched.getCard();
+            int left = card.getLeft();
+            AnswerPreview preview = sched.answerPreview(card);
+            assertEquals(left, card.getLeft());
+            assertSame(preview, sched.answerPreview(card));
+            assertEquals(3, preview.getButtonCount());
+            // default steps are 1 and 10 minutes, graduating after one day, easy after four
+            assertEquals(60, preview.getIvl(1));
+            assertEquals(600, preview.getIvl(2));
+            assertEquals(4 * 86400, preview.getIvl(3));
+            assertEquals(2, preview.getQueue(3));
+            assertEquals(sched.getToday() + 4, preview.getDue(3));
+
+            sched.answerCard(card, 2);
+            assertEquals(preview.getQueue(2), card.getQueue());
+            assertNull(card.getAnswerPreview());
+            // a new preview for the new state
+            assertEquals(86400, sched.nextIvl(card, 2));
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testReviewCard() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            addNote(col);
+            Sched sched = col.getSched();
+            col.getDb().execute("UPDATE cards SET type = 2, queue = 2, ivl = 100, due = ?, factor = 2500",
+                    new Object[] { sched.getToday() - 8 });
+            sched.reset();
+            Card card = sched.getCard();
+            AnswerPreview preview = sched.answerPreview(card);
+            assertEquals(4, preview.getButtonCount());
+            // one relearning step of 10 minutes
+            assertEquals(600, preview.getIvl(1));
+            assertEquals(1, preview.getQueue(1));
+            for (int ease = 2; ease <= 4; ease++) {
+                assertEquals(sched.getToday() + preview.getIvl(ease) / 86400, preview.getDue(ease));
+            }
+            assertTrue(preview.getIvl(2) < preview.getIvl(3));
+            assertTrue(preview.getIvl(3) < preview.getIvl(4));
+
+            int ideal = preview.getIvl(3) / 86400;
+            sched.answerCard(card, 3);
+            int[] fuzz = sched._fuzzedIvlRange(ideal);
+            assertTrue(card.getIvl() >= fuzz[0] && card.getIvl() <= fuzz[1]);
+            assertEquals(sched.getToday() + card.getIvl(), card.getDue());
+        } finally {
+            col.close();
+        }
+    }
+
+
+    private void addNote(Collection col) {
+        Note note = col.newNote();
+        note.setItem("Front", "one");
+        note.setItem("Back", "two");
+        col.addNote(note);
+    }
+}
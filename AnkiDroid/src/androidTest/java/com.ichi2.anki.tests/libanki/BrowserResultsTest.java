@@ -0,0 +1,56 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.BrowserResults;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks the compact card browser results: flags and decks for every card, display columns loaded by window.
+ */
+public class BrowserResultsTest extends AndroidTestCase {
+
+    public void testResults() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            for (int i = 0; i < 3; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", "front " + i);
+                note.setItem("Back", "back");
+                if (i == 1) {
+                    note.addTag("marked");
+                }
+                col.addNote(note);
+            }
+            Map<String, String> deckNames = new HashMap<>();
+            deckNames.put("1", "Default");
+            BrowserResults results = col.findCardsForCardBrowser("", false, deckNames);
+            assertEquals(3, results.size());
+            int marked = results.indexOf(col.findCards("tag:marked").get(0));
+            assertEquals(BrowserResults.FLAG_MARKED, results.getFlags(marked));
+            assertEquals("Default", results.getColumn(0, "deck"));
+
+            // display columns are empty until loaded
+            assertEquals("", results.getColumn(2, "sfld"));
+            results.loadRows(col, 1, 5);
+            assertEquals("", results.getColumn(0, "sfld"));
+            assertTrue(results.getColumn(2, "sfld").startsWith("front"));
+            assertFalse(results.isRendered(2));
+
+            long last = results.getId(2);
+            results.reverse();
+            assertEquals(last, results.getId(0));
+            results.remove(0);
+            assertEquals(2, results.size());
+            assertEquals(-1, results.indexOf(last));
+        } finally {
+            col.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.exception.DeckRenameException;
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.BrowserResults;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Finder;
+import com.ichi2.libanki.Note;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the browser orders, that sorting backwards gives the cards in exactly the reverse order, and that the pages of
+ * a search add up to all of its cards in that order.
+ */
+public class BrowserSortTest extends AndroidTestCase {
+
+    public void testSort() throws IOException, JSONException, DeckRenameException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            long b = col.getDecks().id("B deck");
+            long a = col.getDecks().id("A deck");
+            String[] fronts = { "pear", "Apple", "fig", "apple", "kiwi" };
+            for (int i = 0; i < fronts.length; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", fronts[i]);
+                col.addNote(note);
+                col.getDb().execute("update cards set did = ? where nid = ?",
+                        new Object[] { i % 2 == 0 ? b : a, note.getId() });
+            }
+
+            col.getConf().put("sortType", "deck");
+            col.getConf().put("sortBackwards", false);
+            Finder finder = new Finder(col);
+            List<Long> cards = finder.findCards("", true);
+            assertEquals(a, col.getCard(cards.get(0)).getDid());
+            assertEquals(b, col.getCard(cards.get(cards.size() - 1)).getDid());
+            // the ranks follow a rename
+            col.getDecks().rename(col.getDecks().get(a), "C deck");
+            cards = finder.findCards("", true);
+            assertEquals(b, col.getCard(cards.get(0)).getDid());
+            assertEquals(a, col.getCard(cards.get(cards.size() - 1)).getDid());
+
+            for (String type : new String[] { "noteFld", "deck", "note", "template", "noteTags" }) {
+                col.getConf().put("sortType", type);
+                col.getConf().put("sortBackwards", false);
+                List<Long> forwards = finder.findCards("", true);
+                col.getConf().put("sortBackwards", true);
+                List<Long> backwards = new ArrayList<>(finder.findCards("", true));
+                Collections.reverse(backwards);
+                assertEquals(forwards, backwards);
+            }
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testPages() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            long b = col.getDecks().id("B deck");
+            long a = col.getDecks().id("A deck");
+            // repeated fronts, so that pages end between cards with the same sort field
+            String[] fronts = { "pear", "Apple", "fig", "apple", "kiwi", "o'clock", "fig", "12", "3" };
+            for (int i = 0; i < fronts.length; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", fronts[i]);
+                col.addNote(note);
+                col.getDb().execute("update cards set did = ?, ivl = ? where nid = ?",
+                        new Object[] { i % 2 == 0 ? b : a, i % 3, note.getId() });
+            }
+            Map<String, String> deckNames = new HashMap<>();
+            for (String type : new String[] { "noteFld", "cardIvl", "deck", "note", "noteTags" }) {
+                for (boolean backwards : new boolean[] { false, true }) {
+                    col.getConf().put("sortType", type);
+                    col.getConf().put("sortBackwards", backwards);
+                    _checkPages(col, deckNames, true);
+                }
+            }
+            _checkPages(col, deckNames, false);
+        } finally {
+            col.close();
+        }
+    }
+
+
+    /** Check that the pages of 2 cards of a search in ORDERED order hold all of its cards, in order. */
+    private void _checkPages(Collection col, Map<String, String> deckNames, boolean ordered) {
+        long[] all = col.findCardsForCardBrowser("", ordered, deckNames).ids();
+        BrowserResults results = col.findCardsForCardBrowser("", ordered, deckNames, null, 2);
+        assertEquals(2, results.size());
+        assertEquals(all.length, results.getTotal());
+        while (results.hasMore()) {
+            assertTrue(results.append(col.findCardsPageForCardBrowser(results, deckNames, 2)));
+        }
+        assertTrue(Arrays.equals(all, results.ids()));
+        assertEquals(all.length, results.getTotal());
+        // a page found for earlier results isn't added
+        assertFalse(results.append(col.findCardsPageForCardBrowser(results, deckNames, 2)));
+    }
+}
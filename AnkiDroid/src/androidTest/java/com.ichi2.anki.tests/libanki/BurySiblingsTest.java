@@ -0,0 +1,49 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.Sched;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Checks that answering a card takes its queued siblings out of the queues and buries them.
+ */
+public class BurySiblingsTest extends AndroidTestCase {
+
+    public void testBuryNewSiblings() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            // a model with two cards per note
+            JSONObject model = col.getModels().byName("Basic (and reversed card)");
+            col.getModels().setCurrent(model);
+            JSONObject conf = col.getDecks().confForDid(1);
+            conf.getJSONObject("new").put("bury", true);
+            col.getDecks().save(conf);
+            Note note = col.newNote();
+            note.setItem("Front", "one");
+            note.setItem("Back", "two");
+            col.addNote(note);
+            assertEquals(2, note.cards().size());
+
+            Sched sched = col.getSched();
+            sched.reset();
+            Card card = sched.getCard();
+            sched.answerCard(card, 3);
+            assertEquals(1, col.getDb().queryScalar("SELECT count() FROM cards WHERE queue = -2"));
+            // only the answered card is left to study
+            card = sched.getCard();
+            assertEquals(note.getId(), card.getNid());
+            assertEquals(1, card.getQueue());
+        } finally {
+            col.close();
+        }
+    }
+}
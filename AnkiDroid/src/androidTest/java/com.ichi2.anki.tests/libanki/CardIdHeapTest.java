@@ -0,0 +1,80 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.libanki.CardIdHeap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the learning queue heap gives its cards in the order of a stable sort on their due times, equal due
+ * times included, while cards are added and removed.
+ */
+public class CardIdHeapTest extends AndroidTestCase {
+
+    public void testEqualKeys() {
+        CardIdHeap heap = new CardIdHeap();
+        heap.add(5, 1);
+        heap.add(3, 2);
+        heap.add(5, 3);
+        heap.add(3, 4);
+        heap.add(5, 5);
+        heap.add(1, 6);
+        assertEquals(6, heap.size());
+        assertEquals(1, heap.getFirstKey());
+        for (long id : new long[] { 6, 2, 4, 1, 3, 5 }) {
+            assertEquals(id, heap.getFirst());
+            assertEquals(id, heap.remove());
+        }
+        assertTrue(heap.isEmpty());
+    }
+
+
+    public void testStableOrder() {
+        Random r = new Random(1);
+        CardIdHeap heap = new CardIdHeap();
+        List<long[]> expected = new ArrayList<>();
+        long id = 0;
+        // few distinct due times, so most entries tie, and enough of them for the arrays to grow
+        for (int i = 0; i < 200; i++) {
+            long key = r.nextInt(10);
+            heap.add(key, id);
+            expected.add(new long[] { key, id++ });
+        }
+        _sort(expected);
+        // take some off, then add more with the same due times, which go after those already queued
+        for (int i = 0; i < 50; i++) {
+            assertEquals(expected.remove(0)[1], heap.remove());
+        }
+        for (int i = 0; i < 100; i++) {
+            long key = r.nextInt(10);
+            heap.add(key, id);
+            expected.add(new long[] { key, id++ });
+        }
+        _sort(expected);
+        assertEquals(expected.size(), heap.size());
+        for (long[] entry : expected) {
+            assertEquals(entry[0], heap.getFirstKey());
+            assertEquals(entry[1], heap.remove());
+        }
+        assertTrue(heap.isEmpty());
+        heap.add(7, 1);
+        heap.clear();
+        assertEquals(0, heap.size());
+    }
+
+
+    /** Sort ENTRIES of due time and id by due time, keeping the order of equal ones, as the heap should. */
+    private static void _sort(List<long[]> entries) {
+        Collections.sort(entries, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+            }
+        });
+    }
+}
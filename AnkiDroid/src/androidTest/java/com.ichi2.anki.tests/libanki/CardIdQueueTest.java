@@ -0,0 +1,145 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.libanki.CardIdQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the card id queue of the scheduler against a list holding the same ids: removing ids from the middle, the
+ * ring buffer growing with removed entries in it and wrapping around, and seeded shuffles.
+ */
+public class CardIdQueueTest extends AndroidTestCase {
+
+    public void testRemoveThenGrow() {
+        CardIdQueue queue = new CardIdQueue();
+        List<Long> expected = new ArrayList<>();
+        // fill the initial buffer, leaving holes in the middle
+        for (long id = 1; id <= 16; id++) {
+            queue.add(id);
+            expected.add(id);
+        }
+        for (long id : new long[] { 3, 4, 9, 15 }) {
+            assertTrue(queue.remove(id));
+            expected.remove(id);
+        }
+        assertFalse(queue.remove(4));
+        assertFalse(queue.contains(9));
+        assertEquals(expected, _list(queue));
+        // the buffer is full of entries and holes, so this grows it
+        for (long id = 17; id <= 40; id++) {
+            queue.add(id);
+            expected.add(id);
+        }
+        assertEquals(expected.size(), queue.size());
+        assertEquals(expected, _list(queue));
+        for (long id = 1; id <= 40; id++) {
+            assertEquals(expected.contains(id), queue.contains(id));
+        }
+        // removing the head skips the holes behind it
+        assertTrue(queue.remove(1));
+        assertTrue(queue.remove(2));
+        expected.remove(1L);
+        expected.remove(2L);
+        assertEquals(5, queue.getFirst());
+        _drain(queue, expected);
+    }
+
+
+    public void testWrapAround() {
+        CardIdQueue queue = new CardIdQueue();
+        List<Long> expected = new ArrayList<>();
+        for (long id = 1; id <= 10; id++) {
+            queue.add(id);
+            expected.add(id);
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals((long) expected.remove(0), queue.remove());
+        }
+        // the head is near the end of the buffer, so these wrap around to its start without growing it
+        for (long id = 11; id <= 24; id++) {
+            queue.add(id);
+            expected.add(id);
+        }
+        assertEquals(expected, _list(queue));
+        for (long id : new long[] { 10, 16, 24 }) {
+            assertTrue(queue.remove(id));
+            expected.remove(id);
+        }
+        assertEquals(expected, _list(queue));
+        // and grow it while wrapped
+        for (long id = 25; id <= 30; id++) {
+            queue.add(id);
+            expected.add(id);
+        }
+        assertEquals(expected, _list(queue));
+        long[] head = new long[3];
+        assertEquals(3, queue.peek(head, 0));
+        assertEquals(expected.subList(0, 3), _list(head));
+        _drain(queue, expected);
+    }
+
+
+    public void testShuffle() {
+        for (long seed = 0; seed < 5; seed++) {
+            CardIdQueue queue = new CardIdQueue();
+            List<Long> expected = new ArrayList<>();
+            for (long id = 100; id < 150; id++) {
+                queue.add(id);
+                expected.add(id);
+            }
+            // shuffled with holes, and wrapped around
+            for (int i = 0; i < 20; i++) {
+                expected.remove(0);
+                queue.remove();
+            }
+            for (long id = 150; id < 170; id++) {
+                queue.add(id);
+                expected.add(id);
+            }
+            for (long id : new long[] { 125, 133, 155 }) {
+                queue.remove(id);
+                expected.remove(id);
+            }
+            queue.shuffle(new Random(seed));
+            Collections.shuffle(expected, new Random(seed));
+            assertEquals(expected, _list(queue));
+            // the id index follows the shuffled positions
+            for (long id : new long[] { 140, 151 }) {
+                assertTrue(queue.remove(id));
+                expected.remove(id);
+            }
+            assertFalse(queue.contains(125));
+            _drain(queue, expected);
+        }
+    }
+
+
+    /** Take every id off QUEUE from its head, checking that they come in the order of EXPECTED. */
+    private static void _drain(CardIdQueue queue, List<Long> expected) {
+        for (long id : expected) {
+            assertEquals(id, queue.getFirst());
+            assertEquals(id, queue.remove());
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.toArray().length);
+    }
+
+
+    private static List<Long> _list(CardIdQueue queue) {
+        return _list(queue.toArray());
+    }
+
+
+    private static List<Long> _list(long[] ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+}
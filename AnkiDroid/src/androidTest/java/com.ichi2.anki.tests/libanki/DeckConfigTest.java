@@ -0,0 +1,97 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.DeckConfig;
+import com.ichi2.libanki.Decks;
+import com.ichi2.libanki.Note;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Checks that the cached deck option snapshots follow changes saved to the decks and their options.
+ */
+public class DeckConfigTest extends AndroidTestCase {
+
+    public void testInvalidation() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            Decks decks = col.getDecks();
+            DeckConfig config = decks.config(1);
+            assertFalse(config.dyn);
+            assertEquals(20, config.newConf.perDay);
+            assertEquals(60, config.newConf.delaySecs[0]);
+            // saving the deck itself, as answering does, keeps the snapshot
+            decks.save(decks.get(1));
+            assertSame(config, decks.config(1));
+
+            JSONObject conf = decks.confForDid(1);
+            conf.getJSONObject("new").put("perDay", 5);
+            conf.getJSONObject("new").put("delays", new JSONArray("[2, 3]"));
+            decks.save(conf);
+            config = decks.config(1);
+            assertEquals(5, config.newConf.perDay);
+            assertEquals(120, config.newConf.delaySecs[0]);
+
+            // moving the deck to another options group
+            long confId = decks.confId("other");
+            decks.getConf(confId).getJSONObject("rev").put("maxIvl", 100);
+            decks.updateConf(decks.getConf(confId));
+            decks.setConf(decks.get(1), confId);
+            assertEquals(confId, decks.config(1).confId);
+            assertEquals(100, decks.config(1).rev.maxIvl);
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testFilteredDeck() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            Decks decks = col.getDecks();
+            long did = decks.newDyn("filtered");
+            JSONObject deck = decks.get(did);
+            assertTrue(decks.config(did).dyn);
+            assertTrue(decks.config(did).resched);
+            deck.put("resched", false);
+            decks.save(deck);
+            assertFalse(decks.config(did).resched);
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testAnswerKeepsSaveCount() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            Note note = col.newNote();
+            note.setItem("Front", "one");
+            note.setItem("Back", "two");
+            col.addNote(note);
+            Decks decks = col.getDecks();
+            col.getSched().reset();
+            Card card = col.getSched().getCard();
+            long saveCount = decks.getSaveCount();
+            DeckConfig config = decks.config(1);
+            // only the daily counters of the deck change
+            col.getSched().answerCard(card, 3);
+            assertEquals(1, decks.get(1).getJSONArray("newToday").getInt(1));
+            assertEquals(saveCount, decks.getSaveCount());
+            assertSame(config, decks.config(1));
+            // while adding a deck does
+            decks.id("other");
+            assertTrue(decks.getSaveCount() > saveCount);
+        } finally {
+            col.close();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+import android.text.TextUtils;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Decks;
+import com.ichi2.libanki.Sched;
+import com.ichi2.libanki.Utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the deck list counts, which are computed with one grouped query and then kept up to date in memory,
+ * match the counts of the original algorithm that queried every deck on its own.
+ */
+public class DeckDueListTest extends AndroidTestCase {
+
+    private static final String[] DECKS = { "Lang", "Lang::French", "Lang::French::Verbs", "Lang::German", "Maths" };
+
+
+    public void testMatchesPerDeckCounts() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            fillCollection(col);
+            assertDueList(col);
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testCountsFollowChanges() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            fillCollection(col);
+            Sched sched = col.getSched();
+            // load the counts, further calls adjust them
+            assertDueList(col);
+            col.getDecks().select(col.getDecks().id("Lang"));
+            sched.reset();
+            for (int i = 0; i < 30; i++) {
+                Card card = sched.getCard();
+                sched.answerCard(card, i % 2 == 0 ? 1 : 2);
+                assertDueList(col);
+            }
+            col.undo();
+            assertDueList(col);
+            long[] cids = Utils.arrayList2array(col.getDb().queryColumn(Long.class,
+                    "SELECT id FROM cards WHERE queue IN (0, 1, 2) ORDER BY id LIMIT 40", 0));
+            sched.buryCards(Arrays.copyOfRange(cids, 0, 20));
+            assertDueList(col);
+            sched.suspendCards(Arrays.copyOfRange(cids, 20, 40));
+            assertDueList(col);
+            sched.unburyCards();
+            assertDueList(col);
+            sched.unsuspendCards(Arrays.copyOfRange(cids, 20, 40));
+            assertDueList(col);
+            // a change the scheduler doesn't know about
+            col.getDb().execute("UPDATE cards SET queue = 0 WHERE queue = 2");
+            assertDueList(col);
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testCountsFollowRollback() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            fillCollection(col);
+            Sched sched = col.getSched();
+            assertDueList(col);
+            col.getDecks().select(col.getDecks().id("Lang"));
+            sched.reset();
+            // the answers are adjusted in memory, then undone in the database
+            col.getDb().beginTransaction();
+            try {
+                for (int i = 0; i < 5; i++) {
+                    sched.answerCard(sched.getCard(), 3);
+                }
+            } finally {
+                col.getDb().endTransaction();
+            }
+            assertDueList(col);
+        } finally {
+            col.close();
+        }
+    }
+
+
+    /**
+     * Add decks, limits and cards. Some decks have tighter limits, some of them already used up today.
+     */
+    private void fillCollection(Collection col) throws JSONException {
+        Decks decks = col.getDecks();
+        List<Long> dids = new ArrayList<>();
+        dids.add(1L);
+        for (String name : DECKS) {
+            dids.add(decks.id(name));
+        }
+        long confId = decks.confId("Small");
+        JSONObject conf = decks.getConf(confId);
+        conf.getJSONObject("new").put("perDay", 5);
+        conf.getJSONObject("rev").put("perDay", 7);
+        decks.updateConf(conf);
+        decks.setConf(decks.get(decks.id("Lang::French")), confId);
+        int today = col.getSched().getToday();
+        JSONObject lang = decks.get(decks.id("Lang"));
+        lang.put("revToday", new JSONArray(Arrays.asList(today, 95)));
+        lang.put("newToday", new JSONArray(Arrays.asList(today, 12)));
+        decks.save(lang);
+
+        fillCards(col, dids, 3000, -1);
+        // more learning cards in one deck than the report limit
+        fillCards(col, Arrays.asList(decks.id("Maths")), 1200, 1);
+    }
+
+
+    private void assertDueList(Collection col) throws JSONException {
+        List<Sched.DeckDueTreeNode> expected = perDeckDueList(col);
+        List<Sched.DeckDueTreeNode> actual = col.getSched().deckDueList();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Sched.DeckDueTreeNode e = expected.get(i);
+            Sched.DeckDueTreeNode a = actual.get(i);
+            assertEquals(e.names[0], a.names[0]);
+            assertEquals(e.did, a.did);
+            assertEquals(e.names[0], e.newCount, a.newCount);
+            assertEquals(e.names[0], e.lrnCount, a.lrnCount);
+            assertEquals(e.names[0], e.revCount, a.revCount);
+        }
+    }
+
+
+    /**
+     * Add COUNT notes with one card each, spread over DIDS, with due dates around now.
+     * @param queue The queue of the cards, or -1 for random queues.
+     */
+    private void fillCards(Collection col, List<Long> dids, int count, int queue) throws JSONException {
+        Random r = new Random(count);
+        long mid = col.getModels().current().getLong("id");
+        int today = col.getSched().getToday();
+        long now = Utils.intNow();
+        long base = col.getDb().queryLongScalar("SELECT max(id) FROM cards") + 1;
+        List<Object[]> notes = new ArrayList<>();
+        List<Object[]> cards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long id = base + i;
+            String front = "front " + id;
+            notes.add(new Object[] { id, Long.toString(id, 36), mid, 0, 0, "", front + "\u001fback", front,
+                    Utils.fieldChecksum(front), 0, "" });
+            long did = dids.get(r.nextInt(dids.size()));
+            int q = queue == -1 ? r.nextInt(4) : queue;
+            long due;
+            int left = 0;
+            switch (q) {
+                case 0:
+                    due = id;
+                    break;
+                case 1:
+                    // either well before or well after the learn ahead cutoff, so the test can't race the clock
+                    due = r.nextBoolean() ? now - r.nextInt(1800) : now + 7200 + r.nextInt(1800);
+                    left = 1000 * (1 + r.nextInt(3)) + 1 + r.nextInt(3);
+                    break;
+                default:
+                    due = today + r.nextInt(5) - 2;
+                    break;
+            }
+            cards.add(new Object[] { id, id, did, 0, 0, 0, q, q, due, 1, 2500, 1, 0, left, 0, 0, 0, "" });
+        }
+        col.getDb().executeMany("INSERT INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", notes);
+        col.getDb().executeMany("INSERT INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", cards);
+    }
+
+
+    /**
+     * The deck list as computed before the grouped query, with three count queries per deck.
+     */
+    private List<Sched.DeckDueTreeNode> perDeckDueList(Collection col) throws JSONException {
+        Sched sched = col.getSched();
+        int reportLimit = 1000;
+        long lrnCutoff = Utils.intNow() + col.getConf().getInt("collapseTime");
+        HashMap<String, int[]> lims = new HashMap<>();
+        List<Sched.DeckDueTreeNode> data = new ArrayList<>();
+        for (JSONObject deck : col.getDecks().allSorted()) {
+            String name = deck.getString("name");
+            long did = deck.getLong("id");
+            List<String> parts = Arrays.asList(name.split("::", -1));
+            String p = parts.size() < 2 ? null : TextUtils.join("::", parts.subList(0, parts.size() - 1));
+            // new
+            int nlim = sched._deckNewLimitSingle(deck);
+            if (p != null) {
+                nlim = Math.min(nlim, lims.get(p)[0]);
+            }
+            int _new = sched._newForDeck(did, nlim);
+            // learning
+            int lrn = col.getDb().queryScalar("SELECT sum(left / 1000) FROM (SELECT left FROM cards WHERE did = " + did
+                    + " AND queue = 1 AND due < " + lrnCutoff + " LIMIT " + reportLimit + ")")
+                    + col.getDb().queryScalar("SELECT count() FROM (SELECT 1 FROM cards WHERE did = " + did
+                    + " AND queue = 3 AND due <= " + sched.getToday() + " LIMIT " + reportLimit + ")");
+            // reviews
+            int rlim;
+            if (deck.getInt("dyn") != 0) {
+                rlim = reportLimit;
+            } else {
+                JSONObject c = col.getDecks().confForDid(did);
+                rlim = Math.max(0, c.getJSONObject("rev").getInt("perDay") - deck.getJSONArray("revToday").getInt(1));
+            }
+            if (p != null) {
+                rlim = Math.min(rlim, lims.get(p)[1]);
+            }
+            int rev = sched._revForDeck(did, rlim);
+            data.add(sched.new DeckDueTreeNode(name, did, rev, lrn, _new));
+            lims.put(name, new int[] { nlim, rlim });
+        }
+        return data;
+    }
+}
@@ -0,0 +1,59 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+import android.util.Pair;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.DupeFinder;
+import com.ichi2.libanki.Note;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks duplicates on the first field, found through the csum column, and on other fields, and the duplicate check
+ * of the note editor.
+ */
+public class DupeFinderTest extends AndroidTestCase {
+
+    public void testDupes() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            String[][] notes = { { "<b>cat</b>", "same" }, { "cat", "same" }, { "dog", "" }, { "bird", "" } };
+            List<Note> added = new ArrayList<>();
+            for (String[] fields : notes) {
+                Note note = col.newNote();
+                note.setItem("Front", fields[0]);
+                note.setItem("Back", fields[1]);
+                col.addNote(note);
+                added.add(note);
+            }
+
+            final List<String> reported = new ArrayList<>();
+            List<Pair<String, List<Long>>> dupes = col.findDupes("front", "", new DupeFinder.Listener() {
+                @Override
+                public void onDupes(String val, List<Long> nids) {
+                    reported.add(val);
+                }
+            });
+            assertEquals(1, dupes.size());
+            assertEquals("cat", dupes.get(0).first);
+            assertEquals(2, dupes.get(0).second.size());
+            assertEquals(1, reported.size());
+
+            // empty fields are not duplicates
+            dupes = col.findDupes("Back");
+            assertEquals(1, dupes.size());
+            assertEquals("same", dupes.get(0).first);
+            assertEquals(0, col.findDupes("Back", "dog").size());
+
+            assertEquals(Integer.valueOf(2), added.get(0).dupeOrEmpty());
+            assertNull(added.get(2).dupeOrEmpty());
+            assertEquals(2, col.findNotes("dupe:" + added.get(0).getMid() + ",cat").size());
+        } finally {
+            col.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.FieldScanner;
+import com.ichi2.libanki.Note;
+
+import java.io.IOException;
+
+/**
+ * Checks field searches over more notes than are matched in one chunk or written into a statement.
+ */
+public class FieldSearchTest extends AndroidTestCase {
+
+    public void testFieldSearch() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            for (int i = 0; i < 2500; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", (i % 2 == 0 ? "even " : "odd ") + i);
+                note.setItem("Back", "even");
+                col.addNote(note);
+            }
+            assertEquals(1250, col.findNotes("front:even*").size());
+            assertEquals(1250, col.findNotes("front:odd*").size());
+            assertEquals(2500, col.findNotes("back:even").size());
+            assertEquals(1, col.findNotes("front:\"odd 2499\"").size());
+            assertEquals(0, col.findNotes("front:even").size());
+            assertEquals(1250, col.findCards("front:o_d* back:even").size());
+            assertEquals(0, col.findNotes("nosuchfield:even").size());
+            // more large terms than a search used to keep, none of them lost
+            assertEquals(1250, col.findNotes("front:e* front:*e* front:*v* front:*n* back:even back:e*").size());
+            // nothing is left once the searches have run, and nothing was written to the collection file
+            assertEquals(0, col.getDb().queryScalar("select count() from " + FieldScanner.TABLE));
+            assertEquals(0, col.getDb().queryScalar(
+                    "select count() from sqlite_master where name = '" + FieldScanner.TABLE + "'"));
+            // with several connections, the search still reads the ids on the connection that wrote them
+            if (col.setWriteBehind(true)) {
+                assertEquals(1250, col.findNotes("front:*ven*").size());
+                assertEquals(1250, col.findCards("front:*dd* back:even").size());
+                col.setWriteBehind(false);
+            }
+        } finally {
+            col.close();
+        }
+    }
+}
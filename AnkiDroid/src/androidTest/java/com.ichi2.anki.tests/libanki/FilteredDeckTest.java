@@ -0,0 +1,80 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Consts;
+import com.ichi2.libanki.Utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that a filtered deck rebuilt with set-based SQL takes the cards the search finds, in the order of the deck.
+ */
+public class FilteredDeckTest extends AndroidTestCase {
+
+    private static final int NOTES = 3000;
+
+
+    public void testRebuildOrder() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            fillCards(col);
+            int[] orders = { Consts.DYN_OLDEST, Consts.DYN_SMALLINT, Consts.DYN_BIGINT, Consts.DYN_LAPSES,
+                    Consts.DYN_ADDED, Consts.DYN_REVADDED, Consts.DYN_DUE, Consts.DYN_DUEPRIORITY };
+            long did = col.getDecks().newDyn("Filtered");
+            for (int order : orders) {
+                JSONObject deck = col.getDecks().get(did);
+                deck.getJSONArray("terms").getJSONArray(0).put(1, 500).put(2, order);
+                col.getDecks().save(deck);
+                List<Long> ids = col.getSched().rebuildDyn(did);
+                assertEquals(500, ids.size());
+                // cards are due in the order they were found
+                List<Long> inDeck = col.getDb().queryColumn(Long.class,
+                        "SELECT id FROM cards WHERE did = " + did + " ORDER BY due", 0);
+                assertEquals(ids, inDeck);
+                for (int i = 0; i < ids.size(); i++) {
+                    assertEquals(-100000 + i, col.getDb().queryLongScalar("SELECT due FROM cards WHERE id = "
+                            + ids.get(i)));
+                }
+                // all cards back where they came from after emptying
+                col.getSched().emptyDyn(did);
+                assertEquals(0, col.getDb().queryScalar("SELECT count() FROM cards WHERE odid != 0 OR did = " + did));
+            }
+        } finally {
+            col.close();
+        }
+    }
+
+
+    /**
+     * Add NOTES notes with one new or review card each, with varied intervals, lapses and modification times.
+     */
+    private void fillCards(Collection col) throws JSONException {
+        Random r = new Random(NOTES);
+        long mid = col.getModels().current().getLong("id");
+        int today = col.getSched().getToday();
+        List<Object[]> notes = new ArrayList<>();
+        List<Object[]> cards = new ArrayList<>();
+        for (int i = 0; i < NOTES; i++) {
+            long id = 1000000000000L + i;
+            String front = "front " + i;
+            notes.add(new Object[] { id, Long.toString(id, 36), mid, 0, 0, "", front + "\u001fback", front,
+                    Utils.fieldChecksum(front), 0, "" });
+            int type = r.nextInt(3) == 0 ? 0 : 2;
+            long due = type == 0 ? i : today + r.nextInt(20) - 10;
+            int ivl = type == 0 ? 0 : 1 + r.nextInt(100);
+            cards.add(new Object[] { id, id, 1, 0, r.nextInt(100000), 0, type, type, due, ivl, 2500, 1, r.nextInt(5),
+                    0, 0, 0, 0, "" });
+        }
+        col.getDb().executeMany("INSERT INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", notes);
+        col.getDb().executeMany("INSERT INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", cards);
+    }
+}
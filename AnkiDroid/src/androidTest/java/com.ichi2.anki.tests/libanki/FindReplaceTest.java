@@ -0,0 +1,43 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks find and replace over more notes than are changed in one batch.
+ */
+public class FindReplaceTest extends AndroidTestCase {
+
+    public void testFindReplace() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            List<Long> nids = new ArrayList<>();
+            for (int i = 0; i < 1200; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", "foo " + i);
+                note.setItem("Back", i % 3 == 0 ? "Foo" : "baz");
+                col.addNote(note);
+                nids.add(note.getId());
+            }
+            assertEquals(1200, col.findReplace(nids, "foo", "bar", "Front"));
+            assertEquals(0, col.findNotes("front:foo*").size());
+            assertEquals(1200, col.findNotes("front:bar*").size());
+            // the sort field follows the change
+            assertEquals(1200, col.getDb().queryScalar("select count() from notes where sfld like 'bar %'"));
+
+            assertEquals(400, col.findReplace(nids, "foo", "qux"));
+            assertEquals(0, col.findReplace(nids, "Foo", "x", false, null, false));
+            assertEquals(1200, col.findReplace(nids, "b(a)r", "$1", true, null, true));
+            assertEquals(1200, col.findNotes("front:\"a *\"").size());
+        } finally {
+            col.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.DB;
+import com.ichi2.libanki.FullTextIndex;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.Storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that searches through the full-text index find the same notes as without it, follow note edits and removals,
+ * and fall back to LIKE for what the index can't answer.
+ */
+public class FullTextIndexTest extends AndroidTestCase {
+
+    /** Found in the start, middle or end of words, in markup, across markup, or not at all. */
+    private static final String[] TERMS = { "hel", "hello", "ello", "llo*", "div", "iv", "world*", "orl", "rld", "wor",
+            "bold", "oldfa", "ing", "xyz", "a", "1234", "234", "verylongword" };
+
+    public void testSearch() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            Note note = col.newNote();
+            note.setItem("Front", "<div>hello</div> world");
+            note.setItem("Back", "crème brûlée");
+            col.addNote(note);
+            FullTextIndex index = col.getFullTextIndex();
+            index.setWanted(true);
+            assertFalse(index.isPresent());
+            col.fixIntegrity();
+            assertTrue(index.isPresent());
+
+            assertEquals(1, col.findNotes("hel").size());
+            assertEquals(1, col.findNotes("world*").size());
+            // in the middle of a word, or in markup, as LIKE finds them
+            assertEquals(1, col.findNotes("ello").size());
+            assertEquals(1, col.findNotes("div").size());
+            // not expressible in the index, searched with LIKE
+            assertEquals(1, col.findNotes("brûl").size());
+            assertEquals(1, col.findNotes("*orld").size());
+
+            note.setItem("Front", "goodbye");
+            note.flush();
+            assertEquals(0, col.findNotes("hello").size());
+            assertEquals(1, col.findNotes("goodbye").size());
+            col.remNotes(new long[] { note.getId() });
+            assertEquals(0, col.findNotes("goodbye").size());
+
+            index.setWanted(false);
+            assertFalse(index.isPresent());
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testChangedElsewhere() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        String path = col.getPath();
+        Note note = col.newNote();
+        note.setItem("Front", "hello");
+        col.addNote(note);
+        col.getFullTextIndex().setWanted(true);
+        col.fixIntegrity();
+        assertTrue(col.getFullTextIndex().isPresent());
+        col.close();
+
+        col = Storage.Collection(getContext(), path);
+        try {
+            assertTrue(col.getFullTextIndex().isPresent());
+        } finally {
+            col.close();
+        }
+        // another client edits the note, which the index knows nothing of
+        DB db = new DB(path);
+        try {
+            db.execute("UPDATE notes SET flds = ? WHERE id = ?", new Object[] { "goodbye\u001f", note.getId() });
+            db.execute("UPDATE col SET mod = mod + 1");
+        } finally {
+            db.close();
+        }
+        col = Storage.Collection(getContext(), path);
+        try {
+            assertFalse(col.getFullTextIndex().isPresent());
+            assertEquals(1, col.findNotes("goodbye").size());
+            assertEquals(0, col.findNotes("hello").size());
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testSameResultsAsLike() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            String[] fronts = { "<div>hello</div> world", "Hello<b>World</b>", "bo<i>ld</i>face", "something",
+                    "x1234y", "averylongwordthatistoolongtobeindexedwithitsendings", "crème brûlée" };
+            for (String front : fronts) {
+                Note note = col.newNote();
+                note.setItem("Front", front);
+                note.setItem("Back", "back");
+                col.addNote(note);
+            }
+            List<Set<Long>> like = new ArrayList<>();
+            for (String term : TERMS) {
+                like.add(new HashSet<>(col.findNotes(term)));
+            }
+            col.getFullTextIndex().setWanted(true);
+            col.fixIntegrity();
+            assertTrue(col.getFullTextIndex().isPresent());
+            for (int i = 0; i < TERMS.length; i++) {
+                assertEquals(TERMS[i], like.get(i), new HashSet<>(col.findNotes(TERMS[i])));
+            }
+        } finally {
+            col.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.Sched;
+import com.ichi2.libanki.Utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Checks that the queues prepared ahead of the day cutoff give the same study session as a reset at the rollover,
+ * and are dropped when the collection changes in between.
+ */
+public class NextDayTest extends AndroidTestCase {
+
+    public void testPreparedRollover() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            addNotes(col, 5);
+            Sched sched = startLateInTheDay(col);
+            assertTrue(sched.prepareNextDay());
+            rollOver(col, sched);
+            Card card = sched.getCard();
+            assertNotNull(card);
+            assertEquals(1, sched.getToday());
+            int[] prepared = sched.counts(card);
+            sched.reset();
+            assertTrue(Arrays.equals(prepared, sched.counts(sched.getCard())));
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testChangeAfterPreparing() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            addNotes(col, 1);
+            Sched sched = startLateInTheDay(col);
+            assertTrue(sched.prepareNextDay());
+            sched.suspendCards(new long[] { col.getDb().queryLongScalar("SELECT id FROM cards") });
+            rollOver(col, sched);
+            assertNull(sched.getCard());
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testResetKeepsPreparedDay() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            addNotes(col, 1);
+            Sched sched = startLateInTheDay(col);
+            assertTrue(sched.prepareNextDay());
+            // as refreshing the study options does
+            sched.reset();
+            assertTrue(sched.isNextDayPrepared());
+            col.getDb().execute("UPDATE cards SET queue = -1");
+            assertFalse(sched.isNextDayPrepared());
+        } finally {
+            col.close();
+        }
+    }
+
+
+    /** A scheduler whose day ends in ten minutes. */
+    private Sched startLateInTheDay(Collection col) {
+        col.setCrt(Utils.intNow() - 86400 + 600);
+        Sched sched = new Sched(col);
+        sched.reset();
+        return sched;
+    }
+
+
+    /** Pretend the cutoff has passed. */
+    private void rollOver(Collection col, Sched sched) {
+        col.setCrt(col.getCrt() - 600);
+        sched.mDayCutoff = Utils.intNow() - 1;
+    }
+
+
+    private void addNotes(Collection col, int count) {
+        for (int i = 0; i < count; i++) {
+            Note note = col.newNote();
+            note.setItem("Front", "front " + i);
+            note.setItem("Back", "back");
+            col.addNote(note);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.exception.DeckRenameException;
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Checks that cached searches see changes to the decks, and to the notes when searching on a field.
+ */
+public class QueryCacheTest extends AndroidTestCase {
+
+    public void testInvalidation() throws IOException, JSONException, DeckRenameException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            long did = col.getDecks().id("first");
+            Note note = col.newNote();
+            note.setItem("Front", "one");
+            note.setItem("Back", "two");
+            col.addNote(note);
+            col.getDb().execute("UPDATE cards SET did = " + did);
+            assertEquals(1, col.findCards("deck:first").size());
+            assertEquals(0, col.findCards("deck:second").size());
+
+            JSONObject deck = col.getDecks().get(did);
+            col.getDecks().rename(deck, "second");
+            assertEquals(0, col.findCards("deck:first").size());
+            assertEquals(1, col.findCards("deck:second").size());
+
+            assertEquals(1, col.findNotes("front:one").size());
+            note.setItem("Front", "three");
+            note.flush();
+            assertEquals(0, col.findNotes("front:one").size());
+            assertEquals(1, col.findNotes("front:three").size());
+        } finally {
+            col.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.BrowserResults;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.FieldScanner;
+import com.ichi2.libanki.Note;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks that a browser search refining the previous one finds the same cards as a full search, and that a search
+ * which doesn't refine it, or a change to the notes, isn't narrowed down to the previous results.
+ */
+public class RefineSearchTest extends AndroidTestCase {
+
+    public void testRefine() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            for (String front : new String[] { "apple", "apricot", "banana" }) {
+                Note note = col.newNote();
+                note.setItem("Front", front);
+                col.addNote(note);
+            }
+            Map<String, String> deckNames = new HashMap<>();
+            deckNames.put("1", "Default");
+
+            BrowserResults ap = col.findCardsForCardBrowser("ap", false, deckNames);
+            assertEquals("ap", ap.getQuery());
+            assertEquals(2, ap.size());
+            assertEquals(1, col.findCardsForCardBrowser("app", false, deckNames, ap).size());
+            assertEquals(1, col.findCardsForCardBrowser("ap ric", false, deckNames, ap).size());
+            // not refinements: searched in full
+            assertEquals(3, col.findCardsForCardBrowser("a", false, deckNames, ap).size());
+            assertEquals(3, col.findCardsForCardBrowser("ap or ban", false, deckNames, ap).size());
+
+            Note note = col.newNote();
+            note.setItem("Front", "appetite");
+            col.addNote(note);
+            assertEquals(2, col.findCardsForCardBrowser("app", false, deckNames, ap).size());
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testRefineLarge() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            for (int i = 0; i < 2500; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", (i % 2 == 0 ? "even " : "odd ") + i);
+                col.addNote(note);
+            }
+            Map<String, String> deckNames = new HashMap<>();
+            deckNames.put("1", "Default");
+
+            BrowserResults odd = col.findCardsForCardBrowser("odd", false, deckNames);
+            assertEquals(1250, odd.size());
+            // more cards than are written into a statement are still refined
+            assertEquals(col.findCardsForCardBrowser("odd 12", false, deckNames).size(),
+                    col.findCardsForCardBrowser("odd 12", false, deckNames, odd).size());
+            assertEquals(0, col.getDb().queryScalar("select count() from " + FieldScanner.TABLE));
+        } finally {
+            col.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Utils;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks the positions given to new cards by the set-based repositioning in Sched.sortCards and friends.
+ */
+public class RepositionTest extends AndroidTestCase {
+
+    private static final int NOTES = 3000;
+
+
+    public void testOrderAndRandomize() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            fillCards(col);
+            col.getSched().randomizeCards(1);
+            // every note has its own position, shared by its cards
+            assertEquals(NOTES, col.getDb().queryScalar("SELECT count(DISTINCT due) FROM cards WHERE type = 0"));
+            assertEquals(0, col.getDb().queryScalar("SELECT count() FROM (SELECT nid FROM cards WHERE type = 0 "
+                    + "GROUP BY nid HAVING count(DISTINCT due) > 1)"));
+            assertEquals(1, col.getDb().queryScalar("SELECT min(due) FROM cards WHERE type = 0"));
+            assertEquals(NOTES, col.getDb().queryScalar("SELECT max(due) FROM cards WHERE type = 0"));
+
+            col.getSched().orderCards(1);
+            // back in the order the notes' first cards were added
+            List<Long> nids = col.getDb().queryColumn(Long.class,
+                    "SELECT nid FROM cards GROUP BY nid ORDER BY min(id)", 0);
+            for (int i = 0; i < nids.size(); i++) {
+                assertEquals(i + 1, col.getDb().queryScalar("SELECT max(due) FROM cards WHERE type = 0 AND nid = "
+                        + nids.get(i)));
+            }
+            // review cards are left alone
+            assertEquals(NOTES / 10, col.getDb().queryScalar("SELECT count() FROM cards WHERE type = 2 AND due = 5"));
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testSortWithShift() throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            fillCards(col);
+            col.getSched().orderCards(1);
+            // move the last ten notes to the front, the cards in reverse
+            List<Long> cids = col.getDb().queryColumn(Long.class, "SELECT id FROM cards WHERE type = 0 AND due > "
+                    + (NOTES - 10) + " ORDER BY id DESC", 0);
+            col.getSched().sortCards(Utils.toPrimitive(cids), 1, 1, false, true);
+            Set<Long> moved = new HashSet<>(col.getDb().queryColumn(Long.class,
+                    "SELECT nid FROM cards WHERE id IN " + Utils.ids2str(Utils.toPrimitive(cids)), 0));
+            List<Long> front = col.getDb().queryColumn(Long.class,
+                    "SELECT DISTINCT nid FROM cards WHERE type = 0 AND due <= 10 ORDER BY due", 0);
+            assertEquals(moved, new HashSet<>(front));
+            // in the order they were given: the note of the first card comes first
+            assertEquals((long) col.getDb().queryLongScalar("SELECT nid FROM cards WHERE id = " + cids.get(0)),
+                    (long) front.get(0));
+            // the others moved up by ten
+            assertEquals(11, col.getDb().queryScalar("SELECT min(due) FROM cards WHERE type = 0 AND nid NOT IN "
+                    + Utils.ids2str(Utils.toPrimitive(new ArrayList<>(moved)))));
+        } finally {
+            col.close();
+        }
+    }
+
+
+    /**
+     * Add NOTES notes with two cards each. Most cards are new; every tenth note has a review card.
+     */
+    private void fillCards(Collection col) throws JSONException {
+        long mid = col.getModels().current().getLong("id");
+        List<Object[]> notes = new ArrayList<>();
+        List<Object[]> cards = new ArrayList<>();
+        for (int i = 0; i < NOTES; i++) {
+            long nid = 1000000000000L + i;
+            String front = "front " + i;
+            notes.add(new Object[] { nid, Long.toString(nid, 36), mid, 0, 0, "", front + "\u001fback", front,
+                    Utils.fieldChecksum(front), 0, "" });
+            for (int ord = 0; ord < 2; ord++) {
+                // card ids in a different order from note ids
+                long cid = 2000000000000L + (i * 7919L % NOTES) * 2 + ord;
+                boolean review = ord == 1 && i % 10 == 0;
+                int type = review ? 2 : 0;
+                cards.add(new Object[] { cid, nid, 1, ord, 0, 0, type, type, review ? 5 : i + 1, review ? 10 : 0,
+                        2500, 0, 0, 0, 0, 0, 0, "" });
+            }
+        }
+        col.getDb().executeMany("INSERT INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", notes);
+        col.getDb().executeMany("INSERT INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", cards);
+    }
+}
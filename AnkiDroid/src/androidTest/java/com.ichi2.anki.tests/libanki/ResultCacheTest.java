@@ -0,0 +1,50 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Finder;
+import com.ichi2.libanki.Note;
+
+import java.io.IOException;
+
+/**
+ * Checks that repeated searches are answered from the result cache until the cards or notes change.
+ */
+public class ResultCacheTest extends AndroidTestCase {
+
+    public void testCache() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            Note note = col.newNote();
+            note.setItem("Front", "one");
+            col.addNote(note);
+            Finder.ResultCache cache = col.getResultCache();
+
+            assertEquals(1, col.findCards("is:new").size());
+            int misses = cache.getMisses();
+            int hits = cache.getHits();
+            // spaces don't make another search
+            assertEquals(1, col.findCards("  is:new ").size());
+            assertEquals(hits + 1, cache.getHits());
+            assertEquals(misses, cache.getMisses());
+
+            Note other = col.newNote();
+            other.setItem("Front", "two");
+            col.addNote(other);
+            assertEquals(2, col.findCards("is:new").size());
+            assertEquals(misses + 1, cache.getMisses());
+
+            assertEquals(1, col.findNotes("two").size());
+            other.setItem("Front", "three");
+            other.flush();
+            assertEquals(0, col.findNotes("two").size());
+            assertEquals(0, col.findCards("is:suspended").size());
+            col.getSched().suspendCards(new long[] { other.cards().get(0).getId() });
+            assertEquals(1, col.findCards("is:suspended").size());
+        } finally {
+            col.close();
+        }
+    }
+}
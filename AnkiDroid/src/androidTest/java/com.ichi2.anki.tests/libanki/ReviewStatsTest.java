@@ -0,0 +1,146 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.DB;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.ReviewStats;
+import com.ichi2.libanki.Sched;
+import com.ichi2.libanki.Storage;
+import com.ichi2.libanki.Utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the rolling answer statistics follow answers and undo, and match a rebuild from the revlog.
+ */
+public class ReviewStatsTest extends AndroidTestCase {
+
+    public void testAnswersAndUndo() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            for (int i = 0; i < 4; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", "front " + i);
+                note.setItem("Back", "back");
+                col.addNote(note);
+            }
+            Sched sched = col.getSched();
+            ReviewStats stats = sched.getReviewStats();
+            sched.reset();
+            int[] eases = { 1, 3, 2, 3 };
+            for (int ease : eases) {
+                Card card = sched.getCard();
+                col.markReview(card);
+                sched.answerCard(card, ease);
+            }
+            assertEquals(4, stats.answers(sched.getToday(), null));
+            // two of the four learning answers were "easy"
+            assertEquals(0.5, stats.rates(sched.getToday(), null)[2], 0.001);
+            col.undo();
+            assertEquals(3, stats.answers(sched.getToday(), null));
+            double[] rates = stats.rates(sched.getToday(), null);
+
+            stats.invalidate();
+            assertTrue(Arrays.equals(rates, stats.rates(sched.getToday(), null)));
+            assertEquals(3, stats.answers(sched.getToday(), null));
+            assertEquals(0, stats.answers(sched.getToday(), Arrays.asList(12345L)));
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testChangedElsewhere() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        String path = col.getPath();
+        Note note = col.newNote();
+        note.setItem("Front", "front");
+        note.setItem("Back", "back");
+        col.addNote(note);
+        long cid = note.cards().get(0).getId();
+        Sched sched = col.getSched();
+        sched.reset();
+        Card card = sched.getCard();
+        col.markReview(card);
+        sched.answerCard(card, 3);
+        assertEquals(1, sched.getReviewStats().answers(sched.getToday(), null));
+        col.close();
+
+        // an answer that AnkiDroid didn't log, while the collection keeps its mod time: the totals are trusted
+        _addAnswer(path, cid, false);
+        col = Storage.Collection(getContext(), path);
+        try {
+            sched = col.getSched();
+            assertEquals(1, sched.getReviewStats().answers(sched.getToday(), null));
+        } finally {
+            col.close();
+        }
+        // another client changed the collection, which also sets its mod time: the totals are rebuilt
+        _addAnswer(path, cid, true);
+        col = Storage.Collection(getContext(), path);
+        try {
+            sched = col.getSched();
+            assertEquals(3, sched.getReviewStats().answers(sched.getToday(), null));
+        } finally {
+            col.close();
+        }
+    }
+
+
+    /** Log an answer for card CID in the collection at PATH behind AnkiDroid's back, setting its mod time if MOD. */
+    private static void _addAnswer(String path, long cid, boolean mod) {
+        DB db = new DB(path);
+        try {
+            long now = Utils.intNow(1000);
+            // the ids of the two answers differ even if they are logged within the same millisecond
+            db.execute("INSERT INTO revlog VALUES (?,?,-1,3,1,0,0,1000,0)", new Object[] { now + (mod ? 1 : 0), cid });
+            if (mod) {
+                db.execute("UPDATE col SET mod = ?", new Object[] { now });
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+
+    public void testDeckTreeEtas() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            long child = col.getDecks().id("Default::Child");
+            for (int i = 0; i < 4; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", "front " + i);
+                note.setItem("Back", "back");
+                col.addNote(note);
+            }
+            col.getDb().execute("UPDATE cards SET did = ? WHERE id IN (SELECT id FROM cards LIMIT 2)",
+                    new Object[] { child });
+            Sched sched = col.getSched();
+            sched.reset();
+            Card card = sched.getCard();
+            col.markReview(card);
+            sched.answerCard(card, 1);
+            List<Sched.DeckDueTreeNode> tree = sched.deckDueTree();
+            sched.setEtas(tree);
+            for (Sched.DeckDueTreeNode node : tree) {
+                if (node.did == 1) {
+                    // the estimate of a parent covers the answers given in its subdecks
+                    int[] counts = { node.newCount, node.lrnCount, node.revCount };
+                    assertEquals(sched.etaForDecks(counts, Arrays.asList(1L, child)), node.eta);
+                    assertEquals(1, node.children.size());
+                    Sched.DeckDueTreeNode sub = node.children.get(0);
+                    counts = new int[] { sub.newCount, sub.lrnCount, sub.revCount };
+                    assertEquals(sched.etaForDecks(counts, Arrays.asList(child)), sub.eta);
+                }
+            }
+        } finally {
+            col.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.Sched;
+import com.ichi2.libanki.Utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+/**
+ * Compares the per-answer latency of the scheduler when every card is loaded on its own, and when queued cards are
+ * loaded in batches. Both runs use the same synthetic collection, so they must also show the same cards.
+ */
+@LargeTest
+public class SchedPrefetchBenchmark extends AndroidTestCase {
+
+    private static final int NOTES = 100000;
+    private static final int ANSWERS = 1000;
+
+
+    public void testAnswerLatency() throws IOException, JSONException {
+        List<Long> unbatched = new ArrayList<>();
+        List<Long> batched = new ArrayList<>();
+        long unbatchedNs = answerAll(1, unbatched);
+        long batchedNs = answerAll(10, batched);
+        Timber.i(String.format(Locale.US, "%d answers on %d cards: %.3f ms/answer unbatched, %.3f ms/answer batched",
+                ANSWERS, NOTES, unbatchedNs / 1e6 / ANSWERS, batchedNs / 1e6 / ANSWERS));
+        assertEquals(ANSWERS, unbatched.size());
+        assertEquals(unbatched, batched);
+    }
+
+
+    public void testPrefetchedCardsFollowEdits() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            for (int i = 0; i < 5; i++) {
+                Note note = col.newNote();
+                note.setItem("Front", "front " + i);
+                note.setItem("Back", "back");
+                col.addNote(note);
+            }
+            Sched sched = col.getSched();
+            sched.setPrefetchLimit(10);
+            sched.reset();
+            // loads the other new cards ahead
+            sched.getCard();
+            // as the browser would
+            col.getDb().execute("UPDATE cards SET factor = 1300");
+            assertEquals(1300, sched.getCard().getFactor());
+        } finally {
+            col.close();
+        }
+    }
+
+
+    /**
+     * Answer ANSWERS due review cards on a fresh synthetic collection, recording the ids that were shown.
+     * @return The time spent fetching and answering cards, in nanoseconds.
+     */
+    private long answerAll(int prefetchLimit, List<Long> shown) throws IOException, JSONException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            fillReviews(col);
+            Sched sched = col.getSched();
+            sched.setPrefetchLimit(prefetchLimit);
+            sched.reset();
+            long start = System.nanoTime();
+            for (int i = 0; i < ANSWERS; i++) {
+                Card card = sched.getCard();
+                shown.add(card.getId());
+                sched.answerCard(card, 3);
+            }
+            return System.nanoTime() - start;
+        } finally {
+            col.close();
+        }
+    }
+
+
+    /**
+     * Add NOTES notes with one review card each, all due today. Ids and due days are fixed so that every collection
+     * built by this method is identical.
+     */
+    private void fillReviews(Collection col) throws JSONException {
+        JSONObject model = col.getModels().current();
+        long mid = model.getLong("id");
+        JSONObject conf = col.getDecks().confForDid(1);
+        conf.getJSONObject("rev").put("perDay", ANSWERS);
+        col.getDecks().save(conf);
+        int today = col.getSched().getToday();
+        List<Object[]> notes = new ArrayList<>();
+        List<Object[]> cards = new ArrayList<>();
+        for (int i = 0; i < NOTES; i++) {
+            long id = 1000000000000L + i;
+            String front = "front " + i;
+            notes.add(new Object[] { id, Long.toString(id, 36), mid, 0, 0, "", front + "\u001fback " + i, front,
+                    Utils.fieldChecksum(front), 0, "" });
+            cards.add(new Object[] { id, id, 1, 0, 0, 0, 2, 2, today - (i % 30), 10, 2500, 5, 0, 0, 0, 0, 0, "" });
+        }
+        col.getDb().executeMany("INSERT INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", notes);
+        col.getDb().executeMany("INSERT INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", cards);
+        col.save();
+    }
+}
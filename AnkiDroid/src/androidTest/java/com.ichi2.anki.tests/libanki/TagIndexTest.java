@@ -0,0 +1,81 @@
+package com.ichi2.anki.tests.libanki;
+
+import android.test.AndroidTestCase;
+
+import com.ichi2.anki.tests.Shared;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.DB;
+import com.ichi2.libanki.Note;
+import com.ichi2.libanki.Storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Checks that tag searches and the tags of a deck follow changes to the tags of notes.
+ */
+public class TagIndexTest extends AndroidTestCase {
+
+    public void testTags() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        try {
+            Note note = col.newNote();
+            note.setItem("Front", "one");
+            note.addTag("Verb");
+            note.addTag("french::grammar");
+            col.addNote(note);
+            Note other = col.newNote();
+            other.setItem("Front", "two");
+            col.addNote(other);
+
+            assertEquals(1, col.findNotes("tag:verb").size());
+            assertEquals(1, col.findNotes("tag:french*").size());
+            assertEquals(0, col.findNotes("tag:french").size());
+            assertEquals(1, col.findNotes("tag:none").size());
+            assertEquals(2, col.getTags().byDeck(1, false).size());
+
+            col.getTags().bulkAdd(Arrays.asList(other.getId()), "verb noun");
+            assertEquals(2, col.findNotes("tag:verb").size());
+            col.getTags().bulkRem(Arrays.asList(note.getId()), "verb");
+            assertEquals(1, col.findNotes("tag:verb").size());
+
+            // the note was loaded before bulkRem, so flushing it puts its old tag back
+            note.delTag("french::grammar");
+            note.flush();
+            assertEquals(0, col.findNotes("tag:french*").size());
+            col.remNotes(new long[] { other.getId() });
+            assertEquals(0, col.findNotes("tag:noun").size());
+            assertEquals(Arrays.asList("Verb"), col.getTags().byDeck(1, true));
+        } finally {
+            col.close();
+        }
+    }
+
+
+    public void testChangedElsewhere() throws IOException {
+        Collection col = Shared.getEmptyCol(getContext());
+        String path = col.getPath();
+        Note note = col.newNote();
+        note.setItem("Front", "one");
+        note.addTag("verb");
+        col.addNote(note);
+        assertEquals(1, col.findNotes("tag:verb").size());
+        col.close();
+
+        // another client retags the note, which the index knows nothing of
+        DB db = new DB(path);
+        try {
+            db.execute("UPDATE notes SET tags = ' noun ' WHERE id = ?", new Object[] { note.getId() });
+            db.execute("UPDATE col SET mod = mod + 1");
+        } finally {
+            db.close();
+        }
+        col = Storage.Collection(getContext(), path);
+        try {
+            assertEquals(0, col.findNotes("tag:verb").size());
+            assertEquals(1, col.findNotes("tag:noun").size());
+        } finally {
+            col.close();
+        }
+    }
+}
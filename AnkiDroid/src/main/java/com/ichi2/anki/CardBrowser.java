@@ -26,6 +26,7 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Typeface;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.view.MenuItemCompat;
@@ -62,6 +63,7 @@ import com.ichi2.anki.receiver.SdCardReceiver;
 import com.ichi2.anki.widgets.DeckDropDownAdapter;
 import com.ichi2.async.DeckTask;
 import com.ichi2.async.DeckTask.TaskData;
+import com.ichi2.libanki.BrowserResults;
 import com.ichi2.libanki.Card;
 import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.Note;
@@ -74,7 +76,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -86,7 +87,7 @@ import timber.log.Timber;
 public class CardBrowser extends NavigationDrawerActivity implements
         DeckDropDownAdapter.SubtitleListener {
 
-    private List<Map<String, String>> mCards;
+    private BrowserResults mCards;
     private HashMap<String, String> mDeckNames;
     private ArrayList<JSONObject> mDropDownDecks;
     private ListView mCardsListView;
@@ -94,6 +95,14 @@ public class CardBrowser extends NavigationDrawerActivity implements
     private MultiColumnListAdapter mCardsAdapter;
     private String mSearchTerms;
     private String mRestrictOnDeck;
+    // searches while typing, once the query has stopped changing for SEARCH_DELAY ms
+    private Handler mSearchHandler = new Handler();
+    private Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onSearch();
+        }
+    };
 
     private MenuItem mSearchItem;
     private MenuItem mSaveSearchItem;
@@ -116,6 +125,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
     private static final int EDIT_CARD = 0;
     private static final int ADD_NOTE = 1;
     private static final int DEFAULT_FONT_SIZE_RATIO = 100;
+    private static final int SEARCH_DELAY = 300;
+    // the number of cards found at once; more are found as the list is scrolled near the end of those found so far
+    private static final int CARDS_PAGE = 1000;
     // Should match order of R.array.card_browser_order_labels
     public static final int CARD_ORDER_NONE = 0;
     private static final String[] fSortTypes = new String[] {
@@ -128,7 +140,11 @@ public class CardBrowser extends NavigationDrawerActivity implements
         "cardIvl",
         "cardEase",
         "cardReps",
-        "cardLapses"};
+        "cardLapses",
+        "deck",
+        "note",
+        "template",
+        "noteTags"};
     // list of available keys in mCards corresponding to the column names in R.array.browser_column2_headings.
     // Note: the last 6 are currently hidden
     private static final String[] COLUMN1_KEYS = {"question", "sfld"};
@@ -150,6 +166,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
     private DeckDropDownAdapter mDropDownAdapter;
     private Spinner mActionBarSpinner;
     private boolean mReloadRequired = false;
+    private boolean mLoadingPage = false;
 
     /**
      * Broadcast that informs us when the sd card is about to be unmounted
@@ -165,7 +182,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
                 searchCards();
                 return;
             }
-            final Card card = getCol().getCard(Long.parseLong(getCards().get(mPositionInCardsList).get("id")));
+            final Card card = getCol().getCard(getCards().getId(mPositionInCardsList));
             switch (which) {
                 case CardBrowserContextMenu.CONTEXT_MENU_MARK:
                     onMark(card);
@@ -187,8 +204,8 @@ public class CardBrowser extends NavigationDrawerActivity implements
                     new MaterialDialog.Builder(CardBrowser.this)
                             .title(res.getString(R.string.delete_card_title))
                             .iconAttr(R.attr.dialogErrorIcon)
-                            .content(res.getString(R.string.delete_card_message, getCards().get(mPositionInCardsList)
-                                    .get("sfld")))
+                            .content(res.getString(R.string.delete_card_message, getCards()
+                                    .getColumn(mPositionInCardsList, "sfld")))
                             .positiveText(res.getString(R.string.dialog_positive_delete))
                             .negativeText(res.getString(R.string.dialog_cancel))
                             .onPositive(new MaterialDialog.SingleButtonCallback() {
@@ -204,7 +221,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
                     return;
 
                 case CardBrowserContextMenu.CONTEXT_MENU_DETAILS:
-                    Long cardId = Long.parseLong(getCards().get(mPositionInCardsList).get("id"));
+                    Long cardId = getCards().getId(mPositionInCardsList);
                     Intent previewer = new Intent(CardBrowser.this, Previewer.class);
                     previewer.putExtra("index", mPositionInCardsList);
                     previewer.putExtra("cardList", getCardIds());
@@ -235,7 +252,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
                                 .commit();
                     }
                     // default to descending for non-text fields
-                    if (fSortTypes[mOrder].equals("noteFld")) {
+                    if (isTextSort(mOrder)) {
                         mOrderAsc = true;
                     }
                     getCol().getConf().put("sortBackwards", mOrderAsc);
@@ -250,8 +267,13 @@ public class CardBrowser extends NavigationDrawerActivity implements
                 } catch (JSONException e) {
                     throw new RuntimeException(e);
                 }
-                Collections.reverse(mCards);
-                updateList();
+                if (getCards().hasMore()) {
+                    // only the first cards were found, so the others come first now
+                    searchCards();
+                } else {
+                    getCards().reverse();
+                    updateList();
+                }
             }
             return true;
         }
@@ -399,14 +421,14 @@ public class CardBrowser extends NavigationDrawerActivity implements
             }
             mOrderAsc = Upgrade.upgradeJSONIfNecessary(getCol(), getCol().getConf(), "sortBackwards", false);
             // default to descending for non-text fields
-            if (fSortTypes[mOrder].equals("noteFld")) {
+            if (isTextSort(mOrder)) {
                 mOrderAsc = !mOrderAsc;
             }
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
 
-        mCards = new ArrayList<>();
+        mCards = new BrowserResults();
         mCardsListView = (ListView) findViewById(R.id.card_browser_list);
         // Create a spinner for column1
         Spinner cardsColumn1Spinner = (Spinner) findViewById(R.id.browser_column1_spinner);
@@ -488,7 +510,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 // load up the card selected on the list
                 mPositionInCardsList = position;
-                long cardId = Long.parseLong(getCards().get(mPositionInCardsList).get("id"));
+                long cardId = getCards().getId(mPositionInCardsList);
                 sCardBrowserCard = getCol().getCard(cardId);
                 // start note editor using the card we just loaded
                 Intent editCard = new Intent(CardBrowser.this, NoteEditor.class);
@@ -501,11 +523,10 @@ public class CardBrowser extends NavigationDrawerActivity implements
             @Override
             public boolean onItemLongClick(AdapterView<?> adapterView, View view, int position, long id) {
                 mPositionInCardsList = position;
-                Map<String, String> card = getCards().get(mPositionInCardsList);
-                int flags = Integer.parseInt(card.get("flags"));
-                String cardName = card.get("sfld");
-                boolean isMarked = (flags == 2 || flags == 3);
-                boolean isSuspended = (flags == 1 || flags == 3);
+                int flags = getCards().getFlags(mPositionInCardsList);
+                String cardName = getCards().getColumn(mPositionInCardsList, "sfld");
+                boolean isMarked = (flags & BrowserResults.FLAG_MARKED) != 0;
+                boolean isSuspended = (flags & BrowserResults.FLAG_SUSPENDED) != 0;
                 showDialogFragment(CardBrowserContextMenu
                         .newInstance(cardName, isMarked, isSuspended, mContextMenuListener));
                 return true;
@@ -527,6 +548,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
         Timber.d("onStop()");
         // cancel rendering the question and answer, which has shared access to mCards
         DeckTask.cancelTask(DeckTask.TASK_TYPE_SEARCH_CARDS);
+        DeckTask.cancelTask(DeckTask.TASK_TYPE_SEARCH_CARDS_PAGE);
         DeckTask.cancelTask(DeckTask.TASK_TYPE_RENDER_BROWSER_QA);
         super.onStop();
         if (!isFinishing()) {
@@ -540,6 +562,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
     protected void onDestroy() {
         Timber.d("onDestroy()");
         super.onDestroy();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
         if (mUnmountReceiver != null) {
             unregisterReceiver(mUnmountReceiver);
         }
@@ -599,6 +622,11 @@ public class CardBrowser extends NavigationDrawerActivity implements
             @Override
             public boolean onQueryTextChange(String newText) {
                 mSaveSearchItem.setVisible(!TextUtils.isEmpty(newText));
+                // search as the user types, but not for each key
+                mSearchHandler.removeCallbacks(mSearchRunnable);
+                if (!newText.equals(mSearchTerms)) {
+                    mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DELAY);
+                }
                 return true;
             }
 
@@ -718,10 +746,9 @@ public class CardBrowser extends NavigationDrawerActivity implements
     }
 
     private boolean currentCardInUseByReviewer() {
-        if (getIntent().hasExtra("currentCard") && getCards().size() > mPositionInCardsList
-                && getCards().get(mPositionInCardsList) != null) {
+        if (getIntent().hasExtra("currentCard") && getCards().size() > mPositionInCardsList) {
             long reviewerCard = getIntent().getExtras().getLong("currentCard");
-            long selectedCard = Long.parseLong(getCards().get(mPositionInCardsList).get("id"));
+            long selectedCard = getCards().getId(mPositionInCardsList);
             return selectedCard == reviewerCard;
         }
         return false;
@@ -793,9 +820,12 @@ public class CardBrowser extends NavigationDrawerActivity implements
     }
 
     private void searchCards() {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
         // cancel the previous search & render tasks if still running
         DeckTask.cancelTask(DeckTask.TASK_TYPE_SEARCH_CARDS);
+        DeckTask.cancelTask(DeckTask.TASK_TYPE_SEARCH_CARDS_PAGE);
         DeckTask.cancelTask(DeckTask.TASK_TYPE_RENDER_BROWSER_QA);
+        mLoadingPage = false;
         String searchText;
         if (mSearchTerms.contains("deck:")) {
             searchText = mSearchTerms;
@@ -803,15 +833,17 @@ public class CardBrowser extends NavigationDrawerActivity implements
             searchText = mRestrictOnDeck + mSearchTerms;
         }
         if (colIsOpen() && mCardsAdapter!= null) {
-            // clear the existing card list
-            getCards().clear();
+            // clear the existing card list, keeping the results to narrow down if the new search only refines them
+            BrowserResults previous = getCards();
+            mCards = new BrowserResults();
             mCardsAdapter.notifyDataSetChanged();
             //  estimate maximum number of cards that could be visible (assuming worst-case minimum row height of 20dp)
             int numCardsToRender = (int) Math.ceil(mCardsListView.getHeight()/
                     TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 20, getResources().getDisplayMetrics())) + 5;
-            // Perform database query to get all card ids
+            // Perform database query to get the ids of the first page of cards
             DeckTask.launchDeckTask(DeckTask.TASK_TYPE_SEARCH_CARDS, mSearchCardsHandler, new DeckTask.TaskData(
-                    new Object[] { mDeckNames, searchText, ((mOrder != CARD_ORDER_NONE)),  numCardsToRender}));
+                    new Object[] { mDeckNames, searchText, ((mOrder != CARD_ORDER_NONE)),  numCardsToRender,
+                            previous, CARDS_PAGE }));
         }
     }
 
@@ -825,22 +857,11 @@ public class CardBrowser extends NavigationDrawerActivity implements
      * @return text to be used in the subtitle of the drop-down deck selector
      */
     public String getSubtitleText() {
-        int count = getCards().size();
+        int count = getCards().getTotal();
         return getResources().getQuantityString(R.plurals.card_browser_subtitle, count, count);
     }
 
 
-    private int getPosition(List<Map<String, String>> list, long cardId) {
-        String cardid = Long.toString(cardId);
-        for (int i = 0; i < list.size(); i++) {
-            if (list.get(i).get("id").equals(cardid)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-
     /**
      * Get the index in the deck spinner for a given deck ID
      * @param did the id of a deck
@@ -869,20 +890,19 @@ public class CardBrowser extends NavigationDrawerActivity implements
         Note note = card.note();
         int pos;
         for (Card c : note.cards()) {
-            // get position in the mCards search results HashMap
-            pos = getPosition(getCards(), c.getId());
+            // get position in the mCards search results
+            pos = getCards().indexOf(c.getId());
             if (pos < 0 || pos >= getCards().size()) {
                 continue;
             }
+            Map<String, String> row = getCards().getRow(pos);
             // update tags
-            if (updatedCardTags != null) {
-                getCards().get(pos).put("tags", updatedCardTags);
-            }
+            row.put("tags", updatedCardTags != null ? updatedCardTags : note.stringTags());
             // update sfld
             String sfld = note.getSFld();
-            getCards().get(pos).put("sfld", sfld);
+            row.put("sfld", sfld);
             // update Q & A etc
-            updateSearchItemQA(getCards().get(pos), c);
+            updateSearchItemQA(row, c);
             // update deck
             String deckName;
             try {
@@ -890,10 +910,10 @@ public class CardBrowser extends NavigationDrawerActivity implements
             } catch (JSONException e) {
                 throw new RuntimeException(e);
             }
-            getCards().get(pos).put("deck", deckName);
+            getCards().setDeckName(pos, deckName);
             // update flags (marked / suspended / etc) which determine color
-            String flags = Integer.toString((c.getQueue() == -1 ? 1 : 0) + (note.hasTag("marked") ? 2 : 0));
-            getCards().get(pos).put("flags", flags);
+            getCards().setFlags(pos, (c.getQueue() == -1 ? BrowserResults.FLAG_SUSPENDED : 0)
+                    + (note.hasTag("marked") ? BrowserResults.FLAG_MARKED : 0));
         }
         updateList();
     }
@@ -984,13 +1004,13 @@ public class CardBrowser extends NavigationDrawerActivity implements
         ArrayList<Card> cards = card.note().cards();
         int pos;
         for (Card c : cards) {
-            pos = getPosition(getCards(), c.getId());
+            pos = getCards().indexOf(c.getId());
             if (pos >= 0 && pos < getCards().size()) {
                 getCards().remove(pos);
             }
         }
         // Delete itself if not deleted
-        pos = getPosition(getCards(), card.getId());
+        pos = getCards().indexOf(card.getId());
         if (pos >= 0 && pos < getCards().size()) {
             getCards().remove(pos);
         }
@@ -1013,7 +1033,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
         @Override
         public void onPostExecute(DeckTask.TaskData result) {
             if (result.getBoolean()) {
-                updateCardInList(getCol().getCard(Long.parseLong(getCards().get(mPositionInCardsList).get("id"))), null);
+                updateCardInList(getCol().getCard(getCards().getId(mPositionInCardsList)), null);
             } else {
                 closeCardBrowser(DeckPicker.RESULT_DB_ERROR);
             }
@@ -1083,6 +1103,34 @@ public class CardBrowser extends NavigationDrawerActivity implements
         }
     };
 
+    private DeckTask.TaskListener mSearchCardsPageHandler = new DeckTask.TaskListener() {
+        @Override
+        public void onPreExecute() {
+        }
+
+
+        @Override
+        public void onProgressUpdate(TaskData... values) {
+        }
+
+
+        @Override
+        public void onPostExecute(TaskData result) {
+            mLoadingPage = false;
+            // ignored if the cards were searched for again in the meantime
+            if (result != null && getCards().append(result.getCards())) {
+                Timber.d("CardBrowser:: Found %d more cards", result.getCards().size());
+                mCardsAdapter.notifyDataSetChanged();
+            }
+        }
+
+
+        @Override
+        public void onCancelled() {
+            mLoadingPage = false;
+        }
+    };
+
     private DeckTask.TaskListener mRenderQAHandler = new DeckTask.TaskListener() {
         @Override
         public void onProgressUpdate(TaskData... values) {
@@ -1143,11 +1191,15 @@ public class CardBrowser extends NavigationDrawerActivity implements
             // Show the progress bar if scrolling to given position requires rendering of the question / answer
             int lastVisibleItem = firstVisibleItem + visibleItemCount;
             int size = getCards().size();
+            // find the next page of cards before the end of those found so far is reached
+            if (getCards().hasMore() && !mLoadingPage && lastVisibleItem >= size - CARDS_PAGE / 2) {
+                mLoadingPage = true;
+                DeckTask.launchDeckTask(DeckTask.TASK_TYPE_SEARCH_CARDS_PAGE, mSearchCardsPageHandler,
+                        new DeckTask.TaskData(new Object[] { mDeckNames, getCards(), CARDS_PAGE }));
+            }
             if (size > 0 && firstVisibleItem < size && lastVisibleItem - 1 < size) {
-                String firstAns = getCards().get(firstVisibleItem).get("answer");
                 // Note: max value of lastVisibleItem is totalItemCount, so need to subtract 1
-                String lastAns = getCards().get(lastVisibleItem - 1).get("answer");
-                if (firstAns != null && firstAns.equals("") || lastAns != null && lastAns.equals("")) {
+                if (!getCards().isRendered(firstVisibleItem) || !getCards().isRendered(lastVisibleItem - 1)) {
                     showProgressBar();
                     // Also start rendering the items on the screen every 300ms while scrolling
                     long currentTime = SystemClock.elapsedRealtime ();
@@ -1221,8 +1273,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
         private void bindView(int position, View v) {
             // Draw the content in the columns
             View[] columns = (View[]) v.getTag();
-            final Map<String, String> dataSet = getCards().get(position);
-            final int colorIdx = getColor(dataSet.get(mColorFlagKey));
+            final int colorIdx = getColor(getCards().getColumn(position, mColorFlagKey));
             int[] colors = Themes.getColorFromAttr(CardBrowser.this, new int[]{android.R.attr.colorBackground,
                     R.attr.markedColor, R.attr.suspendedColor, R.attr.markedColor});
             for (int i = 0; i < mToIds.length; i++) {
@@ -1232,7 +1283,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
                 // set background color for column
                 col.setBackgroundColor(colors[colorIdx]);
                 // set text for column
-                col.setText(dataSet.get(mFromKeys[i]));
+                col.setText(getCards().getColumn(position, mFromKeys[i]));
             }
         }
 
@@ -1294,7 +1345,7 @@ public class CardBrowser extends NavigationDrawerActivity implements
 
         @Override
         public Object getItem(int position) {
-            return getCards().get(position);
+            return getCards().getId(position);
         }
 
 
@@ -1305,19 +1356,24 @@ public class CardBrowser extends NavigationDrawerActivity implements
     }
 
 
-    private List<Map<String, String>> getCards() {
+    private BrowserResults getCards() {
         if (mCards == null) {
-            mCards = new ArrayList<>();
+            mCards = new BrowserResults();
         }
         return mCards;
     }
 
+    /** The ids of the cards found so far, the previewer's list */
     private long[] getCardIds() {
-        long[] l = new long[mCards.size()];
-        for (int i = 0; i < mCards.size(); i++) {
-            l[i] = Long.parseLong(mCards.get(i).get("id"));
-        }
-        return l;
+        return getCards().ids();
+    }
+
+
+    /** Whether the sort type ORDER of fSortTypes sorts on text, which is shown in ascending order by default */
+    private static boolean isTextSort(int order) {
+        String type = fSortTypes[order];
+        return type.equals("noteFld") || type.equals("deck") || type.equals("note") || type.equals("template")
+                || type.equals("noteTags");
     }
 
 
@@ -97,6 +97,11 @@ public class CollectionHelper {
             // Open the database
             Timber.i("openCollection: %s", path);
             mCollection = Storage.Collection(context, path, false, true);
+            if (AnkiDroidApp.getSharedPrefs(context).getBoolean("writeBehind", false)) {
+                mCollection.setWriteBehind(true);
+            }
+            mCollection.getFullTextIndex().setWanted(
+                    AnkiDroidApp.getSharedPrefs(context).getBoolean("fullTextIndex", false));
         }
         return mCollection;
     }
@@ -370,6 +370,11 @@ public class DeckOptions extends AppCompatPreferenceActivity implements OnShared
 
                 @Override
                 public void onProgressUpdate(DeckTask.TaskData... values) {
+                    // progress of reordering the new cards
+                    if (values.length > 0 && mProgressDialog != null && mProgressDialog.isShowing()) {
+                        mProgressDialog.setContent(getResources().getString(R.string.reordering_cards_progress,
+                                values[0].getInt()));
+                    }
                 }
 
 
@@ -1830,6 +1830,39 @@ public class DeckPicker extends NavigationDrawerActivity implements
     }
 
 
+    /**
+     * Once the deck list is shown the app is usually idle, so if the day cutoff is near, use the time to prepare the
+     * next day's queues in the background. Studying or editing anything afterwards makes them useless, in which case
+     * the scheduler rebuilds the queues at the cutoff as usual.
+     */
+    private void prepareNextDay() {
+        long untilCutoff = getCol().getSched().getDayCutoff() - Utils.intNow();
+        if (untilCutoff <= 0 || untilCutoff > Sched.NEXT_DAY_WINDOW || getCol().getSched().isNextDayPrepared()) {
+            return;
+        }
+        DeckTask.launchDeckTask(DeckTask.TASK_TYPE_PREPARE_NEXT_DAY, new DeckTask.TaskListener() {
+            @Override
+            public void onPreExecute() {
+            }
+
+
+            @Override
+            public void onPostExecute(TaskData result) {
+            }
+
+
+            @Override
+            public void onProgressUpdate(TaskData... values) {
+            }
+
+
+            @Override
+            public void onCancelled() {
+            }
+        });
+    }
+
+
     /**
      * Launch an asynchronous task to rebuild the deck list and recalculate the deck counts. Use this
      * after any change to a deck (e.g., rename, collapse, add/delete) that needs to be reflected
@@ -1889,6 +1922,7 @@ public class DeckPicker extends NavigationDrawerActivity implements
 
                 // Update the mini statistics bar as well
                 AnkiStatsTaskHandler.createReviewSummaryStatistics(getCol(), mReviewSummaryTextView);
+                prepareNextDay();
             }
 
             @Override
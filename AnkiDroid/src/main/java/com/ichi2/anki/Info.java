@@ -195,6 +195,10 @@ public class Info extends AnkiActivity {
         sb.append("Android Version = " + Build.VERSION.RELEASE).append("\n\n");
         // ACRA install ID
         sb.append("ACRA UUID = ").append(Installation.id(this)).append("\n");
+        // Search result cache of the open collection
+        if (colIsOpen()) {
+            sb.append("\nSearch result cache = ").append(getCol().getResultCache()).append("\n");
+        }
         String debugInfo = sb.toString();
         ClipboardManager clipboard = (ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
         clipboard.setText(debugInfo);
@@ -15,10 +15,12 @@
 package com.ichi2.anki;
 
 import android.app.Activity;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v7.widget.Toolbar;
 import android.text.Html;
@@ -72,6 +74,15 @@ public class StudyOptionsFragment extends Fragment implements Toolbar.OnMenuItem
     /** Alerts to inform the user about different situations */
     private MaterialDialog mProgressDialog;
 
+    /** Stops a filtered deck rebuild when its progress dialog is cancelled */
+    private final DialogInterface.OnCancelListener mCancelRebuildListener = new DialogInterface.OnCancelListener() {
+        @Override
+        public void onCancel(DialogInterface dialog) {
+            Timber.i("StudyOptionsFragment:: rebuild cram deck cancelled");
+            DeckTask.cancelTask(DeckTask.TASK_TYPE_REBUILD_CRAM);
+        }
+    };
+
     /**
      * UI elements for "Study Options" view
      */
@@ -96,6 +107,15 @@ public class StudyOptionsFragment extends Fragment implements Toolbar.OnMenuItem
 
     private Thread mFullNewCountThread = null;
 
+    /** Refreshes the counts once the next learning card can be studied, see onActivityResult() */
+    private final Handler mLrnDueHandler = new Handler();
+    private final Runnable mLrnDueRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshInterfaceAndDecklist(true);
+        }
+    };
+
     StudyOptionsListener mListener;
 
 
@@ -198,6 +218,7 @@ public class StudyOptionsFragment extends Fragment implements Toolbar.OnMenuItem
         if (mFullNewCountThread != null) {
             mFullNewCountThread.interrupt();
         }
+        mLrnDueHandler.removeCallbacks(mLrnDueRunnable);
         Timber.d("onDestroy()");
     }
 
@@ -314,7 +335,7 @@ public class StudyOptionsFragment extends Fragment implements Toolbar.OnMenuItem
             case R.id.action_rebuild:
                 Timber.i("StudyOptionsFragment:: rebuild cram deck button pressed");
                 mProgressDialog = StyledProgressDialog.show(getActivity(), "",
-                        getResources().getString(R.string.rebuild_cram_deck), true);
+                        getResources().getString(R.string.rebuild_cram_deck), true, mCancelRebuildListener);
                 DeckTask.launchDeckTask(DeckTask.TASK_TYPE_REBUILD_CRAM, getDeckTaskListener(true),
                         new DeckTask.TaskData(mFragmented));
                 return true;
@@ -423,7 +444,7 @@ public class StudyOptionsFragment extends Fragment implements Toolbar.OnMenuItem
                     throw new RuntimeException(e);
                 }
                     mProgressDialog = StyledProgressDialog.show(getActivity(), "",
-                            getResources().getString(R.string.rebuild_cram_deck), true);
+                            getResources().getString(R.string.rebuild_cram_deck), true, mCancelRebuildListener);
                     DeckTask.launchDeckTask(DeckTask.TASK_TYPE_REBUILD_CRAM, getDeckTaskListener(true),
                             new DeckTask.TaskData(mFragmented));
             } else {
@@ -437,6 +458,17 @@ public class StudyOptionsFragment extends Fragment implements Toolbar.OnMenuItem
                 if ((counts[0]+counts[1]+counts[2])>0 && mStudyOptionsView != null) {
                     View rootLayout = mStudyOptionsView.findViewById(R.id.studyoptions_main);
                     UIUtils.showSnackbar(getActivity(), R.string.studyoptions_no_cards_due, false, 0, null, rootLayout);
+                    // learning cards can be studied from collapseTime before they are due
+                    long due = getCol().getSched().nextLrnDue();
+                    if (due > 0) {
+                        try {
+                            due -= getCol().getConf().getInt("collapseTime");
+                        } catch (JSONException e) {
+                            throw new RuntimeException(e);
+                        }
+                        mLrnDueHandler.removeCallbacks(mLrnDueRunnable);
+                        mLrnDueHandler.postDelayed(mLrnDueRunnable, Math.max(0, due - Utils.intNow()) * 1000);
+                    }
                 }
             }
         } else if (requestCode == STATISTICS && mCurrentContentView == CONTENT_CONGRATS) {
@@ -662,12 +694,17 @@ public class StudyOptionsFragment extends Fragment implements Toolbar.OnMenuItem
 
             @Override
             public void onProgressUpdate(DeckTask.TaskData... values) {
-
+                // progress of a filtered deck rebuild
+                if (values.length > 0 && mProgressDialog != null && mProgressDialog.isShowing()) {
+                    mProgressDialog.setContent(getResources().getString(R.string.rebuild_cram_deck_progress,
+                            values[0].getInt()));
+                }
             }
 
             @Override
             public void onCancelled() {
-
+                // a cancelled rebuild leaves the deck as it was
+                dismissProgressDialog();
             }
         };
     }
@@ -28,7 +28,6 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.database.MatrixCursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
@@ -346,7 +345,8 @@ public class CardContentProvider extends ContentProvider {
                     Card currentCard = col.getSched().getCard();
 
                     if (currentCard != null) {
-                        int buttonCount = col.getSched().answerButtons(currentCard);
+                        // all the button intervals in one go; they stay cached on the card for answering
+                        int buttonCount = col.getSched().answerPreview(currentCard).getButtonCount();
                         JSONArray buttonTexts = new JSONArray();
                         for (int i = 0; i < buttonCount; i++) {
                             buttonTexts.put(col.getSched().nextIvlStr(mContext, currentCard, i + 1));
@@ -751,10 +751,10 @@ public class CardContentProvider extends ContentProvider {
         JSONObject model = null;
 
         col.getDecks().flush(); // is it okay to move this outside the for-loop? Is it needed at all?
-        SQLiteDatabase sqldb = col.getDb().getDatabase();
+        DB db = col.getDb();
         try {
             int result = 0;
-            sqldb.beginTransaction();
+            db.beginTransaction();
             for (int i = 0; i < valuesArr.length; i++) {
                 ContentValues values = valuesArr[i];
                 if (values == null) {
@@ -801,10 +801,10 @@ public class CardContentProvider extends ContentProvider {
                 result++;
             }
             col.save();
-            sqldb.setTransactionSuccessful();
+            db.setTransactionSuccessful();
             return result;
         } finally {
-            sqldb.endTransaction();
+            db.endTransaction();
         }
     }
 
@@ -1152,7 +1152,7 @@ public class CardContentProvider extends ContentProvider {
     private void answerCard(Collection col, Sched sched, Card cardToAnswer, int ease, long timeTaken) {
         try {
             DB db = col.getDb();
-            db.getDatabase().beginTransaction();
+            db.beginTransaction();
             try {
                 if (cardToAnswer != null) {
                     if(timeTaken != -1){
@@ -1160,9 +1160,9 @@ public class CardContentProvider extends ContentProvider {
                     }
                     sched.answerCard(cardToAnswer, ease);
                 }
-                db.getDatabase().setTransactionSuccessful();
+                db.setTransactionSuccessful();
             } finally {
-                db.getDatabase().endTransaction();
+                db.endTransaction();
             }
         } catch (RuntimeException e) {
             Timber.e(e, "answerCard - RuntimeException on answering card");
@@ -79,7 +79,7 @@ public class DeckAdapter extends RecyclerView.Adapter<DeckAdapter.ViewHolder> {
         public ImageButton deckExpander;
         public ImageButton indentView;
         public TextView deckName;
-        public TextView deckNew, deckLearn, deckRev;
+        public TextView deckNew, deckLearn, deckRev, deckEta;
 
         public ViewHolder(View v) {
             super(v);
@@ -91,6 +91,7 @@ public class DeckAdapter extends RecyclerView.Adapter<DeckAdapter.ViewHolder> {
             deckNew = (TextView) v.findViewById(R.id.deckpicker_new);
             deckLearn = (TextView) v.findViewById(R.id.deckpicker_lrn);
             deckRev = (TextView) v.findViewById(R.id.deckpicker_rev);
+            deckEta = (TextView) v.findViewById(R.id.deckpicker_eta);
         }
     }
 
@@ -205,6 +206,13 @@ public class DeckAdapter extends RecyclerView.Adapter<DeckAdapter.ViewHolder> {
         holder.deckLearn.setTextColor((node.lrnCount == 0) ? mZeroCountColor : mLearnCountColor);
         holder.deckRev.setText(String.valueOf(node.revCount));
         holder.deckRev.setTextColor((node.revCount == 0) ? mZeroCountColor : mReviewCountColor);
+        // Estimated study time for the deck, worked out with the counts; also read out after them
+        if (node.eta > 0) {
+            holder.deckEta.setText(holder.deckEta.getContext().getString(R.string.time_quantity_minutes, node.eta));
+            holder.deckEta.setVisibility(View.VISIBLE);
+        } else {
+            holder.deckEta.setVisibility(View.GONE);
+        }
 
         // Store deck ID in layout's tag for easy retrieval in our click listeners
         holder.deckLayout.setTag(node.did);
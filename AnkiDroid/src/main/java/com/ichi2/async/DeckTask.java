@@ -30,6 +30,7 @@ import com.ichi2.anki.CollectionHelper;
 import com.ichi2.anki.R;
 import com.ichi2.anki.exception.ConfirmModSchemaException;
 import com.ichi2.libanki.AnkiPackageExporter;
+import com.ichi2.libanki.BrowserResults;
 import com.ichi2.libanki.Card;
 import com.ichi2.libanki.Collection;
 import com.ichi2.libanki.DB;
@@ -99,6 +100,8 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
     public static final int TASK_TYPE_CHANGE_SORT_FIELD = 46;
     public static final int TASK_TYPE_SAVE_MODEL = 47;
     public static final int TASK_TYPE_FIND_EMPTY_CARDS = 48;
+    public static final int TASK_TYPE_PREPARE_NEXT_DAY = 49;
+    public static final int TASK_TYPE_SEARCH_CARDS_PAGE = 50;
 
     /**
      * A reference to the application context to use to fetch the current Collection object.
@@ -332,6 +335,12 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
             case TASK_TYPE_FIND_EMPTY_CARDS:
                 return doInBackGroundFindEmptyCards(params);
 
+            case TASK_TYPE_PREPARE_NEXT_DAY:
+                return doInBackgroundPrepareNextDay(params);
+
+            case TASK_TYPE_SEARCH_CARDS_PAGE:
+                return doInBackgroundSearchCardsPage(params);
+
             default:
                 Timber.e("unknown task type: %d", mType);
                 return null;
@@ -375,12 +384,12 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         Collection col = CollectionHelper.getInstance().getCol(mContext);
         try {
             DB db = col.getDb();
-            db.getDatabase().beginTransaction();
+            db.beginTransaction();
             try {
                 publishProgress(new TaskData(col.addNote(note)));
-                db.getDatabase().setTransactionSuccessful();
+                db.setTransactionSuccessful();
             } finally {
-                db.getDatabase().endTransaction();
+                db.endTransaction();
             }
         } catch (RuntimeException e) {
             Timber.e(e, "doInBackgroundAddNote - RuntimeException on adding fact");
@@ -401,7 +410,7 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         boolean fromReviewer = params[0].getBoolean();
 
         try {
-            col.getDb().getDatabase().beginTransaction();
+            col.getDb().beginTransaction();
             try {
                 // TODO: undo integration
                 editNote.flush();
@@ -421,9 +430,9 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
                 } else {
                     publishProgress(new TaskData(editCard, editNote.stringTags()));
                 }
-                col.getDb().getDatabase().setTransactionSuccessful();
+                col.getDb().setTransactionSuccessful();
             } finally {
-                col.getDb().getDatabase().endTransaction();
+                col.getDb().endTransaction();
             }
         } catch (RuntimeException e) {
             Timber.e(e, "doInBackgroundUpdateNote - RuntimeException on updating fact");
@@ -442,7 +451,7 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         Card newCard = null;
         try {
             DB db = col.getDb();
-            db.getDatabase().beginTransaction();
+            db.beginTransaction();
             try {
                 if (oldCard != null) {
                     sched.answerCard(oldCard, ease);
@@ -455,10 +464,11 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
                     newCard._getQA(true);
                 }
                 publishProgress(new TaskData(newCard));
-                db.getDatabase().setTransactionSuccessful();
+                db.setTransactionSuccessful();
             } finally {
-                db.getDatabase().endTransaction();
+                db.endTransaction();
             }
+            col.answerCommitted();
         } catch (RuntimeException e) {
             Timber.e(e, "doInBackgroundAnswerCard - RuntimeException on answering card");
             AnkiDroidApp.sendExceptionReport(e, "doInBackgroundAnswerCard");
@@ -482,7 +492,9 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         Collection col = CollectionHelper.getInstance().getCol(mContext);
         try {
             // Get due tree
-            Object[] o = new Object[] {col.getSched().deckDueTree()};
+            List<Sched.DeckDueTreeNode> tree = col.getSched().deckDueTree();
+            col.getSched().setEtas(tree);
+            Object[] o = new Object[] {tree};
             return new TaskData(o);
         } catch (RuntimeException e) {
             Timber.e(e, "doInBackgroundLoadDeckCounts - error");
@@ -491,6 +503,18 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
     }
 
 
+    private TaskData doInBackgroundPrepareNextDay(TaskData... params) {
+        Timber.d("doInBackgroundPrepareNextDay");
+        Collection col = CollectionHelper.getInstance().getCol(mContext);
+        try {
+            return new TaskData(col.getSched().prepareNextDay());
+        } catch (RuntimeException e) {
+            Timber.e(e, "doInBackgroundPrepareNextDay - error");
+            return null;
+        }
+    }
+
+
     private TaskData doInBackgroundSaveCollection(TaskData... params) {
         Timber.d("doInBackgroundSaveCollection");
         Collection col = CollectionHelper.getInstance().getCol(mContext);
@@ -513,7 +537,7 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         Collection.DismissType type = (Collection.DismissType) data[1];
         Note note = card.note();
         try {
-            col.getDb().getDatabase().beginTransaction();
+            col.getDb().beginTransaction();
             try {
                 switch (type) {
                     case BURY_CARD:
@@ -563,9 +587,9 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
                         break;
                 }
                 publishProgress(new TaskData(getCard(col.getSched()), 0));
-                col.getDb().getDatabase().setTransactionSuccessful();
+                col.getDb().setTransactionSuccessful();
             } finally {
-                col.getDb().getDatabase().endTransaction();
+                col.getDb().endTransaction();
             }
         } catch (RuntimeException e) {
             Timber.e(e, "doInBackgroundSuspendCard - RuntimeException on suspending card");
@@ -580,7 +604,7 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         Collection col = CollectionHelper.getInstance().getCol(mContext);
         Sched sched = col.getSched();
         try {
-            col.getDb().getDatabase().beginTransaction();
+            col.getDb().beginTransaction();
             Card newCard;
             try {
                 long cid = col.undo();
@@ -599,9 +623,9 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
                 }
                 // TODO: handle leech undoing properly
                 publishProgress(new TaskData(newCard, 0));
-                col.getDb().getDatabase().setTransactionSuccessful();
+                col.getDb().setTransactionSuccessful();
             } finally {
-                col.getDb().getDatabase().endTransaction();
+                col.getDb().endTransaction();
             }
         } catch (RuntimeException e) {
             Timber.e(e, "doInBackgroundUndo - RuntimeException on undoing");
@@ -619,14 +643,22 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         String query = (String) params[0].getObjArray()[1];
         Boolean order = (Boolean) params[0].getObjArray()[2];
         int numCardsToRender = (int) params[0].getObjArray()[3];
-        List<Map<String,String>> searchResult = col.findCardsForCardBrowser(query, order, deckNames);
+        // the results of the search before, if any, which a search that refines it only needs to filter
+        BrowserResults previous = params[0].getObjArray().length > 4 ?
+                (BrowserResults) params[0].getObjArray()[4] : null;
+        // read a page at a time if given its size
+        int limit = params[0].getObjArray().length > 5 ? (int) params[0].getObjArray()[5] : 0;
+        BrowserResults searchResult = col.findCardsForCardBrowser(query, order, deckNames, previous, limit);
         // Render the first few items
-        for (int i = 0; i < Math.min(numCardsToRender, searchResult.size()); i++) {
-            Card c = col.getCard(Long.parseLong(searchResult.get(i).get("id"), 10));
-            CardBrowser.updateSearchItemQA(searchResult.get(i), c);
+        if (searchResult != null) {
+            searchResult.loadRows(col, 0, numCardsToRender);
+            for (int i = 0; i < Math.min(numCardsToRender, searchResult.size()); i++) {
+                Card c = col.getCard(searchResult.getId(i));
+                CardBrowser.updateSearchItemQA(searchResult.getRow(i), c);
+            }
         }
         // Finish off the task
-        if (isCancelled()) {
+        if (isCancelled() || searchResult == null) {
             Timber.d("doInBackgroundSearchCards was cancelled so return null");
             return null;
         } else {
@@ -636,20 +668,37 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
     }
 
 
+    /** Find the next page of the card browser results, which the caller adds to them with BrowserResults.append(). */
+    private TaskData doInBackgroundSearchCardsPage(TaskData... params) {
+        Timber.d("doInBackgroundSearchCardsPage");
+        Collection col = CollectionHelper.getInstance().getCol(mContext);
+        Map<String, String> deckNames = (HashMap<String, String>) params[0].getObjArray()[0];
+        BrowserResults results = (BrowserResults) params[0].getObjArray()[1];
+        int limit = (int) params[0].getObjArray()[2];
+        BrowserResults page = col.findCardsPageForCardBrowser(results, deckNames, limit);
+        if (isCancelled() || page == null) {
+            Timber.d("doInBackgroundSearchCardsPage was cancelled so return null");
+            return null;
+        }
+        return new TaskData(page);
+    }
+
+
     private TaskData doInBackgroundRenderBrowserQA(TaskData... params) {
         Timber.d("doInBackgroundRenderBrowserQA");
         Collection col = CollectionHelper.getInstance().getCol(mContext);
-        List<Map<String, String>> items = (List<Map<String, String>>) params[0].getObjArray()[0];
+        BrowserResults items = (BrowserResults) params[0].getObjArray()[0];
         Integer startPos = (Integer) params[0].getObjArray()[1];
         Integer n = (Integer) params[0].getObjArray()[2];
 
-        // for each specified card in the browser list
+        // load the sort field and tags of the window, then render its cards
+        items.loadRows(col, startPos, n);
         for (int i = startPos; i < startPos + n; i++) {
-            if (i >= 0 && i < items.size() && items.get(i).get("answer").equals("")) {
+            if (i >= 0 && i < items.size() && !items.isRendered(i)) {
                 // Extract card item
-                Card c = col.getCard(Long.parseLong(items.get(i).get("id"), 10));
+                Card c = col.getCard(items.getId(i));
                 // Update item
-                CardBrowser.updateSearchItemQA(items.get(i), c);
+                CardBrowser.updateSearchItemQA(items.getRow(i), c);
                 // Stop if cancelled
                 if (isCancelled()) {
                     Timber.d("doInBackgroundRenderBrowserQA was aborted");
@@ -728,7 +777,11 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
     private TaskData doInBackgroundRebuildCram(TaskData... params) {
         Timber.d("doInBackgroundRebuildCram");
         Collection col = CollectionHelper.getInstance().getCol(mContext);
-        col.getSched().rebuildDyn(col.getDecks().selected());
+        col.getSched().rebuildDyn(col.getDecks().selected(),
+                new ProgressCallback(this, AnkiDroidApp.getAppResources()));
+        if (isCancelled()) {
+            return null;
+        }
         return doInBackgroundUpdateValuesFromDeck(new DeckTask.TaskData(new Object[]{true}));
     }
 
@@ -911,7 +964,7 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         Collection col = CollectionHelper.getInstance().getCol(mContext);
         Object[] data = params[0].getObjArray();
         JSONObject conf = (JSONObject) data[0];
-        col.getSched().resortConf(conf);
+        col.getSched().resortConf(conf, new ProgressCallback(this, AnkiDroidApp.getAppResources()));
         return new TaskData(true);
     }
 
@@ -930,10 +983,12 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
             if (oldOrder != newOrder) {
                 switch (newOrder) {
                     case 0:
-                        col.getSched().randomizeCards(deck.getLong("id"));
+                        col.getSched().randomizeCards(deck.getLong("id"),
+                                new ProgressCallback(this, AnkiDroidApp.getAppResources()));
                         break;
                     case 1:
-                        col.getSched().orderCards(deck.getLong("id"));
+                        col.getSched().orderCards(deck.getLong("id"),
+                                new ProgressCallback(this, AnkiDroidApp.getAppResources()));
                         break;
                 }
             }
@@ -972,7 +1027,7 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
             int defaultOrder = col.getDecks().getConf(1).getJSONObject("new").getInt("order");
             if (order != defaultOrder) {
                 conf.getJSONObject("new").put("order", defaultOrder);
-                col.getSched().resortConf(conf);
+                col.getSched().resortConf(conf, new ProgressCallback(this, AnkiDroidApp.getAppResources()));
             }
             col.save();
             return new TaskData(true);
@@ -1341,6 +1396,12 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
                 task.doProgress(values);
             }
         }
+
+
+        /** True if the task reporting its progress here has been cancelled and should stop. */
+        public boolean isCancelled() {
+            return task != null && task.isCancelled();
+        }
     }
 
 
@@ -1354,7 +1415,7 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         private int mInteger;
         private String mMsg;
         private boolean mBool = false;
-        private List<Map<String, String>> mCards;
+        private BrowserResults mCards;
         private long mLong;
         private Context mContext;
         private int mType;
@@ -1411,12 +1472,12 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         }
 
 
-        public TaskData(List<Map<String, String>> cards) {
+        public TaskData(BrowserResults cards) {
             mCards = cards;
         }
 
 
-        public TaskData(List<Map<String, String>> cards, Comparator comparator) {
+        public TaskData(BrowserResults cards, Comparator comparator) {
             mCards = cards;
             mComparator = comparator;
         }
@@ -1484,12 +1545,12 @@ public class DeckTask extends BaseAsyncTask<DeckTask.TaskData, DeckTask.TaskData
         }
 
 
-        public List<Map<String, String>> getCards() {
+        public BrowserResults getCards() {
             return mCards;
         }
 
 
-        public void setCards(List<Map<String, String>> cards) {
+        public void setCards(BrowserResults cards) {
             mCards = cards;
         }
 
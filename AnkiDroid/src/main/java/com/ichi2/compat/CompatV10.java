@@ -70,6 +70,12 @@ public class CompatV10 implements Compat {
         // We've never used WAL mode on Gingerbread so don't need to do anything here
     }
 
+    @Override
+    public boolean enableDatabaseWriteAheadLogging(SQLiteDatabase db) {
+        // Only used from API 16, where WAL can also be switched off again reliably
+        return false;
+    }
+
 
     // Below API level 12, file scheme pages are not restricted, so no adjustment is needed.
     public void enableCookiesForFileSchemePages() {
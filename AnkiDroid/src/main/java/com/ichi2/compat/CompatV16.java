@@ -31,6 +31,11 @@ public class CompatV16 extends CompatV15 implements Compat {
         db.disableWriteAheadLogging();
     }
 
+    @Override
+    public boolean enableDatabaseWriteAheadLogging(SQLiteDatabase db) {
+        return db.enableWriteAheadLogging();
+    }
+
     @Override
     public String detagged(String txt) {
         return Html.escapeHtml(txt);
@@ -0,0 +1,110 @@
+package com.ichi2.libanki;
+
+/**
+ * What each answer button would do to a card: the interval shown on the button, and the queue and due date the card
+ * would move to. It is computed by {@link Sched#answerPreview(Card)} without changing the card, and cached on the
+ * card so that the reviewer, the content provider and the scheduler's answerCard() don't work it out again.
+ *
+ * A preview records the scheduling state of the card it was made for, and is only used while the card is still in
+ * that state on the same day. Outcomes with a random part (interval fuzz, the spread of learning delays) are given
+ * before the randomness is applied.
+ */
+public class AnswerPreview {
+
+    // The scheduling state the preview was made for
+    private final long mCardId;
+    private final int mType;
+    private final int mQueue;
+    private final long mDue;
+    private final long mODue;
+    private final long mODid;
+    private final int mIvl;
+    private final int mFactor;
+    private final int mLeft;
+    private final int mLapses;
+    private final int mToday;
+
+    private final int mButtons;
+    // Indexed by ease; index 0 is unused
+    private final int[] mIvls = new int[5];
+    private final int[] mRevIvls = new int[5];
+    private final int[] mQueues = new int[5];
+    private final long[] mDues = new long[5];
+
+
+    AnswerPreview(Card card, int today, int buttons) {
+        mCardId = card.getId();
+        mType = card.getType();
+        mQueue = card.getQueue();
+        mDue = card.getDue();
+        mODue = card.getODue();
+        mODid = card.getODid();
+        mIvl = card.getIvl();
+        mFactor = card.getFactor();
+        mLeft = card.getLeft();
+        mLapses = card.getLapses();
+        mToday = today;
+        mButtons = buttons;
+    }
+
+
+    /** True if CARD has not been changed since the preview was made, and the day has not changed. */
+    boolean isFor(Card card, int today) {
+        return card.getId() == mCardId && card.getType() == mType && card.getQueue() == mQueue
+                && card.getDue() == mDue && card.getODue() == mODue && card.getODid() == mODid
+                && card.getIvl() == mIvl && card.getFactor() == mFactor && card.getLeft() == mLeft
+                && card.getLapses() == mLapses && today == mToday;
+    }
+
+
+    void set(int ease, int ivl, int queue, long due) {
+        mIvls[ease] = ivl;
+        mQueues[ease] = queue;
+        mDues[ease] = due;
+    }
+
+
+    void setRevIvl(int ease, int days) {
+        mRevIvls[ease] = days;
+    }
+
+
+    /** The number of answer buttons for the card. */
+    public int getButtonCount() {
+        return mButtons;
+    }
+
+
+    /**
+     * The interval shown on the button for EASE, in seconds, as returned by {@link Sched#nextIvl(Card, int)}. Zero
+     * means the card leaves a filtered deck without being rescheduled.
+     */
+    public int getIvl(int ease) {
+        return mIvls[ease];
+    }
+
+
+    /** The queue the card moves to when answered with EASE. */
+    public int getQueue(int ease) {
+        return mQueues[ease];
+    }
+
+
+    /**
+     * The due value of the card after answering with EASE: a timestamp in the learning queue, a day number in the
+     * review and day learning queues. For a card going back to the new queue the position isn't known yet, and
+     * this is 0.
+     */
+    public long getDue(int ease) {
+        return mDues[ease];
+    }
+
+
+    /**
+     * For review cards, the interval in days before fuzz that answering with EASE gives, or for ease 1, the interval
+     * after the lapse.
+     */
+    int getRevIvl(int ease) {
+        return mRevIvls[ease];
+    }
+}
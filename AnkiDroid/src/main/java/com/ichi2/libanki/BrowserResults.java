@@ -0,0 +1,315 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Not in libanki. The cards found by a card browser search, kept compact so that searching a large collection doesn't
+ * hold a map of strings per card.
+ *
+ * For every card only the id, an index into the deck names and the flags are kept, in arrays. The other columns (sort
+ * field, tags, and the question, answer and so on rendered by the browser) are kept as a map per card for the rows
+ * that were shown recently only: {@link #loadRows(Collection, int, int)} reads the sort field and tags of a window of
+ * rows, and rows that haven't been used for a while are dropped and loaded again when scrolled back to.
+ *
+ * The cards of a large search may be found a page at a time, see Finder.findCardsPageForCardBrowser(). Then only the
+ * cards of the pages found so far are held, {@link #hasMore()} tells whether there are more, and
+ * {@link #getTotal()} how many cards the search found in all.
+ *
+ * The browser and its background tasks share an instance, so access is synchronized.
+ */
+public class BrowserResults {
+
+    /** Flag bits, as in the "flags" column of the browser. */
+    public static final int FLAG_SUSPENDED = 1;
+    public static final int FLAG_MARKED = 2;
+
+    /** The number of rows whose display columns are kept. */
+    private static final int ROWS = 500;
+
+    private long[] mIds = new long[16];
+    private int[] mDecks = new int[16];
+    private byte[] mFlags = new byte[16];
+    private int mSize = 0;
+
+    /** The search these are the results of, and the state of the collection then; see Finder. */
+    String mQuery;
+    long[] mStamp;
+    /** Whether the cards were searched in the order of the browser. */
+    boolean mOrdered;
+    /**
+     * The sort keys of the last card found, as SQL literals, if there may be cards after it to find, and those of the
+     * card the page of these results comes after, if it does.
+     */
+    String[] mLast;
+    String[] mAfter;
+    /** The number of cards the search found, including those of the pages not found yet. */
+    int mTotal;
+
+    /** Deck names, each once, as indexed by mDecks. */
+    private final List<String> mDeckNames = new ArrayList<>();
+    private final HashMap<String, Integer> mDeckIndexes = new HashMap<>();
+
+    /** The display columns of recently used rows, by card id. */
+    private final LinkedHashMap<Long, Map<String, String>> mRows =
+            new LinkedHashMap<Long, Map<String, String>>(ROWS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Map<String, String>> eldest) {
+                    return size() > ROWS;
+                }
+            };
+
+
+    /** Append card ID of the deck named DECK with FLAGS. */
+    synchronized void add(long id, String deck, int flags) {
+        if (mSize == mIds.length) {
+            int length = mSize * 2;
+            long[] ids = new long[length];
+            System.arraycopy(mIds, 0, ids, 0, mSize);
+            mIds = ids;
+            int[] decks = new int[length];
+            System.arraycopy(mDecks, 0, decks, 0, mSize);
+            mDecks = decks;
+            byte[] flags2 = new byte[length];
+            System.arraycopy(mFlags, 0, flags2, 0, mSize);
+            mFlags = flags2;
+        }
+        mIds[mSize] = id;
+        mDecks[mSize] = _deckIndex(deck);
+        mFlags[mSize] = (byte) flags;
+        mSize++;
+    }
+
+
+    /** The search these are the results of, or null if they weren't searched for. */
+    public String getQuery() {
+        return mQuery;
+    }
+
+
+    /** The number of cards found so far. */
+    public synchronized int size() {
+        return mSize;
+    }
+
+
+    /** The number of cards the search found, including those after the cards found so far. */
+    public synchronized int getTotal() {
+        return Math.max(mTotal, mSize);
+    }
+
+
+    /** Whether there may be cards after those found so far, found by Finder.findCardsPageForCardBrowser(). */
+    public synchronized boolean hasMore() {
+        return mLast != null;
+    }
+
+
+    synchronized boolean isOrdered() {
+        return mOrdered;
+    }
+
+
+    synchronized String[] getLast() {
+        return mLast;
+    }
+
+
+    /**
+     * Add the cards of PAGE, found by Finder.findCardsPageForCardBrowser() for these results, after the others.
+     * @return False if PAGE doesn't come right after these cards, as they were searched for again or another page was
+     *         added in the meantime, and it was ignored.
+     */
+    public synchronized boolean append(BrowserResults page) {
+        if (mLast == null || page.mAfter != mLast) {
+            return false;
+        }
+        for (int i = 0; i < page.size(); i++) {
+            add(page.getId(i), page.getColumn(i, "deck"), page.getFlags(i));
+        }
+        mLast = page.mLast;
+        if (mLast == null) {
+            // the count may be out of date by now
+            mTotal = mSize;
+        }
+        return true;
+    }
+
+
+    public synchronized long getId(int position) {
+        return mIds[position];
+    }
+
+
+    public synchronized int getFlags(int position) {
+        return mFlags[position];
+    }
+
+
+    public synchronized void setFlags(int position, int flags) {
+        mFlags[position] = (byte) flags;
+    }
+
+
+    public synchronized void setDeckName(int position, String deck) {
+        mDecks[position] = _deckIndex(deck);
+    }
+
+
+    /**
+     * The value of column KEY of the card at POSITION, as the browser used to keep them in a map per card: "id", "deck",
+     * "flags", or one of the display columns, which is empty if the row isn't loaded or rendered yet.
+     */
+    public synchronized String getColumn(int position, String key) {
+        switch (key) {
+            case "id":
+                return Long.toString(mIds[position]);
+            case "deck":
+                return mDeckNames.get(mDecks[position]);
+            case "flags":
+                return Integer.toString(mFlags[position]);
+            default:
+                Map<String, String> row = mRows.get(mIds[position]);
+                if (row == null) {
+                    return "";
+                }
+                String value = row.get(key);
+                return value == null ? "" : value;
+        }
+    }
+
+
+    /**
+     * The display columns of the card at POSITION, to be filled by the caller, with empty placeholders for the
+     * question and answer if they weren't loaded.
+     */
+    public synchronized Map<String, String> getRow(int position) {
+        Map<String, String> row = mRows.get(mIds[position]);
+        if (row == null) {
+            row = _newRow();
+            mRows.put(mIds[position], row);
+        }
+        return row;
+    }
+
+
+    /** Whether the card at POSITION has its question and answer rendered. */
+    public synchronized boolean isRendered(int position) {
+        Map<String, String> row = mRows.get(mIds[position]);
+        return row != null && !row.get("answer").equals("");
+    }
+
+
+    /** Read the sort field and tags of the N rows from START that aren't loaded. */
+    public void loadRows(Collection col, int start, int n) {
+        List<Long> ids = new ArrayList<>();
+        synchronized (this) {
+            for (int i = Math.max(start, 0); i < Math.min(start + n, mSize); i++) {
+                if (!mRows.containsKey(mIds[i])) {
+                    ids.add(mIds[i]);
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        Cursor cur = null;
+        try {
+            cur = col.getDb().getDatabase().rawQuery("SELECT c.id, n.sfld, n.tags FROM cards c, notes n "
+                    + "WHERE c.nid = n.id AND c.id IN " + Utils.ids2str(ids), null);
+            while (cur.moveToNext()) {
+                Map<String, String> row = _newRow();
+                row.put("sfld", cur.getString(1));
+                row.put("tags", cur.getString(2));
+                synchronized (this) {
+                    if (!mRows.containsKey(cur.getLong(0))) {
+                        mRows.put(cur.getLong(0), row);
+                    }
+                }
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+    }
+
+
+    /** The position of card ID, or -1 if it isn't in the results. */
+    public synchronized int indexOf(long id) {
+        for (int i = 0; i < mSize; i++) {
+            if (mIds[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    public synchronized void remove(int position) {
+        mRows.remove(mIds[position]);
+        mTotal--;
+        int moved = mSize - position - 1;
+        System.arraycopy(mIds, position + 1, mIds, position, moved);
+        System.arraycopy(mDecks, position + 1, mDecks, position, moved);
+        System.arraycopy(mFlags, position + 1, mFlags, position, moved);
+        mSize--;
+    }
+
+
+    /** Reverse the order of the cards, which must all have been found. */
+    public synchronized void reverse() {
+        for (int i = 0, j = mSize - 1; i < j; i++, j--) {
+            long id = mIds[i];
+            mIds[i] = mIds[j];
+            mIds[j] = id;
+            int deck = mDecks[i];
+            mDecks[i] = mDecks[j];
+            mDecks[j] = deck;
+            byte flags = mFlags[i];
+            mFlags[i] = mFlags[j];
+            mFlags[j] = flags;
+        }
+    }
+
+
+    public synchronized void clear() {
+        mSize = 0;
+        mTotal = 0;
+        mLast = null;
+        mRows.clear();
+    }
+
+
+    /** The ids of all cards found so far, in order. */
+    public synchronized long[] ids() {
+        long[] ids = new long[mSize];
+        System.arraycopy(mIds, 0, ids, 0, mSize);
+        return ids;
+    }
+
+
+    private int _deckIndex(String deck) {
+        Integer index = mDeckIndexes.get(deck);
+        if (index == null) {
+            index = mDeckNames.size();
+            mDeckNames.add(deck);
+            mDeckIndexes.put(deck, index);
+        }
+        return index;
+    }
+
+
+    private static Map<String, String> _newRow() {
+        Map<String, String> row = new HashMap<>();
+        // placeholders for the question and answer, rendered later
+        row.put("question", "");
+        row.put("answer", "");
+        return row;
+    }
+}
@@ -105,9 +105,12 @@ public class Card implements Cloneable {
     // Used by Sched to record the original interval in the revlog after answering.
     private int mLastIvl;
 
+    // Not in LibAnki. The outcome of each answer button, cached by Sched until the card is answered.
+    private AnswerPreview mAnswerPreview;
+
 
     public Card(Collection col) {
-        this(col, null);
+        this(col, (Long) null);
     }
 
 
@@ -138,6 +141,16 @@ public class Card implements Cloneable {
     }
 
 
+    /**
+     * Not in libanki. Create a card from the current row of a "SELECT * FROM cards" cursor.
+     */
+    public Card(Collection col, Cursor cursor) {
+        mCol = col;
+        mTimerStarted = Double.NaN;
+        load(cursor);
+    }
+
+
     public void load() {
         Cursor cursor = null;
         try {
@@ -145,29 +158,37 @@ public class Card implements Cloneable {
             if (!cursor.moveToFirst()) {
                 throw new RuntimeException(" No card with id " + mId);
             }
-            mId = cursor.getLong(0);
-            mNid = cursor.getLong(1);
-            mDid = cursor.getLong(2);
-            mOrd = cursor.getInt(3);
-            mMod = cursor.getLong(4);
-            mUsn = cursor.getInt(5);
-            mType = cursor.getInt(6);
-            mQueue = cursor.getInt(7);
-            mDue = cursor.getInt(8);
-            mIvl = cursor.getInt(9);
-            mFactor = cursor.getInt(10);
-            mReps = cursor.getInt(11);
-            mLapses = cursor.getInt(12);
-            mLeft = cursor.getInt(13);
-            mODue = cursor.getLong(14);
-            mODid = cursor.getLong(15);
-            mFlags = cursor.getInt(16);
-            mData = cursor.getString(17);
+            load(cursor);
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
         }
+    }
+
+
+    /**
+     * Load the card from the current row of a "SELECT * FROM cards" cursor. Not in libanki.
+     */
+    private void load(Cursor cursor) {
+        mId = cursor.getLong(0);
+        mNid = cursor.getLong(1);
+        mDid = cursor.getLong(2);
+        mOrd = cursor.getInt(3);
+        mMod = cursor.getLong(4);
+        mUsn = cursor.getInt(5);
+        mType = cursor.getInt(6);
+        mQueue = cursor.getInt(7);
+        mDue = cursor.getInt(8);
+        mIvl = cursor.getInt(9);
+        mFactor = cursor.getInt(10);
+        mReps = cursor.getInt(11);
+        mLapses = cursor.getInt(12);
+        mLeft = cursor.getInt(13);
+        mODue = cursor.getLong(14);
+        mODid = cursor.getLong(15);
+        mFlags = cursor.getInt(16);
+        mData = cursor.getString(17);
         mQA = null;
         mNote = null;
     }
@@ -601,6 +622,16 @@ public class Card implements Cloneable {
     }
 
 
+    public AnswerPreview getAnswerPreview() {
+        return mAnswerPreview;
+    }
+
+
+    public void setAnswerPreview(AnswerPreview preview) {
+        mAnswerPreview = preview;
+    }
+
+
     // Needed for tests
     public Collection getCol() {
         return mCol;
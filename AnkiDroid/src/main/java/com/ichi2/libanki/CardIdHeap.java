@@ -0,0 +1,142 @@
+package com.ichi2.libanki;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A priority queue of card ids ordered by a key (the due time for the learning queue), backed by a binary min-heap
+ * in primitive arrays. Entries with equal keys come out in the order they were added, so the queue behaves like a
+ * list kept sorted with a stable sort. Adding and removing cards is O(log n) and does not allocate once the arrays
+ * have grown to fit the largest fill.
+ */
+public class CardIdHeap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mKeys = new long[MIN_CAPACITY];
+    private long[] mIds = new long[MIN_CAPACITY];
+    // Insertion order, used to break ties between equal keys
+    private long[] mSeqs = new long[MIN_CAPACITY];
+    private int mSize;
+    private long mNextSeq;
+
+
+    public int size() {
+        return mSize;
+    }
+
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+
+    public void clear() {
+        mSize = 0;
+        mNextSeq = 0;
+    }
+
+
+    /** Add a card id with a sort key. It goes after any entries already queued with the same key. */
+    public void add(long key, long id) {
+        if (mSize == mKeys.length) {
+            grow();
+        }
+        int i = mSize++;
+        long seq = mNextSeq++;
+        // sift up
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(key, seq, parent)) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, key, id, seq);
+    }
+
+
+    /** The id with the smallest key. */
+    public long getFirst() {
+        if (mSize == 0) {
+            throw new NoSuchElementException();
+        }
+        return mIds[0];
+    }
+
+
+    /** The smallest key in the queue. */
+    public long getFirstKey() {
+        if (mSize == 0) {
+            throw new NoSuchElementException();
+        }
+        return mKeys[0];
+    }
+
+
+    /** Remove and return the id with the smallest key. */
+    public long remove() {
+        long id = getFirst();
+        int last = --mSize;
+        if (last > 0) {
+            long key = mKeys[last];
+            long lastId = mIds[last];
+            long seq = mSeqs[last];
+            // sift the last entry down from the root
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= last) {
+                    break;
+                }
+                if (child + 1 < last && before(mKeys[child + 1], mSeqs[child + 1], child)) {
+                    child++;
+                }
+                if (!before(mKeys[child], mSeqs[child], key, seq)) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            set(i, key, lastId, seq);
+        }
+        return id;
+    }
+
+
+    /** True if (KEY, SEQ) sorts before the entry at index I. */
+    private boolean before(long key, long seq, int i) {
+        return before(key, seq, mKeys[i], mSeqs[i]);
+    }
+
+
+    private static boolean before(long key, long seq, long otherKey, long otherSeq) {
+        return key < otherKey || (key == otherKey && seq < otherSeq);
+    }
+
+
+    private void move(int from, int to) {
+        set(to, mKeys[from], mIds[from], mSeqs[from]);
+    }
+
+
+    private void set(int i, long key, long id, long seq) {
+        mKeys[i] = key;
+        mIds[i] = id;
+        mSeqs[i] = seq;
+    }
+
+
+    private void grow() {
+        int capacity = mKeys.length * 2;
+        long[] keys = new long[capacity];
+        long[] ids = new long[capacity];
+        long[] seqs = new long[capacity];
+        System.arraycopy(mKeys, 0, keys, 0, mSize);
+        System.arraycopy(mIds, 0, ids, 0, mSize);
+        System.arraycopy(mSeqs, 0, seqs, 0, mSize);
+        mKeys = keys;
+        mIds = ids;
+        mSeqs = seqs;
+    }
+}
@@ -0,0 +1,297 @@
+package com.ichi2.libanki;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A FIFO queue of card ids backed by primitive arrays, used by the scheduler for its study queues.
+ *
+ * The queue is a ring buffer with an open-addressing index from card id to buffer slot, so removing an arbitrary id
+ * (as sibling burying does) does not need to scan the queue. Once the arrays have grown to fit the largest fill,
+ * adding and removing cards does not allocate.
+ */
+public class CardIdQueue {
+
+    /** Marks an unused slot in the id index, and a removed entry in the ring buffer. Never a valid card id. */
+    private static final long FREE = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Ring buffer: mCount occupied slots starting at mHead, of which mLive are not removed.
+    private long[] mIds;
+    private int mMask;
+    private int mHead;
+    private int mCount;
+    private int mLive;
+
+    // Index from card id to ring buffer slot. Linear probing; twice the ring capacity to keep the load below half.
+    private long[] mIndexIds;
+    private int[] mIndexSlots;
+    private int mIndexMask;
+
+
+    public CardIdQueue() {
+        allocate(MIN_CAPACITY);
+    }
+
+
+    private void allocate(int capacity) {
+        mIds = new long[capacity];
+        mMask = capacity - 1;
+        mIndexIds = new long[capacity * 2];
+        mIndexSlots = new int[capacity * 2];
+        mIndexMask = capacity * 2 - 1;
+        Arrays.fill(mIndexIds, FREE);
+    }
+
+
+    public int size() {
+        return mLive;
+    }
+
+
+    public boolean isEmpty() {
+        return mLive == 0;
+    }
+
+
+    public void clear() {
+        if (mCount > 0) {
+            Arrays.fill(mIndexIds, FREE);
+        }
+        mHead = 0;
+        mCount = 0;
+        mLive = 0;
+    }
+
+
+    /** Append a card id to the end of the queue. */
+    public void add(long id) {
+        if (mCount == mIds.length) {
+            grow();
+        }
+        int slot = (mHead + mCount) & mMask;
+        mIds[slot] = id;
+        mCount++;
+        mLive++;
+        indexPut(id, slot);
+    }
+
+
+    /** The id at the head of the queue. */
+    public long getFirst() {
+        if (mLive == 0) {
+            throw new NoSuchElementException();
+        }
+        return mIds[mHead];
+    }
+
+
+    /** Remove and return the id at the head of the queue. */
+    public long remove() {
+        long id = getFirst();
+        indexRemove(id, mHead);
+        mHead = (mHead + 1) & mMask;
+        mCount--;
+        mLive--;
+        trimHead();
+        return id;
+    }
+
+
+    /**
+     * Remove a card id from anywhere in the queue.
+     * @return True if the id was queued.
+     */
+    public boolean remove(long id) {
+        int pos = indexFind(id);
+        if (pos == -1) {
+            return false;
+        }
+        mIds[mIndexSlots[pos]] = FREE;
+        indexRemoveAt(pos);
+        mLive--;
+        trimHead();
+        return true;
+    }
+
+
+    public boolean contains(long id) {
+        return indexFind(id) != -1;
+    }
+
+
+    /**
+     * Shuffle the queue. Produces the same order as {@link java.util.Collections#shuffle(java.util.List, Random)}
+     * on a list holding the same ids, so seeded shuffles are unchanged from the LinkedList based queues.
+     */
+    public void shuffle(Random r) {
+        compact();
+        for (int i = mCount - 1; i > 0; i--) {
+            swap(i, r.nextInt(i + 1));
+        }
+        reindex();
+    }
+
+
+    /**
+     * Copy ids from the head of the queue into DST, starting at index FROM of DST, without removing them.
+     * @return The number of ids copied.
+     */
+    public int peek(long[] dst, int from) {
+        int n = 0;
+        for (int i = 0; i < mCount && from + n < dst.length; i++) {
+            long id = mIds[(mHead + i) & mMask];
+            if (id != FREE) {
+                dst[from + n++] = id;
+            }
+        }
+        return n;
+    }
+
+
+    /** Copy of the queued ids, head first. */
+    public long[] toArray() {
+        long[] ids = new long[mLive];
+        int n = 0;
+        for (int i = 0; i < mCount; i++) {
+            long id = mIds[(mHead + i) & mMask];
+            if (id != FREE) {
+                ids[n++] = id;
+            }
+        }
+        return ids;
+    }
+
+
+    /**
+     * Buffer management ******************************************************** *******************************
+     */
+
+    private void trimHead() {
+        while (mCount > 0 && mIds[mHead] == FREE) {
+            mHead = (mHead + 1) & mMask;
+            mCount--;
+        }
+        if (mCount == 0) {
+            mHead = 0;
+        }
+    }
+
+
+    /** Drop removed entries so that the live entries are contiguous from the head. */
+    private void compact() {
+        if (mCount == mLive) {
+            return;
+        }
+        int w = 0;
+        for (int r = 0; r < mCount; r++) {
+            int from = (mHead + r) & mMask;
+            if (mIds[from] != FREE) {
+                int to = (mHead + w) & mMask;
+                mIds[to] = mIds[from];
+                w++;
+            }
+        }
+        mCount = w;
+        reindex();
+    }
+
+
+    private void grow() {
+        long[] ids = new long[mIds.length * 2];
+        int first = Math.min(mCount, mIds.length - mHead);
+        System.arraycopy(mIds, mHead, ids, 0, first);
+        System.arraycopy(mIds, 0, ids, first, mCount - first);
+        int count = mCount;
+        int live = mLive;
+        allocate(ids.length);
+        mIds = ids;
+        mHead = 0;
+        mCount = count;
+        mLive = live;
+        reindex();
+    }
+
+
+    private void swap(int i, int j) {
+        int a = (mHead + i) & mMask;
+        int b = (mHead + j) & mMask;
+        long t = mIds[a];
+        mIds[a] = mIds[b];
+        mIds[b] = t;
+    }
+
+
+    /**
+     * Id index ***************************************************************** ******************************
+     */
+
+    private void reindex() {
+        Arrays.fill(mIndexIds, FREE);
+        for (int i = 0; i < mCount; i++) {
+            int slot = (mHead + i) & mMask;
+            if (mIds[slot] != FREE) {
+                indexPut(mIds[slot], slot);
+            }
+        }
+    }
+
+
+    private int hash(long id) {
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mIndexMask;
+    }
+
+
+    private int indexFind(long id) {
+        for (int pos = hash(id); mIndexIds[pos] != FREE; pos = (pos + 1) & mIndexMask) {
+            if (mIndexIds[pos] == id) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+
+    private void indexPut(long id, int slot) {
+        int pos = hash(id);
+        while (mIndexIds[pos] != FREE && mIndexIds[pos] != id) {
+            pos = (pos + 1) & mIndexMask;
+        }
+        mIndexIds[pos] = id;
+        mIndexSlots[pos] = slot;
+    }
+
+
+    /** Remove the index entry of ID, unless a later duplicate of ID has taken it over from SLOT. */
+    private void indexRemove(long id, int slot) {
+        int pos = indexFind(id);
+        if (pos != -1 && mIndexSlots[pos] == slot) {
+            indexRemoveAt(pos);
+        }
+    }
+
+
+    /** Backward-shift deletion, so lookups never need tombstones in the index. */
+    private void indexRemoveAt(int pos) {
+        int last = pos;
+        int i = pos;
+        while (true) {
+            i = (i + 1) & mIndexMask;
+            long id = mIndexIds[i];
+            if (id == FREE) {
+                break;
+            }
+            int ideal = hash(id);
+            boolean move = i > last ? (ideal <= last || ideal > i) : (ideal <= last && ideal > i);
+            if (move) {
+                mIndexIds[last] = id;
+                mIndexSlots[last] = mIndexSlots[i];
+                last = i;
+            }
+        }
+        mIndexIds[last] = FREE;
+    }
+}
@@ -29,6 +29,7 @@ import com.ichi2.anki.AnkiDroidApp;
 import com.ichi2.anki.R;
 import com.ichi2.anki.UIUtils;
 import com.ichi2.anki.exception.ConfirmModSchemaException;
+import com.ichi2.async.DeckTask;
 import com.ichi2.compat.CompatHelper;
 import com.ichi2.libanki.hooks.Hooks;
 import com.ichi2.libanki.template.Template;
@@ -68,12 +69,29 @@ public class Collection {
     private DB mDb;
     private boolean mServer;
     private double mLastSave;
+
+    // Not in libanki. Write-behind mode, see setWriteBehind().
+    private static final int WRITE_BEHIND_ANSWERS = 20;
+    private static final double WRITE_BEHIND_SECONDS = 5;
+    private boolean mWriteBehind = false;
+    private int mPendingAnswers = 0;
+    private double mLastCheckpoint;
     private Media mMedia;
     private Decks mDecks;
     private Models mModels;
     private Tags mTags;
 
     private Sched mSched;
+    // Not in libanki: compiled searches, see Finder
+    private final Finder.QueryCache mQueryCache = new Finder.QueryCache();
+    // Not in libanki: recent search results, see Finder
+    private final Finder.ResultCache mResultCache = new Finder.ResultCache();
+    // Not in libanki: the optional index of note fields, see FullTextIndex
+    private final FullTextIndex mFullTextIndex = new FullTextIndex(this);
+    // Not in libanki: the matching of field searches, see FieldScanner
+    private final FieldScanner mFieldScanner = new FieldScanner(this);
+    // Not in libanki: the tables AnkiDroid keeps in the collection file, see LocalTables
+    private final LocalTables mLocalTables = new LocalTables(this);
 
     private double mStartTime;
     private int mStartReps;
@@ -155,6 +173,7 @@ public class Collection {
         mStartReps = 0;
         mStartTime = 0;
         mSched = new Sched(this);
+        mLocalTables.check();
         if (!mConf.optBoolean("newBury", false)) {
             try {
                 mConf.put("newBury", true);
@@ -238,6 +257,7 @@ public class Collection {
         values.put("ls", mLs);
         values.put("conf", Utils.jsonToString(mConf));
         mDb.update("col", values);
+        mLocalTables.stamp(mMod);
     }
 
 
@@ -269,6 +289,47 @@ public class Collection {
         // undoing non review operation is handled differently in ankidroid
 //        _markOp(name);
         mLastSave = Utils.now();
+        if (mWriteBehind && !mDb.getDatabase().inTransaction()) {
+            mDb.checkpoint();
+            mPendingAnswers = 0;
+            mLastCheckpoint = mLastSave;
+        }
+    }
+
+
+    /**
+     * Not in libanki. In write-behind mode answers are committed to a write-ahead log, which needs one sync per
+     * answer, and group-committed into the database file together with the collection every
+     * WRITE_BEHIND_ANSWERS answers or WRITE_BEHIND_SECONDS seconds (see answerCommitted()). Saving or closing the
+     * collection also commits them. The collection is always consistent for undo, sync and other readers; a crash
+     * only delays the group commit to the next time the collection is opened.
+     * @return True if write-behind mode is now on. It is not available on all devices.
+     */
+    public boolean setWriteBehind(boolean enable) {
+        mWriteBehind = mDb.setWriteBehind(enable);
+        mPendingAnswers = 0;
+        mLastCheckpoint = Utils.now();
+        return mWriteBehind;
+    }
+
+
+    public boolean getWriteBehind() {
+        return mWriteBehind;
+    }
+
+
+    /**
+     * Not in libanki. Group commit of write-behind mode; call once the transaction of an answer has ended.
+     */
+    public void answerCommitted() {
+        if (!mWriteBehind) {
+            return;
+        }
+        mPendingAnswers++;
+        if (mPendingAnswers >= WRITE_BEHIND_ANSWERS || Utils.now() - mLastCheckpoint >= WRITE_BEHIND_SECONDS) {
+            // save() checkpoints the log too
+            save();
+        }
     }
     
 
@@ -294,12 +355,12 @@ public class Collection {
             try {
                 SQLiteDatabase db = mDb.getDatabase();
                 if (save) {
-                    db.beginTransaction();
+                    mDb.beginTransaction();
                     try {
                         save();
-                        db.setTransactionSuccessful();
+                        mDb.setTransactionSuccessful();
                     } finally {
-                        db.endTransaction();
+                        mDb.endTransaction();
                     }
                 } else {
                     if (db.inTransaction()) {
@@ -316,6 +377,8 @@ public class Collection {
             mDb = null;
             mMedia.close();
             _closeLog();
+            Timber.d("Search result cache: %s", mResultCache);
+            mResultCache.clear();
             Timber.i("Collection closed");
         }
     }
@@ -326,6 +389,11 @@ public class Collection {
             mDb = new DB(mPath);
             mMedia.connect();
             _openLog();
+            if (mWriteBehind) {
+                setWriteBehind(true);
+            }
+            // a full sync may have replaced the file
+            mLocalTables.check();
         }
     }
 
@@ -422,6 +490,28 @@ public class Collection {
     }
 
 
+    /**
+     * Load several cards with a single query. Ids with no matching card are left out of the result.
+     * Not in libanki.
+     */
+    public HashMap<Long, Card> getCards(long[] ids) {
+        HashMap<Long, Card> cards = new HashMap<>();
+        Cursor cur = null;
+        try {
+            cur = mDb.getDatabase().rawQuery("SELECT * FROM cards WHERE id IN " + Utils.ids2str(ids), null);
+            while (cur.moveToNext()) {
+                Card card = new Card(this, cur);
+                cards.put(card.getId(), card);
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        return cards;
+    }
+
+
     public Note getNote(long id) {
         return new Note(this, id);
     }
@@ -553,6 +643,8 @@ public class Collection {
         // more card templates
         _logRem(ids, Consts.REM_NOTE);
         mDb.execute("DELETE FROM notes WHERE id IN " + strids);
+        mFullTextIndex.remove(strids);
+        mTags.getIndex().remove(strids);
     }
 
 
@@ -911,6 +1003,8 @@ public class Collection {
     public void updateFieldCache(long[] nids) {
         String snids = Utils.ids2str(nids);
         ArrayList<Object[]> r = new ArrayList<>();
+        // Not in libanki: every bulk write of fields ends here, so keep the full-text index along
+        ArrayList<Object[]> indexed = new ArrayList<>();
         for (Object[] o : _fieldData(snids)) {
             String[] fields = Utils.splitFields((String) o[2]);
             JSONObject model = mModels.get((Long) o[1]);
@@ -919,9 +1013,11 @@ public class Collection {
                 continue;
             }
             r.add(new Object[] { Utils.stripHTML(fields[mModels.sortIdx(model)]), Utils.fieldChecksum(fields[0]), o[0] });
+            indexed.add(new Object[] { o[0], fields });
         }
         // apply, relying on calling code to bump usn+mod
         mDb.executeMany("UPDATE notes SET sfld=?, csum=? WHERE id=?", r);
+        mFullTextIndex.putAll(indexed);
     }
 
 
@@ -1067,11 +1163,32 @@ public class Collection {
     }
 
 
-    public List<Map<String, String>> findCardsForCardBrowser(String search, boolean order, Map<String, String> deckNames) {
+    public BrowserResults findCardsForCardBrowser(String search, boolean order, Map<String, String> deckNames) {
         return new Finder(this).findCardsForCardBrowser(search, order, deckNames);
     }
 
 
+    /** Not in libanki. See Finder.findCardsForCardBrowser(String, boolean, Map, BrowserResults). */
+    public BrowserResults findCardsForCardBrowser(String search, boolean order, Map<String, String> deckNames,
+            BrowserResults previous) {
+        return new Finder(this).findCardsForCardBrowser(search, order, deckNames, previous);
+    }
+
+
+    /** Not in libanki. See Finder.findCardsForCardBrowser(String, boolean, Map, BrowserResults, int). */
+    public BrowserResults findCardsForCardBrowser(String search, boolean order, Map<String, String> deckNames,
+            BrowserResults previous, int limit) {
+        return new Finder(this).findCardsForCardBrowser(search, order, deckNames, previous, limit);
+    }
+
+
+    /** Not in libanki. See Finder.findCardsPageForCardBrowser(). */
+    public BrowserResults findCardsPageForCardBrowser(BrowserResults results, Map<String, String> deckNames,
+            int limit) {
+        return new Finder(this).findCardsPageForCardBrowser(results, deckNames, limit);
+    }
+
+
     /** Return a list of note ids */
     public List<Long> findNotes(String query) {
         return new Finder(this).findNotes(query);
@@ -1098,6 +1215,13 @@ public class Collection {
     }
 
 
+    /** Not in libanki. See Finder.findReplace(Collection, List, String, String, boolean, String, boolean, ...). */
+    public int findReplace(List<Long> nids, String src, String dst, boolean regex, String field, boolean fold,
+            DeckTask.ProgressCallback progress) {
+        return Finder.findReplace(this, nids, src, dst, regex, field, fold, progress);
+    }
+
+
     public List<Pair<String, List<Long>>> findDupes(String fieldName) {
         return Finder.findDupes(this, fieldName, "");
     }
@@ -1108,6 +1232,12 @@ public class Collection {
     }
 
 
+    /** Not in libanki. See Finder.findDupes(Collection, String, String, DupeFinder.Listener). */
+    public List<Pair<String, List<Long>>> findDupes(String fieldName, String search, DupeFinder.Listener listener) {
+        return Finder.findDupes(this, fieldName, search, listener);
+    }
+
+
     /**
      * Stats ******************************************************************** ***************************
      */
@@ -1190,11 +1320,29 @@ public class Collection {
     }
 
 
+    /** Not in libanki. Take the revlog entry LAST of card C off the rolling answer statistics. */
+    private void _undoReviewStats(Card c, long last) {
+        Cursor cur = null;
+        try {
+            cur = mDb.getDatabase().rawQuery("SELECT type, ease, time FROM revlog WHERE id = " + last, null);
+            if (cur.moveToFirst()) {
+                mSched.getReviewStats().remove(Sched._homeDid(c), last, cur.getInt(0), cur.getInt(1), cur.getInt(2));
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+    }
+
+
     public long undo() {
     	Object[] data = mUndo.removeLast();
     	switch ((DismissType) data[0]) {
             case REVIEW:
                 Card c = (Card) data[1];
+                String counted = "nid = " + c.getNid();
+                mSched._removeFromDueCounts(counted);
                 // remove leech tag if it didn't have it before
                 Boolean wasLeech = (Boolean) data[2];
                 if (!wasLeech && c.note().hasTag("leech")) {
@@ -1205,6 +1353,7 @@ public class Collection {
                 c.flush(false);
                 // and delete revlog entry
                 long last = mDb.queryLongScalar("SELECT id FROM revlog WHERE cid = " + c.getId() + " ORDER BY id DESC LIMIT 1");
+                _undoReviewStats(c, last);
                 mDb.execute("DELETE FROM revlog WHERE id = " + last);
                 // restore any siblings
                 mDb.execute("update cards set queue=type,mod=?,usn=? where queue=-2 and nid=?",
@@ -1214,41 +1363,42 @@ public class Collection {
                 String type = (new String[]{"new", "lrn", "rev"})[n];
                 mSched._updateStats(c, type, -1);
                 mSched.setReps(mSched.getReps() - 1);
+                mSched._addToDueCounts(counted);
                 return c.getId();
 
             case BURY_NOTE:
-                for (Card cc : (ArrayList<Card>) data[2]) {
-                    cc.flush(false);
-                }
+                flushUndoneCards((ArrayList<Card>) data[2]);
                 return (Long) data[3];
 
             case SUSPEND_CARD:
                 Card suspendedCard = (Card) data[1];
+                String suspended = "id = " + suspendedCard.getId();
+                mSched._removeFromDueCounts(suspended);
                 suspendedCard.flush(false);
+                mSched._addToDueCounts(suspended);
                 return suspendedCard.getId();
 
             case SUSPEND_NOTE:
-                for (Card ccc : (ArrayList<Card>) data[1]) {
-                    ccc.flush(false);
-                }
+                flushUndoneCards((ArrayList<Card>) data[1]);
                 return (Long) data[2];
 
             case DELETE_NOTE:
                 ArrayList<Long> ids = new ArrayList<>();
                 Note note2 = (Note) data[1];
+                String restored = "nid = " + note2.getId();
+                mSched._removeFromDueCounts(restored);
                 note2.flush(note2.getMod(), false);
                 ids.add(note2.getId());
                 for (Card c4 : (ArrayList<Card>) data[2]) {
                     c4.flush(false);
                     ids.add(c4.getId());
                 }
+                mSched._addToDueCounts(restored);
                 mDb.execute("DELETE FROM graves WHERE oid IN " + Utils.ids2str(Utils.arrayList2array(ids)));
                 return (Long) data[3];
 
             case BURY_CARD:
-                for (Card cc : (ArrayList<Card>) data[2]) {
-                    cc.flush(false);
-                }
+                flushUndoneCards((ArrayList<Card>) data[2]);
                 return (Long) data[3];
             default:
                 return 0;
@@ -1256,6 +1406,21 @@ public class Collection {
     }
 
 
+    /** Write back the old state of CARDS, keeping the scheduler's deck counts up to date. */
+    private void flushUndoneCards(ArrayList<Card> cards) {
+        long[] cids = new long[cards.size()];
+        for (int i = 0; i < cids.length; i++) {
+            cids[i] = cards.get(i).getId();
+        }
+        String counted = "id IN " + Utils.ids2str(cids);
+        mSched._removeFromDueCounts(counted);
+        for (Card c : cards) {
+            c.flush(false);
+        }
+        mSched._addToDueCounts(counted);
+    }
+
+
     public void markUndo(DismissType type, Object[] o) {
     	switch(type) {
     	case REVIEW:
@@ -1342,7 +1507,7 @@ public class Collection {
         ArrayList<String> problems = new ArrayList<>();
         long oldSize = file.length();
         try {
-            mDb.getDatabase().beginTransaction();
+            mDb.beginTransaction();
             try {
                 save();
                 if (!mDb.queryString("PRAGMA integrity_check").equals("ok")) {
@@ -1434,7 +1599,8 @@ public class Collection {
                     problems.add("Fixed " + ids.size() + " card(s) with invalid properties.");
                     mDb.execute("update cards set odid=0, odue=0 where id in " + Utils.ids2str(ids));
                 }
-                // tags
+                // tags, from a fresh tag index
+                mTags.getIndex().invalidate();
                 mTags.registerNotes();
                 // field cache
                 for (JSONObject m : mModels.all()) {
@@ -1452,7 +1618,13 @@ public class Collection {
                     mDb.execute("UPDATE cards SET due = 0, mod = " + Utils.intNow() + ", usn = " + usn()
                             + " WHERE id IN " + Utils.ids2str(Utils.arrayList2array(ids)));
                 }
-                mDb.getDatabase().setTransactionSuccessful();
+                // rebuild the rolling answer statistics from the revlog
+                mSched.getReviewStats().invalidate();
+                // and the full-text index from the notes
+                if (mFullTextIndex.isWanted()) {
+                    mFullTextIndex.build();
+                }
+                mDb.setTransactionSuccessful();
                 // DB must have indices. Older versions of AnkiDroid didn't create them for new collections.
                 int ixs = mDb.queryScalar("select count(name) from sqlite_master where type = 'index'");
                 if (ixs < 7) {
@@ -1462,7 +1634,7 @@ public class Collection {
             } catch (JSONException e) {
                 throw new RuntimeException(e);
             } finally {
-                mDb.getDatabase().endTransaction();
+                mDb.endTransaction();
             }
         } catch (RuntimeException e) {
             Timber.e(e, "doInBackgroundCheckDatabase - RuntimeException on marking card");
@@ -1632,6 +1804,31 @@ public class Collection {
     }
 
 
+    public Finder.QueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+
+    public Finder.ResultCache getResultCache() {
+        return mResultCache;
+    }
+
+
+    public LocalTables getLocalTables() {
+        return mLocalTables;
+    }
+
+
+    public FullTextIndex getFullTextIndex() {
+        return mFullTextIndex;
+    }
+
+
+    public FieldScanner getFieldScanner() {
+        return mFieldScanner;
+    }
+
+
     public String getPath() {
         return mPath;
     }
@@ -25,6 +25,7 @@ import android.database.Cursor;
 import android.database.DatabaseErrorHandler;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteTransactionListener;
 import android.os.Build;
 
 import android.widget.Toast;
@@ -38,6 +39,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
@@ -48,11 +50,41 @@ public class DB {
 
     private static final String[] MOD_SQLS = new String[] { "insert", "update", "delete" };
 
+    // Not in libanki. The pages the write-ahead log may hold before SQLite checkpoints it, SQLite's default.
+    private static final int WAL_AUTOCHECKPOINT = 1000;
+
+    // Not in libanki. The last generation given to a connection, see getGeneration().
+    private static final AtomicLong sGenerations = new AtomicLong();
+
     /**
      * The deck, which is actually an SQLite database.
      */
     private SQLiteDatabase mDatabase;
     private boolean mMod = false;
+    // Not in libanki. Counts the statements that may have written to the cards table, see getCardsMod().
+    private long mCardsMod = 0;
+    // Not in libanki. The same for the notes table, see getNotesMod().
+    private long mNotesMod = 0;
+    // Not in libanki. Tells this connection apart from every other one opened by the process.
+    private final long mGeneration = sGenerations.incrementAndGet();
+    // Not in libanki. Counts a rolled back transaction as a write to both tables, see beginTransaction().
+    private final SQLiteTransactionListener mRollbackListener = new SQLiteTransactionListener() {
+        @Override
+        public void onBegin() {
+        }
+
+
+        @Override
+        public void onCommit() {
+        }
+
+
+        @Override
+        public void onRollback() {
+            mCardsMod++;
+            mNotesMod++;
+        }
+    };
 
 
     /**
@@ -73,6 +105,7 @@ public class DB {
 
         if (mDatabase != null) {
             // TODO: we can remove this eventually once everyone has stopped using old AnkiDroid clients with WAL
+            // This also moves anything left in the log by a crash in write-behind mode into the database file.
             CompatHelper.getCompat().disableDatabaseWriteAheadLogging(mDatabase);
             mDatabase.rawQuery("PRAGMA synchronous = 2", null);
         }
@@ -126,6 +159,110 @@ public class DB {
     }
 
 
+    /**
+     * Not in libanki. Switch write-behind mode on or off. In write-behind mode the database uses SQLite's
+     * write-ahead log: each commit is appended to the log with a single sync, and the log is copied into the
+     * database file by {@link #checkpoint()}, or by SQLite once it holds WAL_AUTOCHECKPOINT pages. Readers and
+     * writers on this connection always see every committed change, and a log left behind by a crash is applied
+     * when the database is next opened.
+     * @return True if write-behind mode is now on. It is not available on all devices.
+     */
+    public boolean setWriteBehind(boolean enable) {
+        if (!enable) {
+            CompatHelper.getCompat().disableDatabaseWriteAheadLogging(mDatabase);
+            return false;
+        }
+        try {
+            if (!CompatHelper.getCompat().enableDatabaseWriteAheadLogging(mDatabase)) {
+                return false;
+            }
+            // answers only add a few pages, so they are checkpointed explicitly, in groups; the bound is for bulk
+            // writes such as imports, syncs or Check Database, which would otherwise grow the log without limit
+            pragma("wal_autocheckpoint = " + WAL_AUTOCHECKPOINT);
+            return true;
+        } catch (RuntimeException e) {
+            Timber.w(e, "Could not switch to write-behind mode");
+            CompatHelper.getCompat().disableDatabaseWriteAheadLogging(mDatabase);
+            return false;
+        }
+    }
+
+
+    /**
+     * Not in libanki. Copy the changes committed in write-behind mode into the database file. Must not be called
+     * within a transaction.
+     */
+    public void checkpoint() {
+        pragma("wal_checkpoint");
+    }
+
+
+    private void pragma(String pragma) {
+        Cursor cursor = null;
+        try {
+            // the statement only runs once the cursor is moved
+            cursor = mDatabase.rawQuery("PRAGMA " + pragma, null);
+            cursor.moveToFirst();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+
+    /**
+     * Not in libanki.
+     * @return A number that changes whenever a statement that may have modified the cards table is run, so that
+     *         data derived from the cards can tell whether it is still current.
+     */
+    public long getCardsMod() {
+        return mCardsMod;
+    }
+
+
+    /**
+     * Not in libanki.
+     * @return A number that changes whenever a statement that may have modified the notes table is run.
+     */
+    public long getNotesMod() {
+        return mNotesMod;
+    }
+
+
+    /**
+     * Not in libanki.
+     * @return A number given to this connection when it was opened, greater than that of any connection opened
+     *         before it. The counters above start again from 0 when the collection is reopened, so data stamped with
+     *         them must be stamped with this as well.
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+
+    /**
+     * Not in libanki. Begin a transaction, possibly nested. If it ends without being marked successful, the cards and
+     * notes are counted as modified, as anything derived from them while it was open, and stamped with
+     * getCardsMod() or getNotesMod(), may describe writes that have been undone.
+     */
+    public void beginTransaction() {
+        mDatabase.beginTransactionWithListener(mRollbackListener);
+    }
+
+
+    /** Not in libanki. Mark the current transaction successful, see beginTransaction(). */
+    public void setTransactionSuccessful() {
+        mDatabase.setTransactionSuccessful();
+    }
+
+
+    /** Not in libanki. End the current transaction, committing it if it was marked successful. */
+    public void endTransaction() {
+        mDatabase.endTransaction();
+    }
+
+
     /**
      * Convenience method for querying the database for a single integer result.
      *
@@ -288,6 +425,12 @@ public class DB {
         for (String mo : MOD_SQLS) {
             if (s.startsWith(mo)) {
                 mMod = true;
+                if (s.contains("cards")) {
+                    mCardsMod++;
+                }
+                if (s.contains("notes")) {
+                    mNotesMod++;
+                }
                 break;
             }
         }
@@ -306,6 +449,8 @@ public class DB {
      */
     public void executeScript(String sql) {
         mMod = true;
+        mCardsMod++;
+        mNotesMod++;
         String[] queries = sql.split(";");
         for(String query : queries) {
             mDatabase.execSQL(query);
@@ -322,6 +467,11 @@ public class DB {
     /** update must always be called via DB in order to mark the db as changed */
     public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
         mMod = true;
+        if ("cards".equals(table)) {
+            mCardsMod++;
+        } else if ("notes".equals(table)) {
+            mNotesMod++;
+        }
         return getDatabase().update(table, values, whereClause, whereArgs);
     }
 
@@ -329,20 +479,31 @@ public class DB {
     /** insert must always be called via DB in order to mark the db as changed */
     public long insert(String table, String nullColumnHack, ContentValues values) {
         mMod = true;
+        if ("cards".equals(table)) {
+            mCardsMod++;
+        } else if ("notes".equals(table)) {
+            mNotesMod++;
+        }
         return getDatabase().insert(table, nullColumnHack, values);
     }
 
 
     public void executeMany(String sql, List<Object[]> list) {
         mMod = true;
-        mDatabase.beginTransaction();
+        if (sql.toLowerCase(Locale.US).contains("cards")) {
+            mCardsMod++;
+        }
+        if (sql.toLowerCase(Locale.US).contains("notes")) {
+            mNotesMod++;
+        }
+        beginTransaction();
         try {
             for (Object[] o : list) {
                 mDatabase.execSQL(sql, o);
             }
-            mDatabase.setTransactionSuccessful();
+            setTransactionSuccessful();
         } finally {
-            mDatabase.endTransaction();
+            endTransaction();
         }
     }
 
@@ -0,0 +1,206 @@
+package com.ichi2.libanki;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+
+/**
+ * Not in libanki. An immutable, typed snapshot of the scheduling options of a deck: those of its options group for a
+ * normal deck, or the options embedded in a filtered deck.
+ *
+ * The scheduler reads these options several times for every card it shows and answers. Reading them from the JSON
+ * means a map lookup, boxing and a checked exception per value, so {@link Decks#config(long)} parses them once and
+ * keeps the snapshot until the deck or its options are saved.
+ */
+public class DeckConfig {
+
+    /** Learning steps, shared by the options for new cards and for lapses. */
+    public static class Steps {
+        /** The steps in minutes, as configured. */
+        public final double[] delays;
+        /** The steps in whole seconds. */
+        public final int[] delaySecs;
+
+
+        Steps(double[] delays) {
+            this.delays = delays;
+            delaySecs = new int[delays.length];
+            for (int i = 0; i < delays.length; i++) {
+                delaySecs[i] = (int) (delays[i] * 60.0);
+            }
+        }
+    }
+
+
+    /** The "new" options. */
+    public static class New extends Steps {
+        public final int[] ints;
+        public final int initialFactor;
+        public final boolean bury;
+        public final boolean separate;
+        public final int order;
+        public final int perDay;
+
+
+        New(double[] delays, int[] ints, int initialFactor, boolean bury, boolean separate, int order, int perDay) {
+            super(delays);
+            this.ints = ints;
+            this.initialFactor = initialFactor;
+            this.bury = bury;
+            this.separate = separate;
+            this.order = order;
+            this.perDay = perDay;
+        }
+    }
+
+
+    /** The "lapse" options. */
+    public static class Lapse extends Steps {
+        public final int minInt;
+        public final int leechFails;
+        public final int leechAction;
+        public final double mult;
+        /** Only meaningful for cards in filtered decks, for others it is always true. */
+        public final boolean resched;
+
+
+        Lapse(double[] delays, int minInt, int leechFails, int leechAction, double mult, boolean resched) {
+            super(delays);
+            this.minInt = minInt;
+            this.leechFails = leechFails;
+            this.leechAction = leechAction;
+            this.mult = mult;
+            this.resched = resched;
+        }
+    }
+
+
+    /** The "rev" options. */
+    public static class Rev {
+        public final int perDay;
+        public final double ease4;
+        public final double ivlFct;
+        public final int maxIvl;
+        public final boolean bury;
+
+
+        Rev(int perDay, double ease4, double ivlFct, int maxIvl, boolean bury) {
+            this.perDay = perDay;
+            this.ease4 = ease4;
+            this.ivlFct = ivlFct;
+            this.maxIvl = maxIvl;
+            this.bury = bury;
+        }
+    }
+
+
+    public final long did;
+    public final boolean dyn;
+    /** The options group of a normal deck, 0 for a filtered deck. */
+    public final long confId;
+
+    // Options of normal decks, null for filtered decks
+    public final New newConf;
+    public final Lapse lapse;
+    public final Rev rev;
+
+    // Options of filtered decks
+    public final boolean resched;
+    public final boolean separate;
+    /** Learning steps overriding those of the cards' home decks, or null. */
+    public final double[] delays;
+
+    // The options of cards in this filtered deck, merged with those of their home deck, by home deck id
+    private final HashMap<Long, New> mFilteredNew = new HashMap<>();
+    private final HashMap<Long, Lapse> mFilteredLapse = new HashMap<>();
+
+
+    /**
+     * @param deck The deck.
+     * @param conf Its options group, or null for a filtered deck.
+     */
+    DeckConfig(JSONObject deck, JSONObject conf) {
+        try {
+            did = deck.getLong("id");
+            dyn = conf == null;
+            if (!dyn) {
+                confId = conf.getLong("id");
+                JSONObject n = conf.getJSONObject("new");
+                newConf = new New(doubles(n.getJSONArray("delays")), ints(n.getJSONArray("ints")),
+                        n.getInt("initialFactor"), n.optBoolean("bury", true), n.optBoolean("separate", true),
+                        n.getInt("order"), n.getInt("perDay"));
+                JSONObject l = conf.getJSONObject("lapse");
+                lapse = new Lapse(doubles(l.getJSONArray("delays")), l.getInt("minInt"), l.getInt("leechFails"),
+                        l.getInt("leechAction"), l.getDouble("mult"), true);
+                JSONObject r = conf.getJSONObject("rev");
+                rev = new Rev(r.getInt("perDay"), r.getDouble("ease4"), r.optDouble("ivlFct", 1.0), r.getInt("maxIvl"),
+                        r.optBoolean("bury", true));
+                resched = true;
+                separate = true;
+                delays = null;
+            } else {
+                confId = 0;
+                newConf = null;
+                lapse = null;
+                rev = null;
+                resched = deck.getBoolean("resched");
+                separate = deck.optBoolean("separate", true);
+                JSONArray d = deck.optJSONArray("delays");
+                delays = d == null ? null : doubles(d);
+            }
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * The new card options of a card in this filtered deck, whose home deck has options HOME: the steps and
+     * separation come from this deck, the rest from the home deck.
+     */
+    New filteredNew(DeckConfig home, int reportLimit) {
+        New n = mFilteredNew.get(home.did);
+        if (n == null) {
+            New h = home.newConf;
+            n = new New(delays != null ? delays : h.delays, h.ints, h.initialFactor, h.bury, separate,
+                    Consts.NEW_CARDS_DUE, reportLimit);
+            mFilteredNew.put(home.did, n);
+        }
+        return n;
+    }
+
+
+    /**
+     * The lapse options of a card in this filtered deck, whose home deck has options HOME: the steps and
+     * rescheduling come from this deck, the rest from the home deck.
+     */
+    Lapse filteredLapse(DeckConfig home) {
+        Lapse l = mFilteredLapse.get(home.did);
+        if (l == null) {
+            Lapse h = home.lapse;
+            l = new Lapse(delays != null ? delays : h.delays, h.minInt, h.leechFails, h.leechAction, h.mult, resched);
+            mFilteredLapse.put(home.did, l);
+        }
+        return l;
+    }
+
+
+    private static double[] doubles(JSONArray a) throws JSONException {
+        double[] d = new double[a.length()];
+        for (int i = 0; i < d.length; i++) {
+            d[i] = a.getDouble(i);
+        }
+        return d;
+    }
+
+
+    private static int[] ints(JSONArray a) throws JSONException {
+        int[] d = new int[a.length()];
+        for (int i = 0; i < d.length; i++) {
+            d[i] = a.getInt(i);
+        }
+        return d;
+    }
+}
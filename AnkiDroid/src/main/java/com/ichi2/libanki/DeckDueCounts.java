@@ -0,0 +1,212 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The due cards of every deck, kept in memory for the deck list so that it does not need to count the cards again
+ * after every answer.
+ *
+ * The counts are loaded with one query and then adjusted by the scheduler whenever it changes cards: it takes the
+ * cards out with {@link #remove(String)} before the change and puts them back with {@link #add(String)} after it.
+ * An answered card is taken out and put back from its fields with {@link #remove(Card)} and {@link #add(Card)},
+ * without reading it again. Any other write to the cards table, a rolled back transaction, or the start of a new day,
+ * makes the counts stale (see {@link #isCurrent(DB, int)}) and they are loaded again. Counts are raw; deck limits are
+ * applied by the caller.
+ */
+class DeckDueCounts {
+
+    // Indices into the per-deck arrays returned by counts()
+    static final int NEW = 0;
+    static final int LRN = 1;
+    static final int LRN_CARDS = 2;
+    static final int LRN_DAY = 3;
+    static final int REV = 4;
+    static final int SIZE = 5;
+
+    private final DB mDb;
+    private final long mGeneration;
+    private final int mToday;
+    private long mMod;
+
+    // did -> counts of new, day learning and due review cards
+    private final HashMap<Long, int[]> mCounts = new HashMap<>();
+    // cid -> {did, due, steps left today} of every card in the sub-day learning queue. Whether these are due
+    // depends on the time of the call, so they are kept individually.
+    private final HashMap<Long, long[]> mLrn = new HashMap<>();
+
+
+    DeckDueCounts(DB db, int today) {
+        mDb = db;
+        mGeneration = db.getGeneration();
+        mToday = today;
+        Cursor cur = null;
+        try {
+            cur = db.getDatabase().rawQuery("SELECT did, queue, count() FROM cards WHERE queue = 0 OR (queue IN (2, 3) "
+                    + "AND due <= " + today + ") GROUP BY did, queue", null);
+            while (cur.moveToNext()) {
+                int[] cnt = get(cur.getLong(0));
+                switch (cur.getInt(1)) {
+                    case 0:
+                        cnt[NEW] = cur.getInt(2);
+                        break;
+                    case 2:
+                        cnt[REV] = cur.getInt(2);
+                        break;
+                    case 3:
+                        cnt[LRN_DAY] = cur.getInt(2);
+                        break;
+                }
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        adjust("queue = 1", 1);
+        mMod = db.getCardsMod();
+    }
+
+
+    /**
+     * @return True if no card has been changed behind our back since the counts were loaded or last adjusted.
+     */
+    boolean isCurrent(DB db, int today) {
+        return db.getGeneration() == mGeneration && today == mToday && mMod == db.getCardsMod();
+    }
+
+
+    /** Take the cards matching WHERE out of the counts, before they are modified. */
+    void remove(String where) {
+        adjust(where, -1);
+    }
+
+
+    /** Put the cards matching WHERE back into the counts after they have been modified, and mark them current. */
+    void add(String where) {
+        adjust(where, 1);
+        mMod = mDb.getCardsMod();
+    }
+
+
+    /** Take CARD out of the counts, as it was read before it was answered. */
+    void remove(Card card) {
+        adjust(card.getId(), card.getDid(), card.getQueue(), card.getDue(), card.getLeft(), -1);
+    }
+
+
+    /**
+     * Put CARD back into the counts once its answer has been written. If anything else was written to the cards since
+     * it was taken out, what has changed is unknown and the counts are left stale.
+     */
+    void add(Card card) {
+        if (mDb.getCardsMod() != mMod + 1) {
+            mMod = -1;
+            return;
+        }
+        adjust(card.getId(), card.getDid(), card.getQueue(), card.getDue(), card.getLeft(), 1);
+        mMod = mDb.getCardsMod();
+    }
+
+
+    /** Mark the counts current after a write that is known not to have changed them. */
+    void stamp() {
+        mMod = mDb.getCardsMod();
+    }
+
+
+    /**
+     * @return True if every deck that has cards in the counts is one of DIDS.
+     */
+    boolean onlyIn(java.util.Collection<Long> dids) {
+        for (Long did : mCounts.keySet()) {
+            if (!dids.contains(did)) {
+                return false;
+            }
+        }
+        for (long[] lrn : mLrn.values()) {
+            if (!dids.contains(lrn[0])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @param lrnCutoff Sub-day learning cards due before this time are counted.
+     * @return Map from did to an array indexed by NEW, LRN, LRN_CARDS, LRN_DAY and REV. Decks without cards may be
+     *         missing.
+     */
+    HashMap<Long, int[]> counts(long lrnCutoff) {
+        HashMap<Long, int[]> counts = new HashMap<>();
+        for (Map.Entry<Long, int[]> e : mCounts.entrySet()) {
+            counts.put(e.getKey(), e.getValue().clone());
+        }
+        for (long[] lrn : mLrn.values()) {
+            if (lrn[1] < lrnCutoff) {
+                int[] cnt = counts.get(lrn[0]);
+                if (cnt == null) {
+                    cnt = new int[SIZE];
+                    counts.put(lrn[0], cnt);
+                }
+                cnt[LRN] += lrn[2];
+                cnt[LRN_CARDS]++;
+            }
+        }
+        return counts;
+    }
+
+
+    private void adjust(String where, int sign) {
+        Cursor cur = null;
+        try {
+            cur = mDb.getDatabase().rawQuery("SELECT id, did, queue, due, left FROM cards WHERE " + where, null);
+            while (cur.moveToNext()) {
+                adjust(cur.getLong(0), cur.getLong(1), cur.getInt(2), cur.getLong(3), cur.getInt(4), sign);
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+    }
+
+
+    private void adjust(long cid, long did, int queue, long due, int left, int sign) {
+        switch (queue) {
+            case 0:
+                get(did)[NEW] += sign;
+                break;
+            case 1:
+                if (sign > 0) {
+                    mLrn.put(cid, new long[] { did, due, left / 1000 });
+                } else {
+                    mLrn.remove(cid);
+                }
+                break;
+            case 2:
+                if (due <= mToday) {
+                    get(did)[REV] += sign;
+                }
+                break;
+            case 3:
+                if (due <= mToday) {
+                    get(did)[LRN_DAY] += sign;
+                }
+                break;
+        }
+    }
+
+
+    private int[] get(long did) {
+        int[] cnt = mCounts.get(did);
+        if (cnt == null) {
+            cnt = new int[SIZE];
+            mCounts.put(did, cnt);
+        }
+        return cnt;
+    }
+}
@@ -126,6 +126,10 @@ public class Decks {
     private HashMap<Long, JSONObject> mDecks;
     private HashMap<Long, JSONObject> mDconf;
     private boolean mChanged;
+    // Not in libanki: typed snapshots of the options of decks, by deck id
+    private HashMap<Long, DeckConfig> mConfigs = new HashMap<>();
+    // Not in libanki: bumped whenever the registry is loaded or saved other than by saveCounts(), see getSaveCount()
+    private long mSaveCount = 0;
 
 
     /**
@@ -159,6 +163,8 @@ public class Decks {
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
+        mConfigs.clear();
+        mSaveCount++;
         mChanged = false;
     }
 
@@ -180,10 +186,37 @@ public class Decks {
                 throw new RuntimeException(e);
             }
         }
+        _invalidateConfig(g);
+        mSaveCount++;
         mChanged = true;
     }
 
 
+    /**
+     * Not in libanki. Save deck G when only its daily counters (newToday, revToday, lrnToday and timeToday) have
+     * changed, as the scheduler does after every answer. Nothing computed from the decks depends on the counters of
+     * the day, so unlike save() this keeps the option snapshots and doesn't bump getSaveCount().
+     */
+    public void saveCounts(JSONObject g) {
+        try {
+            g.put("mod", Utils.intNow());
+            g.put("usn", mCol.usn());
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        mChanged = true;
+    }
+
+
+    /**
+     * Not in libanki. A counter bumped by every load() and save(), so that callers holding on to something computed
+     * from the names, structure or options of the decks can tell it may be stale. saveCounts() doesn't bump it.
+     */
+    public long getSaveCount() {
+        return mSaveCount;
+    }
+
+
     public void flush() {
         ContentValues values = new ContentValues();
         if (mChanged) {
@@ -656,6 +689,55 @@ public class Decks {
     }
 
 
+    /**
+     * Not in libanki. A typed snapshot of the scheduling options of DID, as {@link #confForDid(long)} would return
+     * them. Snapshots are kept until the deck or an options group is saved, so callers changing the JSON must save()
+     * it, as they already have to for the change to be written.
+     */
+    public DeckConfig config(long did) {
+        DeckConfig config = mConfigs.get(did);
+        if (config == null) {
+            JSONObject deck = get(did, false);
+            assert deck != null;
+            try {
+                config = new DeckConfig(deck, deck.has("conf") ? getConf(deck.getLong("conf")) : null);
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+            mConfigs.put(did, config);
+        }
+        return config;
+    }
+
+
+    /**
+     * Not in libanki. Drop the snapshots that saving G may have made stale. Saving a normal deck without changing
+     * its options group, which the scheduler does on every answer, keeps them all; saving a filtered deck only drops
+     * its own; anything else drops them all.
+     */
+    private void _invalidateConfig(JSONObject g) {
+        if (g == null || mConfigs.isEmpty()) {
+            mConfigs.clear();
+            return;
+        }
+        try {
+            if (g.has("terms")) {
+                mConfigs.remove(g.getLong("id"));
+                return;
+            }
+            if (g.has("conf") && g.has("name") && !g.has("new")) {
+                DeckConfig config = mConfigs.get(g.getLong("id"));
+                if (config == null || (!config.dyn && config.confId == g.getLong("conf"))) {
+                    return;
+                }
+            }
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        mConfigs.clear();
+    }
+
+
     public JSONObject getConf(long confId) {
         return mDconf.get(confId);
     }
@@ -0,0 +1,263 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.Pair;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Not in libanki. Finds notes whose field is the same once HTML and media are stripped, without stripping the field
+ * of every note.
+ *
+ * The notes are first grouped by the checksum of their stripped field. For models whose first field is searched, that
+ * is the csum column of the notes table, read from the table alone. For other models the checksum is computed, in
+ * parallel. Only the notes whose checksum is shared are then compared by their stripped field, again in parallel,
+ * a batch of groups at a time, and the duplicates of each batch are reported as soon as they are known.
+ */
+public class DupeFinder {
+
+    /** Receives the duplicates as they are found. */
+    public interface Listener {
+        void onDupes(String val, List<Long> nids);
+    }
+
+    /** The number of notes read and stripped at once. */
+    private static final int BATCH = 1000;
+    /** The checksum of an empty field, which is never a duplicate. */
+    private static final long EMPTY = _checksum("");
+
+    private Collection mCol;
+
+
+    public DupeFinder(Collection col) {
+        mCol = col;
+    }
+
+
+    /**
+     * Groups of notes among the notes SEARCH finds that have the same value in field FIELDNAME, ignoring HTML and
+     * media. Each group is also passed to LISTENER, if not null, as soon as it is found.
+     * @return List of Pair("dupestr", List[nids])
+     */
+    public List<Pair<String, List<Long>>> find(String fieldName, String search, Listener listener) {
+        // the position of the field in each model that has it
+        Map<Long, Integer> ords = new HashMap<>();
+        try {
+            for (JSONObject m : mCol.getModels().all()) {
+                JSONArray flds = m.getJSONArray("flds");
+                for (int fi = 0; fi < flds.length(); ++fi) {
+                    if (flds.getJSONObject(fi).getString("name").equalsIgnoreCase(fieldName)) {
+                        ords.put(m.getLong("id"), fi);
+                        break;
+                    }
+                }
+            }
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+        List<Pair<String, List<Long>>> dupes = new ArrayList<>();
+        if (ords.isEmpty()) {
+            return dupes;
+        }
+        String where = "mid in " + Utils.ids2str(new ArrayList<>(ords.keySet()));
+        if (!TextUtils.isEmpty(search)) {
+            where += " and id in " + Utils.ids2str(mCol.findNotes(search));
+        }
+
+        // group by checksum, from the csum column for the first field and computed for the others
+        Map<Long, List<Long>> byCsum = new HashMap<>();
+        Map<Long, String> vals = new HashMap<>();
+        List<long[]> other = new ArrayList<>();
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery("select id, mid, csum from notes where " + where, null);
+            while (cur.moveToNext()) {
+                int ord = ords.get(cur.getLong(1));
+                if (ord == 0) {
+                    _group(byCsum, cur.getLong(2), cur.getLong(0));
+                } else {
+                    other.add(new long[] { cur.getLong(0), ord });
+                }
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        for (int i = 0; i < other.size(); i += BATCH) {
+            List<long[]> batch = other.subList(i, Math.min(i + BATCH, other.size()));
+            Map<Long, String> stripped = _strip(batch);
+            for (Map.Entry<Long, String> entry : stripped.entrySet()) {
+                _group(byCsum, _checksum(entry.getValue()), entry.getKey());
+            }
+            vals.putAll(stripped);
+        }
+
+        // compare the notes that share a checksum, a batch of groups at a time
+        List<List<Long>> groups = new ArrayList<>();
+        List<long[]> batch = new ArrayList<>();
+        Map<Long, Integer> nidOrds = new HashMap<>();
+        for (long[] note : other) {
+            nidOrds.put(note[0], (int) note[1]);
+        }
+        for (Map.Entry<Long, List<Long>> entry : byCsum.entrySet()) {
+            if (entry.getKey() == EMPTY || entry.getValue().size() < 2) {
+                continue;
+            }
+            groups.add(entry.getValue());
+            for (long nid : entry.getValue()) {
+                if (!vals.containsKey(nid)) {
+                    batch.add(new long[] { nid, nidOrds.containsKey(nid) ? nidOrds.get(nid) : 0 });
+                }
+            }
+            if (batch.size() >= BATCH) {
+                vals.putAll(_strip(batch));
+                _report(groups, vals, dupes, listener);
+                groups.clear();
+                batch.clear();
+            }
+        }
+        vals.putAll(_strip(batch));
+        _report(groups, vals, dupes, listener);
+        return dupes;
+    }
+
+
+    /**
+     * The ids of the notes of model MID other than EXCEPT whose first field is VAL, once stripped of HTML and media.
+     * @param val A value already stripped with Utils.stripHTMLMedia().
+     */
+    public List<Long> firstFieldDupes(long mid, String val, long except) {
+        List<Long> nids = new ArrayList<>();
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery("select id, flds from notes where csum = " + _checksum(val)
+                    + " and id != " + except + " and mid = " + mid, null);
+            while (cur.moveToNext()) {
+                if (Utils.stripHTMLMedia(Utils.splitFields(cur.getString(1))[0]).equals(val)) {
+                    nids.add(cur.getLong(0));
+                }
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        return nids;
+    }
+
+
+    /** Pass on the notes of each group of GROUPS that have the same value in VALS. */
+    private void _report(List<List<Long>> groups, Map<Long, String> vals, List<Pair<String, List<Long>>> dupes,
+            Listener listener) {
+        for (List<Long> group : groups) {
+            // checksums rarely collide, so this is usually a single value
+            Map<String, List<Long>> byVal = new HashMap<>();
+            for (long nid : group) {
+                String val = vals.get(nid);
+                if (!byVal.containsKey(val)) {
+                    byVal.put(val, new ArrayList<Long>());
+                }
+                byVal.get(val).add(nid);
+            }
+            for (Map.Entry<String, List<Long>> entry : byVal.entrySet()) {
+                if (entry.getValue().size() < 2) {
+                    continue;
+                }
+                dupes.add(new Pair<>(entry.getKey(), entry.getValue()));
+                if (listener != null) {
+                    listener.onDupes(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+
+    /** The field, stripped of HTML and media, of the notes NOTES given as pairs of id and field position. */
+    private Map<Long, String> _strip(List<long[]> notes) {
+        final Map<Long, Integer> ords = new HashMap<>();
+        for (long[] note : notes) {
+            ords.put(note[0], (int) note[1]);
+        }
+        Map<Long, String> vals = new HashMap<>();
+        if (notes.isEmpty()) {
+            return vals;
+        }
+        final List<Long> nids = new ArrayList<>();
+        final List<String> flds = new ArrayList<>();
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery("select id, flds from notes where id in "
+                    + Utils.ids2str(new ArrayList<>(ords.keySet())), null);
+            while (cur.moveToNext()) {
+                nids.add(cur.getLong(0));
+                flds.add(cur.getString(1));
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        // split between the threads of the pool
+        final int size = nids.size();
+        int parts = Math.min(FieldScanner.THREADS, Math.max(1, size / 100));
+        List<Future<String[]>> futures = new ArrayList<>();
+        for (int p = 0; p < parts; p++) {
+            final int start = size * p / parts;
+            final int end = size * (p + 1) / parts;
+            futures.add(FieldScanner.getPool().submit(new Callable<String[]>() {
+                @Override
+                public String[] call() {
+                    String[] stripped = new String[end - start];
+                    for (int i = start; i < end; i++) {
+                        String[] fields = Utils.splitFields(flds.get(i));
+                        int ord = ords.get(nids.get(i));
+                        stripped[i - start] = ord < fields.length ? Utils.stripHTMLMedia(fields[ord]) : "";
+                    }
+                    return stripped;
+                }
+            }));
+        }
+        for (int p = 0; p < parts; p++) {
+            String[] stripped;
+            try {
+                stripped = futures.get(p).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            int start = size * p / parts;
+            for (int i = 0; i < stripped.length; i++) {
+                vals.put(nids.get(start + i), stripped[i]);
+            }
+        }
+        return vals;
+    }
+
+
+    private static void _group(Map<Long, List<Long>> byCsum, long csum, long nid) {
+        if (!byCsum.containsKey(csum)) {
+            byCsum.put(csum, new ArrayList<Long>());
+        }
+        byCsum.get(csum).add(nid);
+    }
+
+
+    /** The csum of a field already stripped of HTML and media, as Utils.fieldChecksum() computes it. */
+    private static long _checksum(String stripped) {
+        return Long.valueOf(Utils.checksum(stripped).substring(0, 8), 16);
+    }
+}
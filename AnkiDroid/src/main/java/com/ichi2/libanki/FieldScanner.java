@@ -0,0 +1,255 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Not in libanki. Matches one field of the notes against a pattern for searches like "front:foo*", which SQL can't
+ * express, using every core.
+ *
+ * The candidate notes are read in chunks, and each chunk is matched on a shared pool of one thread per core while the
+ * next one is read. Only the searched field of each note is matched, in place, without splitting the others out.
+ *
+ * The ids found are turned into an SQL condition by {@link #idsClause(String, long[], List)}. Large sets are written
+ * to the temporary search_ids table instead of being spelled out in the statement. It lives on the connection, not in
+ * the collection file, so nothing of a search is written to the collection, backed up or synced. Each search has its
+ * own rows, which the caller frees with {@link #free(List)} once the statement using them has run. In write-behind
+ * mode the statement must run on the connection that wrote them; see Finder.release().
+ */
+public class FieldScanner {
+
+    public static final String TABLE = "search_ids";
+
+    /** The number of notes matched as a unit of work. */
+    private static final int CHUNK = 1000;
+    static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /** The most ids written into a statement; more are kept in the table. */
+    private static final int INLINE_IDS = 1000;
+
+    private static ExecutorService sPool;
+
+    private Collection mCol;
+    /** The connection the table is known to exist on. */
+    private DB mTableDb;
+    private long mSearchId = 0;
+
+
+    FieldScanner(Collection col) {
+        mCol = col;
+    }
+
+
+    /** The pool that searches share. */
+    static synchronized ExecutorService getPool() {
+        if (sPool == null) {
+            sPool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FieldScanner");
+                    // don't keep the process alive for a search
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sPool;
+    }
+
+
+    /**
+     * The ids of the notes whose field matches PATTERN entirely, among the notes with the models of ORDS whose fields
+     * are LIKE LIKE (escaped with \).
+     * @param ords The position of the searched field, by model id.
+     */
+    public long[] scan(Map<Long, Integer> ords, Pattern pattern, String like) {
+        IdList nids = new IdList();
+        ArrayDeque<Future<IdList>> pending = new ArrayDeque<>();
+        Chunk chunk = new Chunk();
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery("select id, mid, flds from notes where mid in "
+                    + Utils.ids2str(new ArrayList<>(ords.keySet())) + " and flds like ? escape '\\'",
+                    new String[] { like });
+            while (cur.moveToNext()) {
+                chunk.add(cur.getLong(0), ords.get(cur.getLong(1)), cur.getString(2));
+                if (chunk.mSize == CHUNK) {
+                    // keep the rows waiting to be matched bounded
+                    if (pending.size() >= THREADS * 2) {
+                        nids.addAll(_get(pending.removeFirst()));
+                    }
+                    pending.addLast(getPool().submit(chunk.matcher(pattern)));
+                    chunk = new Chunk();
+                }
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        // the last rows, or all of them for a small search, are matched here
+        nids.addAll(chunk.match(pattern));
+        while (!pending.isEmpty()) {
+            nids.addAll(_get(pending.removeFirst()));
+        }
+        return nids.toArray();
+    }
+
+
+    /**
+     * An SQL condition that COLUMN is one of IDS: a list of ids, or a lookup in the table for a large set. In the
+     * latter case the id of the rows written is added to STORED, and the condition stays valid until they are freed,
+     * on the connection that writes to the collection.
+     */
+    public synchronized String idsClause(String column, long[] ids, List<Long> stored) {
+        if (ids.length == 0) {
+            return "0";
+        }
+        if (ids.length <= INLINE_IDS) {
+            return column + " in " + Utils.ids2str(ids);
+        }
+        // written directly, as the table isn't part of the collection's contents
+        SQLiteDatabase db = mCol.getDb().getDatabase();
+        if (mTableDb != mCol.getDb()) {
+            db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + TABLE + " (sid INTEGER NOT NULL, id INTEGER NOT NULL, "
+                    + "PRIMARY KEY (sid, id))");
+            mTableDb = mCol.getDb();
+        }
+        long sid = ++mSearchId;
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO temp." + TABLE + " VALUES (?,?)");
+            insert.bindLong(1, sid);
+            for (long id : ids) {
+                insert.bindLong(2, id);
+                insert.executeInsert();
+            }
+            insert.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        stored.add(sid);
+        return column + " in (select id from temp." + TABLE + " where sid = " + sid + ")";
+    }
+
+
+    /** Delete the rows SIDS that idsClause() wrote, once the statements using them have run. */
+    public synchronized void free(List<Long> sids) {
+        if (sids.isEmpty() || mTableDb != mCol.getDb()) {
+            sids.clear();
+            return;
+        }
+        mCol.getDb().getDatabase().execSQL("DELETE FROM temp." + TABLE + " WHERE sid IN " + Utils.ids2str(sids));
+        sids.clear();
+    }
+
+
+    private static IdList _get(Future<IdList> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+
+    /** Rows read from the notes table, to be matched together. */
+    private static class Chunk {
+        private final long[] mNids = new long[CHUNK];
+        private final int[] mOrds = new int[CHUNK];
+        private final String[] mFlds = new String[CHUNK];
+        private int mSize = 0;
+
+
+        private void add(long nid, int ord, String flds) {
+            mNids[mSize] = nid;
+            mOrds[mSize] = ord;
+            mFlds[mSize] = flds;
+            mSize++;
+        }
+
+
+        private Callable<IdList> matcher(final Pattern pattern) {
+            return new Callable<IdList>() {
+                @Override
+                public IdList call() {
+                    return match(pattern);
+                }
+            };
+        }
+
+
+        private IdList match(Pattern pattern) {
+            IdList nids = new IdList();
+            Matcher m = pattern.matcher("");
+            for (int i = 0; i < mSize; i++) {
+                String flds = mFlds[i];
+                // find the field between its separators
+                int start = 0;
+                for (int ord = 0; ord < mOrds[i] && start >= 0; ord++) {
+                    start = flds.indexOf('\u001f', start);
+                    if (start >= 0) {
+                        start++;
+                    }
+                }
+                if (start < 0) {
+                    continue;
+                }
+                int end = flds.indexOf('\u001f', start);
+                m.reset(flds).region(start, end < 0 ? flds.length() : end);
+                if (m.matches()) {
+                    nids.add(mNids[i]);
+                }
+            }
+            return nids;
+        }
+    }
+
+
+    /** A growable list of ids. */
+    private static class IdList {
+        private long[] mIds = new long[16];
+        private int mSize = 0;
+
+
+        private void add(long id) {
+            if (mSize == mIds.length) {
+                long[] ids = new long[mSize * 2];
+                System.arraycopy(mIds, 0, ids, 0, mSize);
+                mIds = ids;
+            }
+            mIds[mSize++] = id;
+        }
+
+
+        private void addAll(IdList other) {
+            for (int i = 0; i < other.mSize; i++) {
+                add(other.mIds[i]);
+            }
+        }
+
+
+        private long[] toArray() {
+            long[] ids = new long[mSize];
+            System.arraycopy(mIds, 0, ids, 0, mSize);
+            return ids;
+        }
+    }
+}
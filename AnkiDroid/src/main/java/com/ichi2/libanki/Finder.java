@@ -20,6 +20,8 @@ package com.ichi2.libanki;
 
 import android.database.Cursor;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
 import android.util.Pair;
@@ -33,14 +35,20 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -51,8 +59,21 @@ public class Finder {
     private static final Pattern fPropPattern = Pattern.compile("(^.+?)(<=|>=|!=|=|<|>)(.+?$)");
     private static final Pattern fNidsPattern = Pattern.compile("[^0-9,]");
     private static final Pattern fMidPattern = Pattern.compile("[^0-9]");
+    // Not in libanki: the number of notes find and replace reads, changes and saves at once
+    private static final int REPLACE_BATCH = 500;
+    // Not in libanki: the temporary tables of the rank by name of the decks and models, see _nameRank()
+    private static final String DECK_RANKS = "deck_ranks";
+    private static final String MODEL_RANKS = "model_ranks";
 
     private Collection mCol;
+    // Not in libanki: false once _where() has met a term whose SQL depends on the notes' contents
+    private boolean mCacheable;
+    // Not in libanki: the rows of FieldScanner's table the statement being built reads, see release()
+    private final List<Long> mStored = new ArrayList<>();
+    // Not in libanki: whether this thread is kept on one connection until release(), see _hold()
+    private boolean mHeld = false;
+    // Not in libanki: whether the statement being built reads a temporary rank table, see _nameRank()
+    private boolean mRanked = false;
 
 
     public Finder(Collection col) {
@@ -60,6 +81,195 @@ public class Finder {
     }
 
 
+    /**
+     * Not in libanki. The WHERE clauses and arguments that _where() compiled for recent searches, by search string.
+     *
+     * A compiled search holds deck, model and template ids resolved from names, and day cutoffs, so the cache is
+     * dropped whenever the decks or models are loaded or saved, another deck is selected, or the day rolls over.
+     * Searches on a field or for duplicates embed the ids of the matching notes and are never cached.
+     *
+     * It also keeps track of the temporary rank tables that were filled since then, which depend on the same decks and
+     * models, and are gone when the collection is reopened.
+     */
+    public static class QueryCache {
+        private static final int SIZE = 32;
+
+        private final LinkedHashMap<String, Pair<String, String[]>> mQueries =
+                new LinkedHashMap<String, Pair<String, String[]>>(SIZE, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Pair<String, String[]>> eldest) {
+                        return size() > SIZE;
+                    }
+                };
+        private long mDecksSaveCount = -1;
+        private long mModelsSaveCount = -1;
+        private long mSelected = -1;
+        private long mDayCutoff = -1;
+        private long mGeneration = -1;
+        private final Set<String> mRanks = new HashSet<>();
+
+
+        /** Drop everything if COL changed since the searches were compiled. */
+        private synchronized void _check(Collection col) {
+            long decks = col.getDecks().getSaveCount();
+            long models = col.getModels().getSaveCount();
+            long selected = col.getDecks().selected();
+            long cutoff = col.getSched().getDayCutoff();
+            long generation = col.getDb().getGeneration();
+            if (decks != mDecksSaveCount || models != mModelsSaveCount || selected != mSelected
+                    || cutoff != mDayCutoff || generation != mGeneration) {
+                mQueries.clear();
+                mRanks.clear();
+                mDecksSaveCount = decks;
+                mModelsSaveCount = models;
+                mSelected = selected;
+                mDayCutoff = cutoff;
+                mGeneration = generation;
+            }
+        }
+
+
+        /** Whether the rank table TABLE was filled since the decks and models last changed. */
+        private synchronized boolean _ranked(String table) {
+            return mRanks.contains(table);
+        }
+
+
+        private synchronized void _setRanked(String table) {
+            mRanks.add(table);
+        }
+
+
+        private synchronized Pair<String, String[]> get(String query) {
+            return mQueries.get(query);
+        }
+
+
+        private synchronized void put(String query, Pair<String, String[]> compiled) {
+            mQueries.put(query, compiled);
+        }
+
+
+        public synchronized void clear() {
+            mQueries.clear();
+            mRanks.clear();
+        }
+    }
+
+
+    /**
+     * Not in libanki. The ids found by recent calls to findCards() and findNotes(), by search and order, so that
+     * searches run again and again, such as those of the content provider, aren't run while nothing changed.
+     *
+     * The results are dropped as soon as anything a search may depend on changes; see _stamp(). At most SIZE searches
+     * and IDS ids are kept. The number of hits and misses is kept to see how useful the cache is.
+     */
+    public static class ResultCache {
+        private static final int SIZE = 16;
+        private static final int IDS = 200000;
+
+        private final LinkedHashMap<String, long[]> mResults = new LinkedHashMap<>(SIZE, 0.75f, true);
+        private long[] mStamp;
+        private int mIds = 0;
+        private int mHits = 0;
+        private int mMisses = 0;
+
+
+        /** The ids cached for KEY, or null if there are none or STAMP differs from that of the cached results. */
+        private synchronized long[] get(String key, long[] stamp) {
+            if (!Arrays.equals(stamp, mStamp)) {
+                clear();
+                mStamp = stamp;
+            }
+            long[] ids = mResults.get(key);
+            if (ids == null) {
+                mMisses++;
+            } else {
+                mHits++;
+            }
+            return ids;
+        }
+
+
+        private synchronized void put(String key, long[] stamp, long[] ids) {
+            if (!Arrays.equals(stamp, mStamp) || ids.length > IDS) {
+                return;
+            }
+            long[] old = mResults.put(key, ids);
+            mIds += ids.length - (old == null ? 0 : old.length);
+            // drop the least recently used
+            Iterator<long[]> it = mResults.values().iterator();
+            while (mResults.size() > SIZE || mIds > IDS) {
+                mIds -= it.next().length;
+                it.remove();
+            }
+        }
+
+
+        public synchronized void clear() {
+            mResults.clear();
+            mIds = 0;
+        }
+
+
+        public synchronized int getHits() {
+            return mHits;
+        }
+
+
+        public synchronized int getMisses() {
+            return mMisses;
+        }
+
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US, "%d hits, %d misses, %d searches of %d ids cached", mHits, mMisses,
+                    mResults.size(), mIds);
+        }
+    }
+
+
+    /**
+     * Not in libanki. The key of the results of QUERY in ORDER in the result cache: its terms, whatever the spaces
+     * and quotes between them, and the SQL of the order, prefixed with KIND.
+     */
+    private String _resultKey(String kind, String query, String order) {
+        StringBuilder key = new StringBuilder(kind);
+        for (String token : _tokenize(query)) {
+            key.append('\u001f').append(token);
+        }
+        return key.append('\u0000').append(order).toString();
+    }
+
+
+    private static List<Long> _toList(long[] ids) {
+        List<Long> res = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            res.add(id);
+        }
+        return res;
+    }
+
+
+    /**
+     * Not in libanki. The WHERE clause and arguments of QUERY as _where(_tokenize(QUERY)) returns them, from the
+     * collection's query cache when possible.
+     */
+    private Pair<String, String[]> _compile(String query) {
+        QueryCache cache = mCol.getQueryCache();
+        cache._check(mCol);
+        Pair<String, String[]> compiled = cache.get(query);
+        if (compiled == null) {
+            compiled = _where(_tokenize(query));
+            if (mCacheable) {
+                cache.put(query, compiled);
+            }
+        }
+        return compiled;
+    }
+
+
     /*
      * NOTE: The python version of findCards can accept a boolean, a string, or no value for the _order parameter. The
      * type of _order also determines which _order() method is used. To maintain type safety, we expose the three valid
@@ -83,20 +293,32 @@ public class Finder {
 
 
     private List<Long> _findCards(String query, Object _order) {
-        String[] tokens = _tokenize(query);
-        Pair<String, String[]> res1 = _where(tokens);
+        Pair<String, Boolean> res2 = _order instanceof Boolean ? _order((Boolean) _order) : _order((String) _order);
+        String order = res2.first;
+        boolean rev = res2.second;
+        // AnkiDroid: the same search finds the same cards while nothing changed, unless ordered randomly
+        ResultCache cache = mCol.getResultCache();
+        String key = _resultKey(rev ? "r" : "c", query, order);
+        long[] stamp = _stamp();
+        boolean cacheable = order == null || !order.toLowerCase(Locale.US).contains("random");
+        if (cacheable) {
+            long[] cached = cache.get(key, stamp);
+            if (cached != null) {
+                return _toList(cached);
+            }
+        }
+        Pair<String, String[]> res1 = _compile(query);
         String preds = res1.first;
         String[] args = res1.second;
         List<Long> res = new ArrayList<>();
         if (preds == null) {
+            release();
             return res;
         }
-        Pair<String, Boolean> res2 = _order instanceof Boolean ? _order((Boolean) _order) : _order((String) _order);
-        String order = res2.first;
-        boolean rev = res2.second;
         String sql = _query(preds, order);
         Cursor cur = null;
         try {
+            _hold();
             cur = mCol.getDb().getDatabase().rawQuery(sql, args);
             while (cur.moveToNext()) {
                 res.add(cur.getLong(0));
@@ -108,21 +330,33 @@ public class Finder {
             if (cur != null) {
                 cur.close();
             }
+            release();
         }
         if (rev) {
             Collections.reverse(res);
         }
+        if (cacheable) {
+            cache.put(key, stamp, Utils.toPrimitive(res));
+        }
         return res;
     }
 
 
     public List<Long> findNotes(String query) {
-        String[] tokens = _tokenize(query);
-        Pair<String, String[]> res1 = _where(tokens);
+        // AnkiDroid: the same search finds the same notes while nothing changed
+        ResultCache cache = mCol.getResultCache();
+        String key = _resultKey("n", query, "");
+        long[] stamp = _stamp();
+        long[] cached = cache.get(key, stamp);
+        if (cached != null) {
+            return _toList(cached);
+        }
+        Pair<String, String[]> res1 = _compile(query);
         String preds = res1.first;
         String[] args = res1.second;
         List<Long> res = new ArrayList<>();
         if (preds == null) {
+            release();
             return res;
         }
         if (preds.equals("")) {
@@ -133,6 +367,7 @@ public class Finder {
         String sql = "select distinct(n.id) from cards c, notes n where c.nid=n.id and " + preds;
         Cursor cur = null;
         try {
+            _hold();
             cur = mCol.getDb().getDatabase().rawQuery(sql, args);
             while (cur.moveToNext()) {
                 res.add(cur.getLong(0));
@@ -144,7 +379,9 @@ public class Finder {
             if (cur != null) {
                 cur.close();
             }
+            release();
         }
+        cache.put(key, stamp, Utils.toPrimitive(res));
         return res;
     }
 
@@ -157,7 +394,7 @@ public class Finder {
     public String[] _tokenize(String query) {
         char inQuote = 0;
         List<String> tokens = new ArrayList<>();
-        String token = "";
+        StringBuilder token = new StringBuilder();
         for (int i = 0; i < query.length(); ++i) {
             // quoted text
             char c = query.charAt(i);
@@ -166,14 +403,14 @@ public class Finder {
                     if (c == inQuote) {
                         inQuote = 0;
                     } else {
-                        token += c;
+                        token.append(c);
                     }
                 } else if (token.length() != 0) {
                     // quotes are allowed to start directly after a :
-                    if (token.endsWith(":")) {
+                    if (token.charAt(token.length() - 1) == ':') {
                         inQuote = c;
                     } else {
-                        token += c;
+                        token.append(c);
                     }
                 } else {
                     inQuote = c;
@@ -181,38 +418,38 @@ public class Finder {
                 // separator
             } else if (c == ' ') {
                 if (inQuote != 0) {
-                    token += c;
+                    token.append(c);
                 } else if (token.length() != 0) {
                     // space marks token finished
-                    tokens.add(token);
-                    token = "";
+                    tokens.add(token.toString());
+                    token.setLength(0);
                 }
                 // nesting
             } else if (c == '(' || c == ')') {
                 if (inQuote != 0) {
-                    token += c;
+                    token.append(c);
                 } else {
                     if (c == ')' && token.length() != 0) {
-                        tokens.add(token);
-                        token = "";
+                        tokens.add(token.toString());
+                        token.setLength(0);
                     }
                     tokens.add(String.valueOf(c));
                 }
                 // negation
             } else if (c == '-') {
                 if (token.length() != 0) {
-                    token += c;
+                    token.append(c);
                 } else if (tokens.size() == 0 || !tokens.get(tokens.size() - 1).equals("-")) {
                     tokens.add("-");
                 }
                 // normal character
             } else {
-                token += c;
+                token.append(c);
             }
         }
         // if we finished in a token, add it
         if (token.length() != 0) {
-            tokens.add(token);
+            tokens.add(token.toString());
         }
         return tokens.toArray(new String[tokens.size()]);
     }
@@ -278,6 +515,7 @@ public class Finder {
         // state and query
         SearchState s = new SearchState();
         List<String> args = new ArrayList<>();
+        mCacheable = true;
         for (String token : tokens) {
             if (s.bad) {
                 return new Pair<>(null, null);
@@ -319,10 +557,12 @@ public class Finder {
                 } else if (cmd.equals("tag")) {
                     s.add(_findTag(val, args));
                 } else if (cmd.equals("dupe")) {
+                    mCacheable = false;
                     s.add(_findDupes(val));
                 } else if (cmd.equals("is")) {
                     s.add(_findCardState(val));
                 } else {
+                    mCacheable = false;
                     s.add(_findField(cmd, val));
                 }
             // normal text search
@@ -390,39 +630,150 @@ public class Finder {
         try {
             // use deck default
             String type = mCol.getConf().getString("sortType");
-            String sort = null;
-            if (type.startsWith("note")) {
-                if (type.startsWith("noteCrt")) {
-                    sort = "n.id, c.ord";
-                } else if (type.startsWith("noteMod")) {
-                    sort = "n.mod, c.ord";
-                } else if (type.startsWith("noteFld")) {
-                    sort = "n.sfld COLLATE NOCASE, c.ord";
+            boolean sortBackwards = mCol.getConf().getBoolean("sortBackwards");
+            // AnkiDroid: sorted backwards by SQLite rather than reversed afterwards
+            return new Pair<>(" ORDER BY " + _orderBy(_sortKeys(type), sortBackwards), false);
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /** Not in libanki. A key to sort cards on: an SQL expression, and whether its values are text. */
+    private static class SortKey {
+        private final String mExpr;
+        private final boolean mText;
+
+
+        private SortKey(String expr, boolean text) {
+            mExpr = expr;
+            mText = text;
+        }
+    }
+
+
+    /**
+     * Not in libanki. The keys to sort on for sort type TYPE, as kept in the sortType of the collection, ending with
+     * the card id so that the order of every card is defined. Besides the types of libanki, the cards can be sorted
+     * on the columns "deck" (by deck name), "note" (by note type name), "template" (by note type, then card type)
+     * and "noteTags", with the names desktop Anki gives those columns.
+     */
+    private List<SortKey> _sortKeys(String type) {
+        List<SortKey> keys = new ArrayList<>();
+        if (type.equals("deck")) {
+            keys.add(new SortKey(_nameRank(DECK_RANKS, "c.did", mCol.getDecks().all()), false));
+        } else if (type.equals("note")) {
+            keys.add(new SortKey(_nameRank(MODEL_RANKS, "n.mid", mCol.getModels().all()), false));
+        } else if (type.equals("template")) {
+            keys.add(new SortKey(_nameRank(MODEL_RANKS, "n.mid", mCol.getModels().all()), false));
+            keys.add(new SortKey("c.ord", false));
+        } else if (type.equals("noteTags")) {
+            keys.add(new SortKey("n.tags", true));
+        } else if (type.startsWith("note")) {
+            if (type.startsWith("noteCrt")) {
+                keys.add(new SortKey("n.id", false));
+                keys.add(new SortKey("c.ord", false));
+            } else if (type.startsWith("noteMod")) {
+                keys.add(new SortKey("n.mod", false));
+                keys.add(new SortKey("c.ord", false));
+            } else if (type.startsWith("noteFld")) {
+                keys.add(new SortKey("n.sfld COLLATE NOCASE", true));
+                keys.add(new SortKey("c.ord", false));
+            }
+        } else if (type.startsWith("card")) {
+            if (type.startsWith("cardMod")) {
+                keys.add(new SortKey("c.mod", false));
+            } else if (type.startsWith("cardReps")) {
+                keys.add(new SortKey("c.reps", false));
+            } else if (type.startsWith("cardDue")) {
+                keys.add(new SortKey("c.type", false));
+                keys.add(new SortKey("c.due", false));
+            } else if (type.startsWith("cardEase")) {
+                keys.add(new SortKey("c.factor", false));
+            } else if (type.startsWith("cardLapses")) {
+                keys.add(new SortKey("c.lapses", false));
+            } else if (type.startsWith("cardIvl")) {
+                keys.add(new SortKey("c.ivl", false));
+            }
+        }
+        if (keys.isEmpty()) {
+            // deck has invalid sort order; revert to noteCrt
+            keys.add(new SortKey("n.id", false));
+            keys.add(new SortKey("c.ord", false));
+        }
+        keys.add(new SortKey("c.id", false));
+        return keys;
+    }
+
+
+    /**
+     * Not in libanki. An SQL expression giving the rank, by name, of the deck or model whose id is COLUMN among
+     * OBJECTS, as deck and model names aren't in a table. The ranks are written to the temporary table TABLE, which
+     * is only filled again once the decks or models changed, and looked up by id; ids missing from it rank last.
+     */
+    private String _nameRank(String table, String column, List<JSONObject> objects) {
+        QueryCache cache = mCol.getQueryCache();
+        cache._check(mCol);
+        if (!cache._ranked(table)) {
+            List<JSONObject> sorted = new ArrayList<>(objects);
+            Collections.sort(sorted, new Comparator<JSONObject>() {
+                @Override
+                public int compare(JSONObject lhs, JSONObject rhs) {
+                    return lhs.optString("name").compareToIgnoreCase(rhs.optString("name"));
                 }
-            } else if (type.startsWith("card")) {
-                if (type.startsWith("cardMod")) {
-                    sort = "c.mod";
-                } else if (type.startsWith("cardReps")) {
-                    sort = "c.reps";
-                } else if (type.startsWith("cardDue")) {
-                    sort = "c.type, c.due";
-                } else if (type.startsWith("cardEase")) {
-                    sort = "c.factor";
-                } else if (type.startsWith("cardLapses")) {
-                    sort = "c.lapses";
-                } else if (type.startsWith("cardIvl")) {
-                    sort = "c.ivl";
+            });
+            // written directly, as the table isn't part of the collection's contents
+            SQLiteDatabase db = mCol.getDb().getDatabase();
+            db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + table
+                    + " (id INTEGER PRIMARY KEY, rank INTEGER NOT NULL)");
+            db.beginTransaction();
+            try {
+                db.execSQL("DELETE FROM temp." + table);
+                SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO temp." + table + " VALUES (?,?)");
+                for (int i = 0; i < sorted.size(); i++) {
+                    insert.bindLong(1, sorted.get(i).optLong("id"));
+                    insert.bindLong(2, i);
+                    insert.executeInsert();
                 }
+                insert.close();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            cache._setRanked(table);
+        }
+        mRanked = true;
+        return "ifnull((select rank from temp." + table + " where id = " + column + "), " + objects.size() + ")";
+    }
+
+
+    /** Not in libanki. The ORDER BY list for KEYS, descending if DESC is set. */
+    private static String _orderBy(List<SortKey> keys, boolean desc) {
+        StringBuilder sb = new StringBuilder();
+        for (SortKey key : keys) {
+            if (sb.length() != 0) {
+                sb.append(", ");
             }
-            if (sort == null) {
-            	// deck has invalid sort order; revert to noteCrt
-            	sort = "n.id, c.ord";
+            sb.append(key.mExpr).append(desc ? " DESC" : "");
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Not in libanki. An SQL condition that a card comes after the one whose sort keys KEYS have the values LAST, as
+     * SQL literals, in the order of KEYS, descending if DESC is set: that it is after it on the first key that differs.
+     */
+    private static String _after(List<SortKey> keys, boolean desc, String[] last) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < keys.size(); i++) {
+            sb.append(i == 0 ? "(" : " or (");
+            for (int j = 0; j < i; j++) {
+                sb.append(keys.get(j).mExpr).append(" = ").append(last[j]).append(" and ");
             }
-            boolean sortBackwards = mCol.getConf().getBoolean("sortBackwards");
-            return new Pair<>(" ORDER BY " + sort, sortBackwards);
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+            sb.append(keys.get(i).mExpr).append(desc ? " < " : " > ").append(last[i]).append(")");
         }
+        return sb.append(")").toString();
     }
 
 
@@ -435,15 +786,16 @@ public class Finder {
         if (val.equals("none")) {
             return "n.tags = \"\"";
         }
+        // Not in libanki: look the tag up in the tag index instead of matching the tags string of every note. A
+        // wildcard matches within one tag, as "% tag %" does in libanki short of spanning tags.
+        mCol.getTags().getIndex().load();
         val = val.replace("*", "%");
-        if (!val.startsWith("%")) {
-            val = "% " + val;
-        }
-        if (!val.endsWith("%")) {
-            val += " %";
-        }
         args.add(val);
-        return "n.tags like ?";
+        if (val.contains("%") || val.contains("_")) {
+            return "n.id in (select nid from " + TagIndex.TABLE + " where tag like ?)";
+        } else {
+            return "n.id in (select nid from " + TagIndex.TABLE + " where tag = ?)";
+        }
     }
 
 
@@ -547,10 +899,18 @@ public class Finder {
 
 
     private String _findText(String val, List<String> args) {
+        // Not in libanki: when there is a full-text index that can answer the search, only the notes it finds, which
+        // include all those LIKE finds, are matched with LIKE
+        String match = mCol.getFullTextIndex().match(val);
+        String nids = "";
+        if (match != null) {
+            args.add(match);
+            nids = "n.id in (select docid from " + FullTextIndex.TABLE + " where flds match ?) and ";
+        }
         val = val.replace("*", "%");
         args.add("%" + val + "%");
         args.add("%" + val + "%");
-        return "(n.sfld like ? escape '\\' or n.flds like ? escape '\\')";
+        return "(" + nids + "(n.sfld like ? escape '\\' or n.flds like ? escape '\\'))";
     }
 
 
@@ -708,14 +1068,14 @@ public class Finder {
         Pattern pattern = Pattern.compile("\\Q" + javaVal + "\\E", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
         // find models that have that field
-        Map<Long, Object[]> mods = new HashMap<>();
+        Map<Long, Integer> mods = new HashMap<>();
         try {
             for (JSONObject m : mCol.getModels().all()) {
                 JSONArray flds = m.getJSONArray("flds");
                 for (int fi = 0; fi < flds.length(); ++fi) {
                     JSONObject f = flds.getJSONObject(fi);
                     if (f.getString("name").equalsIgnoreCase(field)) {
-                        mods.put(m.getLong("id"), new Object[] { m, f.getInt("ord") });
+                        mods.put(m.getLong("id"), f.getInt("ord"));
                     }
                 }
             }
@@ -726,64 +1086,30 @@ public class Finder {
             // nothing has that field
             return null;
         }
-        LinkedList<Long> nids = new LinkedList<>();
-        Cursor cur = null;
-        try {
-            /*
-             * Here we use the sqlVal expression, that is required for LIKE syntax in sqllite.
-             * There is no problem with special characters, because only % and _ are special
-             * characters in this syntax.
-             */
-            cur = mCol.getDb().getDatabase().rawQuery(
-                    "select id, mid, flds from notes where mid in " +
-                            Utils.ids2str(new LinkedList<>(mods.keySet())) +
-                            " and flds like ? escape '\\'", new String[] { "%" + sqlVal + "%" });
-
-            while (cur.moveToNext()) {
-                String[] flds = Utils.splitFields(cur.getString(2));
-                int ord = (Integer)mods.get(cur.getLong(1))[1];
-                String strg = flds[ord];
-                if (pattern.matcher(strg).matches()) {
-                    nids.add(cur.getLong(0));
-                }
-            }
-        } finally {
-            if (cur != null) {
-                cur.close();
-            }
-        }
-        if (nids.isEmpty()) {
-            return "0";
-        }
-        return "n.id in " + Utils.ids2str(nids);
+        /*
+         * Here we use the sqlVal expression, that is required for LIKE syntax in sqllite.
+         * There is no problem with special characters, because only % and _ are special
+         * characters in this syntax.
+         * AnkiDroid: the field of the notes found is matched in parallel, see FieldScanner.
+         */
+        FieldScanner scanner = mCol.getFieldScanner();
+        return scanner.idsClause("n.id", scanner.scan(mods, pattern, "%" + sqlVal + "%"), mStored);
     }
 
 
     private String _findDupes(String val) {
         // caller must call stripHTMLMedia on passed val
-        String[] split = val.split(",", 1);
+        String[] split = val.split(",", 2);
         if (split.length != 2) {
             return null;
         }
-        String mid = split[0];
-        val = split[1];
-        String csum = Long.toString(Utils.fieldChecksum(val));
-        List<Long> nids = new ArrayList<>();
-        Cursor cur = null;
+        long mid;
         try {
-            cur = mCol.getDb().getDatabase().rawQuery(
-                    "select id, flds from notes where mid=? and csum=?",
-                    new String[] { mid, csum });
-            long nid = cur.getLong(0);
-            String flds = cur.getString(1);
-            if (Utils.stripHTMLMedia(Utils.splitFields(flds)[0]).equals(val)) {
-                nids.add(nid);
-            }
-        } finally {
-            if (cur != null) {
-                cur.close();
-            }
+            mid = Long.parseLong(split[0]);
+        } catch (NumberFormatException e) {
+            return null;
         }
+        List<Long> nids = new DupeFinder(mCol).firstFieldDupes(mid, split[1], 0);
         return "n.id in " +  Utils.ids2str(nids);
     }
 
@@ -822,6 +1148,22 @@ public class Finder {
 
     public static int findReplace(Collection col, List<Long> nids, String src, String dst, boolean isRegex,
             String field, boolean fold) {
+        return findReplace(col, nids, src, dst, isRegex, field, fold, null);
+    }
+
+
+    /**
+     * Not in libanki. As findReplace(COL, NIDS, SRC, DST, ISREGEX, FIELD, FOLD), reporting the progress as a
+     * percentage to PROGRESS.
+     *
+     * The notes are read, changed and saved a batch at a time, so that only one batch is held in memory, with the
+     * replacements of a batch made in parallel. Everything is done in one transaction; if the task of PROGRESS is
+     * cancelled, it is rolled back and the notes are left as they were.
+     *
+     * @return The number of notes changed, or -1 if cancelled.
+     */
+    public static int findReplace(Collection col, List<Long> nids, String src, String dst, boolean isRegex,
+            String field, boolean fold, DeckTask.ProgressCallback progress) {
         Map<Long, Integer> mmap = new HashMap<>();
         if (field != null) {
             try {
@@ -850,49 +1192,115 @@ public class Finder {
         }
         Pattern regex = Pattern.compile(src);
 
-        ArrayList<Object[]> d = new ArrayList<>();
-        String snids = Utils.ids2str(nids);
-        nids = new ArrayList<>();
+        int changed = 0;
+        col.getDb().beginTransaction();
+        try {
+            for (int start = 0; start < nids.size(); start += REPLACE_BATCH) {
+                if (progress != null && progress.isCancelled()) {
+                    Timber.i("findReplace() cancelled");
+                    return -1;
+                }
+                List<Long> batch = nids.subList(start, Math.min(start + REPLACE_BATCH, nids.size()));
+                changed += _findReplaceBatch(col, batch, regex, dst, field != null ? mmap : null);
+                if (progress != null) {
+                    progress.publishProgress(new DeckTask.TaskData(
+                            (int) ((long) Math.min(start + REPLACE_BATCH, nids.size()) * 100 / nids.size())));
+                }
+            }
+            col.getDb().setTransactionSuccessful();
+        } finally {
+            col.getDb().endTransaction();
+        }
+        return changed;
+    }
+
+
+    /**
+     * Not in libanki. Replace REGEX by DST in the notes NIDS: in the field of MMAP, by model id, or in all fields if
+     * MMAP is null. The replacements are split between the threads of the search pool.
+     * @return The number of notes changed.
+     */
+    private static int _findReplaceBatch(Collection col, List<Long> nids, final Pattern regex, final String dst,
+            final Map<Long, Integer> mmap) {
+        final List<Long> ids = new ArrayList<>();
+        final List<Long> mids = new ArrayList<>();
+        final List<String> flds = new ArrayList<>();
         Cursor cur = null;
         try {
             cur = col.getDb().getDatabase().rawQuery(
-                    "select id, mid, flds from notes where id in " + snids, null);
+                    "select id, mid, flds from notes where id in " + Utils.ids2str(nids), null);
             while (cur.moveToNext()) {
-                String flds = cur.getString(2);
-                String origFlds = flds;
-                // does it match?
-                String[] sflds = Utils.splitFields(flds);
-                if (field != null) {
-                    long mid = cur.getLong(1);
-                    if (!mmap.containsKey(mid)) {
-                        // note doesn't have that field
-                        continue;
-                    }
-                    int ord = mmap.get(mid);
-                    sflds[ord] = regex.matcher(sflds[ord]).replaceAll(dst);
-                } else {
-                    for (int i = 0; i < sflds.length; ++i) {
-                        sflds[i] = regex.matcher(sflds[i]).replaceAll(dst);
-                    }
-                }
-                flds = Utils.joinFields(sflds);
-                if (!flds.equals(origFlds)) {
-                    long nid = cur.getLong(0);
-                    nids.add(nid);
-                    d.add(new Object[] { flds, Utils.intNow(), col.usn(), nid }); // order based on query below
-                }
+                ids.add(cur.getLong(0));
+                mids.add(cur.getLong(1));
+                flds.add(cur.getString(2));
             }
         } finally {
             if (cur != null) {
                 cur.close();
             }
         }
+        final int size = ids.size();
+        int parts = Math.min(FieldScanner.THREADS, Math.max(1, size / 50));
+        List<Future<String[]>> futures = new ArrayList<>();
+        for (int p = 0; p < parts; p++) {
+            final int from = size * p / parts;
+            final int to = size * (p + 1) / parts;
+            futures.add(FieldScanner.getPool().submit(new Callable<String[]>() {
+                @Override
+                public String[] call() {
+                    // the new fields of each note, or null if unchanged
+                    String[] res = new String[to - from];
+                    for (int n = from; n < to; n++) {
+                        // does it match?
+                        String[] sflds = Utils.splitFields(flds.get(n));
+                        if (mmap != null) {
+                            if (!mmap.containsKey(mids.get(n))) {
+                                // note doesn't have that field
+                                continue;
+                            }
+                            int ord = mmap.get(mids.get(n));
+                            sflds[ord] = regex.matcher(sflds[ord]).replaceAll(dst);
+                        } else {
+                            for (int i = 0; i < sflds.length; ++i) {
+                                sflds[i] = regex.matcher(sflds[i]).replaceAll(dst);
+                            }
+                        }
+                        String joined = Utils.joinFields(sflds);
+                        if (!joined.equals(flds.get(n))) {
+                            res[n - from] = joined;
+                        }
+                    }
+                    return res;
+                }
+            }));
+        }
+        ArrayList<Object[]> d = new ArrayList<>();
+        List<Long> changed = new ArrayList<>();
+        for (int p = 0; p < parts; p++) {
+            String[] res;
+            try {
+                res = futures.get(p).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            int from = size * p / parts;
+            for (int i = 0; i < res.length; i++) {
+                if (res[i] != null) {
+                    long nid = ids.get(from + i);
+                    changed.add(nid);
+                    d.add(new Object[] { res[i], Utils.intNow(), col.usn(), nid }); // order based on query below
+                }
+            }
+        }
         if (d.isEmpty()) {
             return 0;
         }
         // replace
         col.getDb().executeMany("update notes set flds=?,mod=?,usn=? where id=?", d);
-        long[] pnids = Utils.toPrimitive(nids);
+        long[] pnids = Utils.toPrimitive(changed);
         col.updateFieldCache(pnids);
         col.genCards(pnids);
         return d.size();
@@ -961,47 +1369,17 @@ public class Finder {
      * @return List of Pair("dupestr", List[nids])
      */
     public static List<Pair<String, List<Long>>> findDupes(Collection col, String fieldName, String search) {
-        // limit search to notes with applicable field name
-    	if (!TextUtils.isEmpty(search)) {
-            search = "(" + search + ") ";
-    	}
-        search += "'" + fieldName + ":*'";
-        // go through notes
-        Map<String, List<Long>> vals = new HashMap<>();
-        List<Pair<String, List<Long>>> dupes = new ArrayList<>();
-        Map<Long, Integer> fields = new HashMap<>();
-        Cursor cur = null;
-        try {
-            cur = col.getDb().getDatabase().rawQuery(
-                    "select id, mid, flds from notes where id in " + Utils.ids2str(col.findNotes(search)), null);
-            while (cur.moveToNext()) {
-                long nid = cur.getLong(0);
-                long mid = cur.getLong(1);
-                String[] flds = Utils.splitFields(cur.getString(2));
-                Integer ord = ordForMid(col, fields, mid, fieldName);
-                if (ord == null) {
-                    continue;
-                }
-                String val = flds[fields.get(mid)];
-                val = Utils.stripHTMLMedia(val);
-                // empty does not count as duplicate
-                if (TextUtils.isEmpty(val)) {
-                    continue;
-                }
-                if (!vals.containsKey(val)) {
-                    vals.put(val, new ArrayList<Long>());
-                }
-                vals.get(val).add(nid);
-                if (vals.get(val).size() == 2) {
-                    dupes.add(new Pair<>(val, vals.get(val)));
-                }
-            }
-        } finally {
-            if (cur != null) {
-                cur.close();
-            }
-        }
-        return dupes;
+        return findDupes(col, fieldName, search, null);
+    }
+
+
+    /**
+     * Not in libanki. As findDupes(COL, FIELDNAME, SEARCH), also passing each group of duplicates to LISTENER as soon
+     * as it is found. See DupeFinder.
+     */
+    public static List<Pair<String, List<Long>>> findDupes(Collection col, String fieldName, String search,
+            DupeFinder.Listener listener) {
+        return new DupeFinder(col).find(fieldName, search, listener);
     }
 
     /*
@@ -1010,32 +1388,150 @@ public class Finder {
      * ***********************************************************
      */
 
-    public List<Map<String, String>> findCardsForCardBrowser(String query, boolean _order, Map<String, String> deckNames) {
-        return _findCardsForCardBrowser(query, _order, deckNames);
+    /**
+     * Free the ids that searches on a field wrote to FieldScanner's table for the statement last built, and let go of
+     * the connection kept by _hold(). Called once the statement has run.
+     */
+    public void release() {
+        mCol.getFieldScanner().free(mStored);
+        mRanked = false;
+        if (mHeld) {
+            mHeld = false;
+            // only temporary rows were written
+            mCol.getDb().setTransactionSuccessful();
+            mCol.getDb().endTransaction();
+        }
     }
 
 
-    public List<Map<String, String>> findCardsForCardBrowser(String query, String _order, Map<String, String> deckNames) {
-        return _findCardsForCardBrowser(query, _order, deckNames);
+    /**
+     * Not in libanki. Keep this thread on the connection that holds the temporary rows the statement reads, ids or
+     * ranks, until release(). In write-behind mode SQLite has several connections, and a query outside a transaction
+     * can run on any of them, while temporary tables only exist on the one that writes to the collection.
+     */
+    private void _hold() {
+        if (mHeld || (mStored.isEmpty() && !mRanked) || !mCol.getWriteBehind()) {
+            return;
+        }
+        mCol.getDb().beginTransaction();
+        mHeld = true;
     }
 
+    /**
+     * The SQL that findCards(QUERY, ORDER) runs, so that callers can use the matching card ids in a statement of
+     * their own instead of reading them back first. The statement selects c.id and must be run with the returned
+     * arguments, and release() called once it has run.
+     * @return The statement and its arguments, or null if the search is invalid.
+     */
+    public Pair<String, String[]> findCardsQuery(String query, String order) {
+        Pair<String, String[]> res1 = _compile(query);
+        if (res1.first == null) {
+            release();
+            return null;
+        }
+        return new Pair<>(_query(res1.first, _order(order).first), res1.second);
+    }
 
-    /** Return a list of card ids for QUERY */
-    private List<Map<String, String>> _findCardsForCardBrowser(String query, Object _order, Map<String, String> deckNames) {
-        String[] tokens = _tokenize(query);
-        Pair<String, String[]> res1 = _where(tokens);
+
+    public BrowserResults findCardsForCardBrowser(String query, boolean _order, Map<String, String> deckNames) {
+        return _findCardsForCardBrowser(query, _order, deckNames, null, null, 0);
+    }
+
+
+    public BrowserResults findCardsForCardBrowser(String query, String _order, Map<String, String> deckNames) {
+        return _findCardsForCardBrowser(query, _order, deckNames, null, null, 0);
+    }
+
+
+    /**
+     * As findCardsForCardBrowser(QUERY, ORDER, DECKNAMES), but if QUERY only narrows down the search of PREVIOUS, the
+     * results of a search for the previous query, and nothing changed since, only the cards of PREVIOUS are checked.
+     */
+    public BrowserResults findCardsForCardBrowser(String query, boolean _order, Map<String, String> deckNames,
+            BrowserResults previous) {
+        return _findCardsForCardBrowser(query, _order, deckNames, previous, null, 0);
+    }
+
+
+    /**
+     * As findCardsForCardBrowser(QUERY, ORDER, DECKNAMES, PREVIOUS), but only the first LIMIT cards are read. If there
+     * are more, the results tell how many, and findCardsPageForCardBrowser() finds the next ones.
+     */
+    public BrowserResults findCardsForCardBrowser(String query, boolean _order, Map<String, String> deckNames,
+            BrowserResults previous, int limit) {
+        return _findCardsForCardBrowser(query, _order, deckNames, previous, null, limit);
+    }
+
+
+    /**
+     * The next LIMIT cards of the search that found RESULTS, in the same order, to be added to them with
+     * BrowserResults.append().
+     *
+     * The page starts where the cards found so far end, using the sort keys of the last one in the WHERE clause,
+     * rather than at an offset: SQLite only keeps the LIMIT first cards after it while sorting, and scrolling through
+     * the results never holds the whole sorted list.
+     */
+    public BrowserResults findCardsPageForCardBrowser(BrowserResults results, Map<String, String> deckNames,
+            int limit) {
+        return _findCardsForCardBrowser(results.getQuery(), results.isOrdered(), deckNames, null, results, limit);
+    }
+
+
+    /**
+     * Return the cards for QUERY, with their deck and flags; see BrowserResults for the other columns. If LIMIT isn't
+     * 0, at most LIMIT cards after those of AFTER are read, or the first ones if it's null.
+     */
+    private BrowserResults _findCardsForCardBrowser(String query, Object _order, Map<String, String> deckNames,
+            BrowserResults previous, BrowserResults after, int limit) {
+        Pair<String, String[]> res1 = _compile(query);
         String preds = res1.first;
         String[] args = res1.second;
-        List<Map<String, String>> res = new ArrayList<>();
-        if (preds == null) {
+        BrowserResults res = new BrowserResults();
+        String[] last = after == null ? null : after.getLast();
+        if (preds == null || (after != null && last == null)) {
+            release();
             return res;
         }
-        Pair<String, Boolean> res2 = _order instanceof Boolean ? _order((Boolean) _order) : _order((String) _order);
-        String order = res2.first;
-        boolean rev = res2.second;
-        String sql = _queryForCardBrowser(preds, order);
+        long[] stamp = _stamp();
+        if (after == null && _refines(previous, query, stamp)) {
+            Timber.d("_findCardsForCardBrowser() refining %d cards", previous.size());
+            // a large result is joined on through FieldScanner's table rather than spelled out
+            String ids = mCol.getFieldScanner().idsClause("c.id", previous.ids(), mStored);
+            preds = TextUtils.isEmpty(preds) ? ids : "(" + preds + ") and " + ids;
+        }
+        res.mQuery = query;
+        res.mStamp = stamp;
+        res.mAfter = last;
+        String order;
+        boolean rev = false;
+        // the keys of a page, which say where the next one starts
+        List<SortKey> keys = null;
+        boolean desc = false;
+        if (_order instanceof Boolean) {
+            res.mOrdered = (Boolean) _order;
+            if (res.mOrdered) {
+                try {
+                    keys = _sortKeys(mCol.getConf().getString("sortType"));
+                    desc = mCol.getConf().getBoolean("sortBackwards");
+                } catch (JSONException e) {
+                    throw new RuntimeException(e);
+                }
+            } else if (limit > 0) {
+                keys = Collections.singletonList(new SortKey("c.id", false));
+            }
+            order = keys == null ? "" : " ORDER BY " + _orderBy(keys, desc);
+        } else {
+            Pair<String, Boolean> res2 = _order((String) _order);
+            order = res2.first;
+            rev = res2.second;
+            // a custom order can't be paged
+            limit = 0;
+        }
+        String sql = _queryForCardBrowser(last == null ? preds : _and(preds, _after(keys, desc, last)), keys, order,
+                limit);
         Cursor cur = null;
         try {
+            _hold();
             cur = mCol.getDb().getDatabase().rawQuery(sql, args);
             DeckTask task = DeckTask.getInstance();
             while (cur.moveToNext()) {
@@ -1043,40 +1539,113 @@ public class Finder {
                 if (task.isCancelled()){
                     Timber.i("_findCardsForCardBrowser() cancelled...");
                     return null;
-                }                
-                Map<String, String> map = new HashMap<>();
-                map.put("id", cur.getString(0));
-                map.put("sfld", cur.getString(1));
-                map.put("deck", deckNames.get(cur.getString(2)));
-                int queue = cur.getInt(3);
-                String tags = cur.getString(4);
-                map.put("flags", Integer.toString((queue == -1 ? 1 : 0) + (tags.matches(".*[Mm]arked.*") ? 2 : 0)));
-                map.put("tags", tags);
-                res.add(map);
-                // add placeholder for question and answer
-                map.put("question", "");
-                map.put("answer", "");
+                }
+                int flags = (cur.getInt(2) == -1 ? BrowserResults.FLAG_SUSPENDED : 0)
+                        + (cur.getInt(3) != 0 ? BrowserResults.FLAG_MARKED : 0);
+                res.add(cur.getLong(0), deckNames.get(cur.getString(1)), flags);
+                if (res.size() == limit) {
+                    // a full page: there may be more cards after this one
+                    res.mLast = new String[keys.size()];
+                    for (int i = 0; i < keys.size(); i++) {
+                        res.mLast[i] = keys.get(i).mText
+                                ? "'" + cur.getString(i + 4).replace("'", "''") + "'"
+                                : Long.toString(cur.getLong(i + 4));
+                    }
+                }
+            }
+            res.mTotal = res.size();
+            if (res.mLast != null && after == null) {
+                res.mTotal = mCol.getDb().queryScalar("select count() from cards c, notes n where c.nid=n.id and "
+                        + (TextUtils.isEmpty(preds) ? "1" : "(" + preds + ")"), args);
             }
         } catch (SQLException e) {
             // invalid grouping
             Timber.e("Invalid grouping, sql: " + sql);
-            return new ArrayList<>();
+            return new BrowserResults();
         } finally {
             if (cur != null) {
                 cur.close();
             }
+            release();
         }
         if (rev) {
-            Collections.reverse(res);
+            res.reverse();
         }
         return res;
     }
-    
+
+
+    /** Not in libanki. The condition that both PREDS, which may be empty, and CONDITION hold. */
+    private static String _and(String preds, String condition) {
+        return TextUtils.isEmpty(preds) ? condition : "(" + preds + ") and " + condition;
+    }
+
     /**
-     * A copy of _query() with a custom SQL query specific to the AnkiDroid card browser.
+     * Not in libanki. What the results of a search depend on besides the search itself: the database, as its counters
+     * start again when it's reopened, the cards and notes, the decks and models the names in it resolve to, the
+     * selected deck and the day.
      */
-    private String _queryForCardBrowser(String preds, String order) {
-        String sql = "select c.id, n.sfld, c.did, c.queue, n.tags from cards c, notes n where c.nid=n.id and ";
+    private long[] _stamp() {
+        return new long[] { mCol.getDb().getGeneration(), mCol.getDb().getCardsMod(),
+                mCol.getDb().getNotesMod(), mCol.getDecks().getSaveCount(), mCol.getModels().getSaveCount(),
+                mCol.getDecks().selected(), mCol.getSched().getDayCutoff() };
+    }
+
+
+    /**
+     * Not in libanki. Whether every card that QUERY finds is among the results PREVIOUS, so that only those need to be
+     * checked. That holds if nothing changed since PREVIOUS was searched for (STAMP), and QUERY is its query with more
+     * terms added at the end, or with its last term a word that was typed further, and PREVIOUS holds every card its
+     * search found rather than a first page. Searches with "or" or groups are never refined.
+     */
+    private boolean _refines(BrowserResults previous, String query, long[] stamp) {
+        if (previous == null || previous.mQuery == null || !Arrays.equals(previous.mStamp, stamp)
+                || previous.mQuery.equals(query) || previous.hasMore()) {
+            return false;
+        }
+        String[] before = _tokenize(previous.mQuery);
+        String[] after = _tokenize(query);
+        if (before.length == 0 || after.length < before.length || _grouped(before) || _grouped(after)) {
+            return false;
+        }
+        int last = before.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (!before[i].equals(after[i])) {
+                return false;
+            }
+        }
+        if (before[last].equals(after[last])) {
+            return true;
+        }
+        // a text search for a longer word matches a subset of the notes
+        return !before[last].contains(":") && !before[last].equals("-") && (last == 0 || !before[last - 1].equals("-"))
+                && after[last].startsWith(before[last]);
+    }
+
+
+    private static boolean _grouped(String[] tokens) {
+        for (String token : tokens) {
+            if (token.equalsIgnoreCase("or") || token.equals("(") || token.equals(")")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * A copy of _query() with a custom SQL query specific to the AnkiDroid card browser. The sort field and tags are
+     * read later, for the rows shown only. If LIMIT isn't 0, only that many cards are selected, followed by the values
+     * of their sort KEYS.
+     */
+    private String _queryForCardBrowser(String preds, List<SortKey> keys, String order, int limit) {
+        String sql = "select c.id, c.did, c.queue, n.tags like '% marked %'";
+        if (limit > 0) {
+            for (SortKey key : keys) {
+                sql += ", " + key.mExpr;
+            }
+        }
+        sql += " from cards c, notes n where c.nid=n.id and ";
         // combine with preds
         if (!TextUtils.isEmpty(preds)) {
             sql += "(" + preds + ")";
@@ -1087,6 +1656,9 @@ public class Finder {
         if (!TextUtils.isEmpty(order)) {
             sql += " " + order;
         }
+        if (limit > 0) {
+            sql += " limit " + limit;
+        }
         return sql;
     }
 }
@@ -0,0 +1,210 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Not in libanki. An optional full-text index of the notes' fields, so that plain text searches on large collections
+ * don't scan every note.
+ *
+ * The index is the notes_fts table, an FTS3 table keyed by note id, which desktop Anki and the sync protocol ignore.
+ * It's built by Check Database when wanted, and dropped when the collection is opened without wanting it. While the
+ * table exists, every write of note fields updates it: Note.flush(), note removal and updateFieldCache(), which sync
+ * merges, imports, find and replace and note type changes all call after writing fields in bulk. An index that may
+ * have missed writes made outside AnkiDroid, or that came with a file from a full sync or an import, is dropped by
+ * {@link LocalTables} when the collection is opened, as searches that it narrowed would miss the notes written.
+ *
+ * The simple tokenizer splits text on everything but ASCII letters and digits (and non-ASCII characters), and a MATCH
+ * can only find the start of a word. A search finds text anywhere in the fields, markup included, so every word of
+ * the fields, as written and stripped of HTML and media, is indexed along with each of its endings: "hello" also as
+ * "ello", "llo", "lo" and "o". Any plain term found by LIKE is then the start of an indexed word, and the index finds
+ * at least the notes LIKE does. Words too long for that are indexed with OVERFLOW, which every search matches. The
+ * caller still applies LIKE to what the index finds, so the results are exactly those of LIKE; see
+ * {@link #match(String)}.
+ */
+public class FullTextIndex {
+
+    public static final String TABLE = "notes_fts";
+
+    /** The search terms the index can answer: ASCII letters and digits, optionally followed by a wildcard. */
+    private static final Pattern fTermPattern = Pattern.compile("[A-Za-z0-9]+\\*?");
+    /** The longest word indexed with its endings. */
+    private static final int MAX_SUFFIXED = 32;
+    /** Indexed in place of the endings of longer words, and matched by every search. */
+    private static final String OVERFLOW = "0overflow0";
+
+    private Collection mCol;
+    private boolean mWanted = false;
+    /** The database the presence of the table was last checked in, see isPresent(). */
+    private DB mCheckedDb;
+    private boolean mPresent;
+
+
+    FullTextIndex(Collection col) {
+        mCol = col;
+    }
+
+
+    /**
+     * Whether the index should be kept. If not, an existing index is dropped; if so, the next Check Database builds
+     * it.
+     */
+    public void setWanted(boolean wanted) {
+        mWanted = wanted;
+        if (!wanted && isPresent()) {
+            drop();
+        }
+    }
+
+
+    public boolean isWanted() {
+        return mWanted;
+    }
+
+
+    /** Whether the index exists, and so is maintained and used for searching. */
+    public boolean isPresent() {
+        // a full sync or a reopen replaces the database under us
+        if (mCheckedDb != mCol.getDb()) {
+            mCheckedDb = mCol.getDb();
+            mPresent = mCheckedDb.queryScalar(
+                    "SELECT count() FROM sqlite_master WHERE type = 'table' AND name = '" + TABLE + "'") > 0;
+        }
+        return mPresent;
+    }
+
+
+    /** Create the index, or empty it, and fill it from all notes. */
+    public void build() {
+        drop();
+        mCol.getDb().execute("CREATE VIRTUAL TABLE " + TABLE + " USING fts3(flds)");
+        mPresent = true;
+        // plain searches compiled without the index can now use it
+        mCol.getQueryCache().clear();
+        List<Object[]> rows = new ArrayList<>();
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery("SELECT id, flds FROM notes", null);
+            while (cur.moveToNext()) {
+                rows.add(new Object[] { cur.getLong(0), _text(Utils.splitFields(cur.getString(1))) });
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        mCol.getDb().executeMany("INSERT INTO " + TABLE + " (docid, flds) VALUES (?,?)", rows);
+    }
+
+
+    public void drop() {
+        mCol.getDb().execute("DROP TABLE IF EXISTS " + TABLE);
+        mCheckedDb = mCol.getDb();
+        mPresent = false;
+        mCol.getQueryCache().clear();
+    }
+
+
+    /** Index the FIELDS of note NID, replacing what was indexed for it before. */
+    public void put(long nid, String[] fields) {
+        if (!isPresent()) {
+            return;
+        }
+        mCol.getDb().execute("DELETE FROM " + TABLE + " WHERE docid = " + nid);
+        mCol.getDb().execute("INSERT INTO " + TABLE + " (docid, flds) VALUES (?,?)",
+                new Object[] { nid, _text(fields) });
+    }
+
+
+    /** Index the notes of ROWS, each a note id and its split fields. */
+    public void putAll(List<Object[]> rows) {
+        if (!isPresent() || rows.isEmpty()) {
+            return;
+        }
+        List<Object[]> data = new ArrayList<>(rows.size());
+        long[] nids = new long[rows.size()];
+        for (int i = 0; i < nids.length; i++) {
+            Object[] row = rows.get(i);
+            nids[i] = (Long) row[0];
+            data.add(new Object[] { row[0], _text((String[]) row[1]) });
+        }
+        mCol.getDb().execute("DELETE FROM " + TABLE + " WHERE docid IN " + Utils.ids2str(nids));
+        mCol.getDb().executeMany("INSERT INTO " + TABLE + " (docid, flds) VALUES (?,?)", data);
+    }
+
+
+    /** Take the notes of STRIDS, as made by Utils.ids2str(), off the index. */
+    public void remove(String strids) {
+        if (!isPresent()) {
+            return;
+        }
+        mCol.getDb().execute("DELETE FROM " + TABLE + " WHERE docid IN " + strids);
+    }
+
+
+    /**
+     * The argument of a MATCH on the index that finds at least the notes whose fields contain the plain search term
+     * VAL, or null if the index is absent or can't express VAL. Either way the caller must still match the notes with
+     * LIKE.
+     */
+    public String match(String val) {
+        if (!isPresent() || !fTermPattern.matcher(val).matches()) {
+            return null;
+        }
+        if (val.endsWith("*")) {
+            val = val.substring(0, val.length() - 1);
+        }
+        // quoted so that words like OR and NOT aren't taken for operators
+        return "\"" + val + "*\" OR " + OVERFLOW;
+    }
+
+
+    private static String _text(String[] fields) {
+        StringBuilder text = new StringBuilder();
+        for (String field : fields) {
+            _words(field, text);
+            String stripped = Utils.stripHTMLMedia(field);
+            // stripping can join text that markup separated
+            if (!stripped.equals(field)) {
+                _words(stripped, text);
+            }
+        }
+        return text.toString();
+    }
+
+
+    /** Append the words of TEXT, as the simple tokenizer splits them, each with its endings, to OUT. */
+    private static void _words(String text, StringBuilder out) {
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            if (!_isWordChar(text.charAt(start))) {
+                start++;
+                continue;
+            }
+            int end = start + 1;
+            while (end < length && _isWordChar(text.charAt(end))) {
+                end++;
+            }
+            if (end - start > MAX_SUFFIXED) {
+                out.append(text, start, end).append(' ').append(OVERFLOW).append(' ');
+            } else {
+                // a term is ASCII, so only the endings starting with an ASCII character can be found
+                for (int i = start; i < end; i++) {
+                    if (text.charAt(i) < 128) {
+                        out.append(text, i, end).append(' ');
+                    }
+                }
+            }
+            start = end;
+        }
+    }
+
+
+    private static boolean _isWordChar(char c) {
+        return c >= 128 || (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+}
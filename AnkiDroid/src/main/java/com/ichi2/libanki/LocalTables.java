@@ -0,0 +1,64 @@
+package com.ichi2.libanki;
+
+import timber.log.Timber;
+
+/**
+ * Not in libanki. Keeps the tables AnkiDroid adds to the collection file for its own use, which desktop Anki and the
+ * sync protocol ignore, in step with the rest of the collection. They are all derived from the collection, and
+ * rebuilt from it when they are next needed after being invalidated:
+ * <ul>
+ * <li>note_tags, the {@link TagIndex}</li>
+ * <li>revlog_stats, the answer totals of {@link ReviewStats}</li>
+ * <li>notes_fts, the {@link FullTextIndex}, which is only built by Check Database and so is dropped instead</li>
+ * </ul>
+ *
+ * Only AnkiDroid keeps them up to date. Anything else that writes the file leaves them behind: desktop Anki opening
+ * it, or a full sync download or a collection package import replacing it with a file whose tables were last updated
+ * on another device, if ever. So whenever AnkiDroid flushes the collection, the mod time it writes is recorded in the
+ * local_tables table as the one the tables are current for. When the collection is opened, any other mod time means
+ * that something else changed it, as every client sets the mod time when it saves, and all the tables are invalidated.
+ */
+public class LocalTables {
+
+    public static final String TABLE = "local_tables";
+
+    private Collection mCol;
+
+
+    LocalTables(Collection col) {
+        mCol = col;
+    }
+
+
+    /** Invalidate the tables unless they are current for the collection as it is; called when it's opened. */
+    public void check() {
+        DB db = mCol.getDb();
+        long mod = db.queryLongScalar("SELECT mod FROM col");
+        if (db.queryScalar("SELECT count() FROM sqlite_master WHERE type = 'table' AND name = '" + TABLE + "'") > 0
+                && db.queryLongScalar("SELECT mod FROM " + TABLE) == mod) {
+            return;
+        }
+        Timber.i("Collection changed outside AnkiDroid, invalidating its local tables");
+        // this doesn't change anything that needs saving or syncing
+        boolean dbMod = db.getMod();
+        invalidate();
+        stamp(mod);
+        db.setMod(dbMod);
+    }
+
+
+    /** Record that the tables are current for the collection with mod time MOD; called as it's flushed. */
+    public void stamp(long mod) {
+        mCol.getDb().execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (id INTEGER PRIMARY KEY, mod INTEGER NOT NULL)");
+        mCol.getDb().execute("INSERT OR REPLACE INTO " + TABLE + " VALUES (1, " + mod + ")");
+    }
+
+
+    /** Invalidate every table, to be rebuilt from the collection. */
+    public void invalidate() {
+        mCol.getTags().getIndex().invalidate();
+        mCol.getSched().getReviewStats().invalidate();
+        // plain searches are still right without it, only slower
+        mCol.getFullTextIndex().drop();
+    }
+}
@@ -92,6 +92,8 @@ public class Models {
 
     private Collection mCol;
     private boolean mChanged;
+    // Not in libanki: bumped whenever the registry is loaded or saved, see getSaveCount()
+    private long mSaveCount = 0;
     private HashMap<Long, JSONObject> mModels;
 
     // BEGIN SQL table entries
@@ -145,6 +147,7 @@ public class Models {
      */
     public void load(String json) {
         mChanged = false;
+        mSaveCount++;
         mModels = new HashMap<>();
         try {
             JSONObject modelarray = new JSONObject(json);
@@ -195,6 +198,7 @@ public class Models {
                 throw new RuntimeException(e);
             }
         }
+        mSaveCount++;
         mChanged = true;
         // The following hook rebuilds the tree in the Anki Desktop browser -- we don't need it
         // runHook("newModel")
@@ -716,15 +720,19 @@ public class Models {
                 return;
             }
             ArrayList<Object[]> r = new ArrayList<>();
+            // Not in libanki: the notes' new fields, for the full-text index
+            ArrayList<Object[]> indexed = new ArrayList<>();
             Cursor cur = null;
 
             try {
                 cur = mCol.getDb().getDatabase()
                         .rawQuery("select id, flds from notes where mid = " + m.getLong("id"), null);
                 while (cur.moveToNext()) {
+                    String[] flds = fn.transform(Utils.splitFields(cur.getString(1)));
                     r.add(new Object[] {
-                            Utils.joinFields(fn.transform(Utils.splitFields(cur.getString(1)))),
+                            Utils.joinFields(flds),
                             Utils.intNow(), mCol.usn(), cur.getLong(0) });
+                    indexed.add(new Object[] { cur.getLong(0), flds });
                 }
             } finally {
                 if (cur != null) {
@@ -732,6 +740,7 @@ public class Models {
                 }
             }
             mCol.getDb().executeMany("update notes set flds=?,mod=?,usn=? where id = ?", r);
+            mCol.getFullTextIndex().putAll(indexed);
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
@@ -1342,10 +1351,20 @@ public class Models {
      */
 
     public void setChanged() {
+        mSaveCount++;
         mChanged = true;
     }
 
 
+    /**
+     * Not in libanki. A counter bumped by every load() and save(), so that callers holding on to something computed
+     * from the models can tell it may be stale.
+     */
+    public long getSaveCount() {
+        return mSaveCount;
+    }
+
+
     public HashMap<Long, HashMap<Integer, String>> getTemplateNames() {
         HashMap<Long, HashMap<Integer, String>> result = new HashMap<>();
         for (JSONObject m : mModels.values()) {
@@ -143,6 +143,8 @@ public class Note implements Cloneable {
         mMod = mod != null ? mod : Utils.intNow();
         mCol.getDb().execute("insert or replace into notes values (?,?,?,?,?,?,?,?,?,?,?)",
                 new Object[] { mId, mGuId, mMid, mMod, mUsn, tags, fields, sfld, csum, mFlags, mData });
+        mCol.getFullTextIndex().put(mId, mFields);
+        mCol.getTags().getIndex().put(mId, tags);
         mCol.getTags().register(mTags);
         _postFlush();
     }
@@ -278,16 +280,9 @@ public class Note implements Cloneable {
         if (val.trim().length() == 0) {
             return 1;
         }
-        long csum = Utils.fieldChecksum(val);
         // find any matching csums and compare
-        for (String flds : mCol.getDb().queryColumn(
-                String.class,
-                "SELECT flds FROM notes WHERE csum = " + csum + " AND id != " + (mId != 0 ? mId : 0) + " AND mid = "
-                        + mMid, 0)) {
-            if (Utils.stripHTMLMedia(
-                    Utils.splitFields(flds)[0]).equals(Utils.stripHTMLMedia(mFields[0]))) {
-                return 2;
-            }
+        if (!new DupeFinder(mCol).firstFieldDupes(mMid, Utils.stripHTMLMedia(val), mId).isEmpty()) {
+            return 2;
         }
         return null;
     }
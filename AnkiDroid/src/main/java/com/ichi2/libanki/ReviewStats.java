@@ -0,0 +1,267 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import java.util.HashMap;
+
+/**
+ * Not in libanki. Rolling totals of the answers of the last seven days, per deck, from which {@link Sched#eta(int[])}
+ * estimates the time left without scanning the revlog.
+ *
+ * The totals are kept per home deck and day in the revlog_stats table of the collection, which desktop Anki and the
+ * sync protocol ignore. The scheduler adds every answer it logs, undo takes it off again; anything else in AnkiDroid
+ * that writes the revlog (sync, imports, Check Database) calls {@link #invalidate()} and the table is rebuilt from the
+ * revlog the next time it's needed. Changes made outside AnkiDroid, or a file replaced by a full sync download or an
+ * import, are caught by {@link LocalTables} when the collection is opened. In memory, only the sums over the current
+ * window are kept.
+ */
+public class ReviewStats {
+
+    /** Days in the window, today included, as in libanki's eta(). */
+    private static final int WINDOW = 7;
+
+    // Indexes of the totals
+    private static final int REVS = 0;
+    private static final int REV_YES = 1;
+    private static final int REV_TIME = 2;
+    private static final int LRNS = 3;
+    private static final int LRN_YES = 4;
+    private static final int LRN_TIME = 5;
+    private static final int TOTALS = 6;
+
+    /** The did of the row that marks the table as built. */
+    private static final long BUILT = -1;
+
+    private Collection mCol;
+
+    /** The day the sums are for, -1 if they need loading. */
+    private int mToday = -1;
+    /** Sums over the window, by deck. */
+    private final HashMap<Long, long[]> mWindow = new HashMap<>();
+    /** Today's totals, by deck, as stored in the table. */
+    private final HashMap<Long, long[]> mTodayTotals = new HashMap<>();
+
+
+    ReviewStats(Collection col) {
+        mCol = col;
+    }
+
+
+    /** Record an answer logged on day TODAY for a card of deck DID. TYPE and EASE are as in the revlog. */
+    public void add(long did, int today, int type, int ease, int time) {
+        _load(today);
+        long[] day = mTodayTotals.get(did);
+        if (day == null) {
+            day = new long[TOTALS];
+            mTodayTotals.put(did, day);
+        }
+        _count(day, type, ease, time, 1);
+        _count(_window(did), type, ease, time, 1);
+        _store(did, today, day);
+    }
+
+
+    /** Take back an answer logged at revlog id ID, which {@link #add} recorded for deck DID. */
+    public void remove(long did, long id, int type, int ease, int time) {
+        int day = (int) ((id / 1000 - mCol.getCrt()) / 86400);
+        if (mToday == -1 || day <= mToday - WINDOW) {
+            // not loaded, or out of the window anyway
+            return;
+        }
+        _count(_window(did), type, ease, time, -1);
+        long[] totals;
+        if (day == mToday) {
+            totals = mTodayTotals.get(did);
+        } else {
+            totals = _read(did, day);
+        }
+        if (totals != null) {
+            _count(totals, type, ease, time, -1);
+            _store(did, day, totals);
+        }
+    }
+
+
+    /** Forget everything; the totals are rebuilt from the revlog when they are next needed. */
+    public void invalidate() {
+        mToday = -1;
+        mWindow.clear();
+        mTodayTotals.clear();
+        _createTable();
+        mCol.getDb().execute("DELETE FROM revlog_stats");
+    }
+
+
+    /**
+     * The answer statistics of the window as in libanki's eta(): review success rate, mean review time, learning
+     * success rate and mean learning time, times in milliseconds.
+     *
+     * @param dids The decks to count, or null for the whole collection.
+     */
+    public double[] rates(int today, Iterable<Long> dids) {
+        _load(today);
+        long[] sum = new long[TOTALS];
+        if (dids == null) {
+            for (long[] totals : mWindow.values()) {
+                _add(sum, totals);
+            }
+        } else {
+            for (long did : dids) {
+                long[] totals = mWindow.get(did);
+                if (totals != null) {
+                    _add(sum, totals);
+                }
+            }
+        }
+        return new double[] {
+                _ratio(sum[REV_YES], sum[REVS]), _ratio(sum[REV_TIME], sum[REVS]),
+                _ratio(sum[LRN_YES], sum[LRNS]), _ratio(sum[LRN_TIME], sum[LRNS]) };
+    }
+
+
+    /** The number of answers in the window for DIDS, or the whole collection if null. */
+    public long answers(int today, Iterable<Long> dids) {
+        _load(today);
+        long answers = 0;
+        if (dids == null) {
+            for (long[] totals : mWindow.values()) {
+                answers += totals[REVS] + totals[LRNS];
+            }
+        } else {
+            for (long did : dids) {
+                long[] totals = mWindow.get(did);
+                if (totals != null) {
+                    answers += totals[REVS] + totals[LRNS];
+                }
+            }
+        }
+        return answers;
+    }
+
+
+    private static void _count(long[] totals, int type, int ease, int time, int sign) {
+        if (type == 1) {
+            totals[REVS] += sign;
+            totals[REV_YES] += ease > 1 ? sign : 0;
+            totals[REV_TIME] += sign * time;
+        } else {
+            totals[LRNS] += sign;
+            totals[LRN_YES] += ease == 3 ? sign : 0;
+            totals[LRN_TIME] += sign * time;
+        }
+    }
+
+
+    private static void _add(long[] sum, long[] totals) {
+        for (int i = 0; i < TOTALS; i++) {
+            sum[i] += totals[i];
+        }
+    }
+
+
+    private static double _ratio(long a, long b) {
+        return b == 0 ? 0 : (double) a / b;
+    }
+
+
+    private long[] _window(long did) {
+        long[] totals = mWindow.get(did);
+        if (totals == null) {
+            totals = new long[TOTALS];
+            mWindow.put(did, totals);
+        }
+        return totals;
+    }
+
+
+    /** Load the sums of the window ending on TODAY, building the table first if needed. */
+    private void _load(int today) {
+        if (today == mToday) {
+            return;
+        }
+        // building and pruning the table doesn't change anything that needs saving or syncing
+        boolean mod = mCol.getDb().getMod();
+        _createTable();
+        if (mCol.getDb().queryScalar("SELECT 1 FROM revlog_stats WHERE did = " + BUILT) == 0) {
+            _build(today);
+        }
+        mWindow.clear();
+        mTodayTotals.clear();
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery(
+                    "SELECT did, day, revs, revYes, revTime, lrns, lrnYes, lrnTime FROM revlog_stats "
+                            + "WHERE did != " + BUILT + " AND day > " + (today - WINDOW), null);
+            while (cur.moveToNext()) {
+                long did = cur.getLong(0);
+                long[] totals = new long[TOTALS];
+                for (int i = 0; i < TOTALS; i++) {
+                    totals[i] = cur.getLong(2 + i);
+                }
+                _add(_window(did), totals);
+                if (cur.getInt(1) == today) {
+                    mTodayTotals.put(did, totals);
+                }
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        // days that dropped out of the window are of no use anymore
+        mCol.getDb().execute("DELETE FROM revlog_stats WHERE did != " + BUILT + " AND day <= " + (today - WINDOW));
+        mCol.getDb().setMod(mod);
+        mToday = today;
+    }
+
+
+    /** Fill the table from the revlog of the window ending on TODAY. */
+    private void _build(int today) {
+        long crt = mCol.getCrt();
+        long since = (crt + (today - WINDOW + 1) * 86400L) * 1000;
+        mCol.getDb().execute("DELETE FROM revlog_stats");
+        mCol.getDb().execute("INSERT INTO revlog_stats "
+                + "SELECT ifnull((SELECT CASE WHEN odid != 0 THEN odid ELSE did END FROM cards WHERE id = r.cid), 0), "
+                + "(r.id / 1000 - " + crt + ") / 86400 AS d, "
+                + "sum(type = 1), sum(type = 1 AND ease > 1), sum(CASE WHEN type = 1 THEN time ELSE 0 END), "
+                + "sum(type != 1), sum(type != 1 AND ease = 3), sum(CASE WHEN type != 1 THEN time ELSE 0 END) "
+                + "FROM revlog r WHERE r.id > " + since + " GROUP BY 1, 2");
+        mCol.getDb().execute("INSERT INTO revlog_stats VALUES (" + BUILT + ", 0, 0, 0, 0, 0, 0, 0)");
+    }
+
+
+    private long[] _read(long did, int day) {
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery(
+                    "SELECT revs, revYes, revTime, lrns, lrnYes, lrnTime FROM revlog_stats WHERE did = " + did
+                            + " AND day = " + day, null);
+            if (!cur.moveToFirst()) {
+                return null;
+            }
+            long[] totals = new long[TOTALS];
+            for (int i = 0; i < TOTALS; i++) {
+                totals[i] = cur.getLong(i);
+            }
+            return totals;
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+    }
+
+
+    private void _store(long did, int day, long[] totals) {
+        mCol.getDb().execute("INSERT OR REPLACE INTO revlog_stats VALUES (?,?,?,?,?,?,?,?)",
+                new Object[] { did, day, totals[REVS], totals[REV_YES], totals[REV_TIME], totals[LRNS],
+                        totals[LRN_YES], totals[LRN_TIME] });
+    }
+
+
+    private void _createTable() {
+        mCol.getDb().execute("CREATE TABLE IF NOT EXISTS revlog_stats (did INTEGER NOT NULL, day INTEGER NOT NULL, "
+                + "revs INTEGER NOT NULL, revYes INTEGER NOT NULL, revTime INTEGER NOT NULL, "
+                + "lrns INTEGER NOT NULL, lrnYes INTEGER NOT NULL, lrnTime INTEGER NOT NULL, PRIMARY KEY (did, day))");
+    }
+}
@@ -27,8 +27,10 @@ import android.graphics.Typeface;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.StyleSpan;
+import android.util.Pair;
 
 import com.ichi2.anki.R;
+import com.ichi2.async.DeckTask;
 import com.ichi2.libanki.hooks.Hooks;
 
 import org.json.JSONArray;
@@ -36,14 +38,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -58,6 +56,10 @@ public class Sched {
 
     // Not in libanki
     private static final int[] FACTOR_ADDITION_VALUES = { -150, 0, 150 };
+    // Cards moved per statement when rebuilding a filtered deck with progress updates
+    private static final int DYN_PROGRESS_BATCH = 2000;
+    // Notes repositioned per statement when sorting new cards with progress updates
+    private static final int REPOSITION_PROGRESS_BATCH = 2000;
 
     private String mName = "std";
     private boolean mHaveCustomStudy = true;
@@ -78,13 +80,36 @@ public class Sched {
 
     private int mNewCardModulus;
 
-    private double[] mEtaCache = new double[] { -1, -1, -1, -1 };
+    // Not in libanki: answer statistics of the last days, for eta()
+    private ReviewStats mReviewStats;
 
     // Queues
-    private final LinkedList<Long> mNewQueue = new LinkedList<>();
-    private final LinkedList<long[]> mLrnQueue = new LinkedList<>();
-    private final LinkedList<Long> mLrnDayQueue = new LinkedList<>();
-    private final LinkedList<Long> mRevQueue = new LinkedList<>();
+    private final CardIdQueue mNewQueue = new CardIdQueue();
+    private final CardIdHeap mLrnQueue = new CardIdHeap();
+    private final CardIdQueue mLrnDayQueue = new CardIdQueue();
+    private final CardIdQueue mRevQueue = new CardIdQueue();
+    // Not in libanki: the cards of mNewQueue and mRevQueue by note, for _burySiblings()
+    private SiblingIndex mNewSiblings = new SiblingIndex();
+    private SiblingIndex mRevSiblings = new SiblingIndex();
+
+    // Not in libanki. Cards loaded ahead from the head of the queues, see _popCard().
+    private int mPrefetchLimit = 10;
+    private final HashMap<Long, Card> mPrefetched = new HashMap<>();
+    // Not in libanki. DB.getCardsMod() when the prefetched cards were known to be current, see _dropStalePrefetched().
+    private long mPrefetchedMod;
+
+    // Not in libanki. Deck ancestry for the limit walks, see _deckParents().
+    private final HashMap<Long, long[]> mDeckParents = new HashMap<>();
+    private HashMap<String, Long> mDeckIdsByName;
+
+    // Not in libanki. Due cards per deck for the deck list, see _dueCountsByDeck().
+    private DeckDueCounts mDueCounts;
+
+    // Not in libanki: counts and queues of the next day, prepared ahead of the day cutoff
+    private NextDay mNextDay;
+
+    // Not in libanki. The preview of the card being answered, if still valid, see answerPreview().
+    private AnswerPreview mAnswerPreview;
 
     private LinkedList<Long> mNewDids;
     private LinkedList<Long> mLrnDids;
@@ -132,7 +157,14 @@ public class Sched {
 
 
     public void reset() {
+        mPrefetched.clear();
+        mDeckParents.clear();
+        mDeckIdsByName = null;
         _updateCutoff();
+        // Not in libanki: the queues prepared for the next day don't depend on today's, see _isCurrent()
+        if (mNextDay != null && mNextDay.today != mToday + 1) {
+            mNextDay = null;
+        }
         _resetLrn();
         _resetRev();
         _resetNew();
@@ -142,6 +174,12 @@ public class Sched {
 
     public void answerCard(Card card, int ease) {
         mCol.log();
+        _dropStalePrefetched();
+        // reuse the intervals worked out for the answer buttons, if the card hasn't changed since
+        AnswerPreview preview = card.getAnswerPreview();
+        mAnswerPreview = preview != null && preview.isFor(card, mToday) ? preview : null;
+        card.setAnswerPreview(null);
+        _removeFromDueCounts(card);
         mCol.markReview(card);
         if (mBurySiblingsOnAnswer) {
             _burySiblings(card);
@@ -184,6 +222,10 @@ public class Sched {
         card.setMod(Utils.intNow());
         card.setUsn(mCol.usn());
         card.flushSched();
+        _addToDueCounts(card);
+        // the answer only wrote this card, and its siblings, which aren't prefetched
+        mPrefetchedMod = mCol.getDb().getCardsMod();
+        mAnswerPreview = null;
     }
 
 
@@ -234,13 +276,9 @@ public class Sched {
             if (card.getODid() != 0 && card.getQueue() == 2) {
                 return 4;
             }
-            JSONObject conf = _lrnConf(card);
-            try {
-                if (card.getType() == 0 || card.getType() == 1 || conf.getJSONArray("delays").length() > 1) {
-                    return 3;
-                }
-            } catch (JSONException e) {
-                throw new RuntimeException(e);
+            DeckConfig.Steps conf = _lrnConf(card);
+            if (card.getType() == 0 || card.getType() == 1 || conf.delays.length > 1) {
+                return 3;
             }
             return 2;
         } else if (card.getQueue() == 2) {
@@ -257,20 +295,27 @@ public class Sched {
     public void unburyCards() {
         try {
             mCol.getConf().put("lastUnburied", mToday);
-            mCol.log(mCol.getDb().queryColumn(Long.class, "select id from cards where queue = -2", 0));
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
-
+        List<Long> cids = mCol.getDb().queryColumn(Long.class, "select id from cards where queue = -2", 0);
+        mCol.log(cids);
+        String counted = "id in " + Utils.ids2str(cids);
+        _removeFromDueCounts(counted);
         mCol.getDb().execute("update cards set queue=type where queue = -2");
+        _addToDueCounts(counted);
     }
 
 
     public void unburyCardsForDeck() {
         String sids = Utils.ids2str(mCol.getDecks().active());
-        mCol.log(mCol.getDb().queryColumn(Long.class, "select id from cards where queue = -2 and did in " + sids, 0));
+        List<Long> cids = mCol.getDb().queryColumn(Long.class, "select id from cards where queue = -2 and did in " + sids, 0);
+        mCol.log(cids);
+        String counted = "id in " + Utils.ids2str(cids);
+        _removeFromDueCounts(counted);
         mCol.getDb().execute("update cards set mod=?,usn=?,queue=type where queue = -2 and did in " + sids,
                 new Object[] { Utils.intNow(), mCol.usn() });
+        _addToDueCounts(counted);
     }
 
 
@@ -297,7 +342,7 @@ public class Sched {
             } catch (JSONException e) {
                 throw new RuntimeException(e);
             }
-            mCol.getDecks().save(g);
+            mCol.getDecks().saveCounts(g);
         }
     }
 
@@ -327,44 +372,121 @@ public class Sched {
     }
 
 
-    private int _walkingCount(Method limFn, Method cntFn) {
+    private int _walkingCount(CountFn fn) {
         int tot = 0;
         HashMap<Long, Integer> pcounts = new HashMap<>();
         // for each of the active decks
+        for (long did : mCol.getDecks().active()) {
+            // get the individual deck's limit
+            int lim = fn.limit(mCol.getDecks().get(did));
+            if (lim == 0) {
+                continue;
+            }
+            // check the parents
+            long[] parents = _deckParents(did);
+            for (long p : parents) {
+                // add if missing
+                if (!pcounts.containsKey(p)) {
+                    pcounts.put(p, fn.limit(mCol.getDecks().get(p)));
+                }
+                // take minimum of child and parent
+                lim = Math.min(pcounts.get(p), lim);
+            }
+            // see how many cards we actually have
+            int cnt = fn.count(did, lim);
+            // if non-zero, decrement from parents counts
+            for (long p : parents) {
+                pcounts.put(p, pcounts.get(p) - cnt);
+            }
+            // we may also be a parent
+            pcounts.put(did, lim - cnt);
+            // and add to running total
+            tot += cnt;
+        }
+        return tot;
+    }
+
+
+    /**
+     * Not in libanki. The per-deck limit and count functions, which libanki passes to _walkingCount() and
+     * _deckNewLimit() as plain functions.
+     */
+    private interface CountFn {
+        /** The limit of DECK alone, without its parents' limits. */
+        int limit(JSONObject deck);
+
+        /** The number of cards in deck DID, up to LIM. */
+        int count(long did, int lim);
+    }
+
+
+    private final CountFn mNewCountFn = new CountFn() {
+        @Override
+        public int limit(JSONObject deck) {
+            return _deckNewLimitSingle(deck);
+        }
+
+
+        @Override
+        public int count(long did, int lim) {
+            return _cntFnNew(did, lim);
+        }
+    };
+
+
+    private final CountFn mRevCountFn = new CountFn() {
+        @Override
+        public int limit(JSONObject deck) {
+            return _deckRevLimitSingle(deck);
+        }
+
+
+        @Override
+        public int count(long did, int lim) {
+            return _cntFnRev(did, lim);
+        }
+    };
+
+
+    /**
+     * Not in libanki. Ids of the parents of deck DID, root first. Unlike Decks.parents(), which resolves every
+     * parent name with a scan of all decks, this looks them up in a name index, and remembers the result until the
+     * next reset().
+     */
+    private long[] _deckParents(long did) {
+        long[] parents = mDeckParents.get(did);
+        if (parents != null) {
+            return parents;
+        }
         try {
-            for (long did : mCol.getDecks().active()) {
-                // get the individual deck's limit
-                int lim = (Integer)limFn.invoke(Sched.this, mCol.getDecks().get(did));
-                if (lim == 0) {
-                    continue;
+            if (mDeckIdsByName == null) {
+                mDeckIdsByName = new HashMap<>();
+                for (JSONObject g : mCol.getDecks().all()) {
+                    mDeckIdsByName.put(g.getString("name").toLowerCase(Locale.US), g.getLong("id"));
                 }
-                // check the parents
-                List<JSONObject> parents = mCol.getDecks().parents(did);
-                for (JSONObject p : parents) {
-                    // add if missing
-                    long id = p.getLong("id");
-                    if (!pcounts.containsKey(id)) {
-                        pcounts.put(id, (Integer)limFn.invoke(Sched.this, p));
+            }
+            String[] parts = mCol.getDecks().get(did).getString("name").split("::", -1);
+            parents = new long[parts.length - 1];
+            String name = null;
+            for (int i = 0; i < parents.length; i++) {
+                name = name == null ? parts[i] : name + "::" + parts[i];
+                Long id = mDeckIdsByName.get(name.toLowerCase(Locale.US));
+                if (id == null) {
+                    // Decks.parents() creates missing parents, so leave this rare case to it
+                    List<JSONObject> created = mCol.getDecks().parents(did);
+                    mDeckIdsByName = null;
+                    for (int k = 0; k < parents.length; k++) {
+                        parents[k] = created.get(k).getLong("id");
                     }
-                    // take minimum of child and parent
-                    lim = Math.min(pcounts.get(id), lim);
-                }
-                // see how many cards we actually have
-                int cnt = (Integer)cntFn.invoke(Sched.this, did, lim);
-                // if non-zero, decrement from parents counts
-                for (JSONObject p : parents) {
-                    long id = p.getLong("id");
-                    pcounts.put(id, pcounts.get(id) - cnt);
+                    break;
                 }
-                // we may also be a parent
-                pcounts.put(did, lim - cnt);
-                // and add to running total
-                tot += cnt;
+                parents[i] = id;
             }
-        } catch (JSONException | IllegalAccessException | InvocationTargetException e) {
+        } catch (JSONException e) {
             throw new RuntimeException(e);
         }
-        return tot;
+        mDeckParents.put(did, parents);
+        return parents;
     }
 
 
@@ -378,10 +500,16 @@ public class Sched {
      */
     public List<DeckDueTreeNode> deckDueList() {
         _checkDay();
+        boolean counted = mDueCounts != null && mDueCounts.isCurrent(mCol.getDb(), mToday);
         mCol.getDecks().recoverOrphans();
+        if (counted && mDueCounts.onlyIn(Arrays.asList(mCol.getDecks().allIds()))) {
+            // no counted card was moved by recovering orphans
+            mDueCounts.stamp();
+        }
         ArrayList<JSONObject> decks = mCol.getDecks().allSorted();
         HashMap<String, Integer[]> lims = new HashMap<>();
         ArrayList<DeckDueTreeNode> data = new ArrayList<>();
+        HashMap<Long, int[]> counts = _dueCountsByDeck();
         try {
             for (JSONObject deck : decks) {
                 // if we've already seen the exact same deck name, remove the
@@ -408,17 +536,25 @@ public class Sched {
                     }
                     nlim = Math.min(nlim, lims.get(p)[0]);
                 }
-                int _new = _newForDeck(deck.getLong("id"), nlim);
+                long did = deck.getLong("id");
+                int[] cnt = counts.containsKey(did) ? counts.get(did) : new int[DeckDueCounts.SIZE];
+                int _new = Math.min(Math.min(nlim, mReportLimit), cnt[DeckDueCounts.NEW]);
                 // learning
-                int lrn = _lrnForDeck(deck.getLong("id"));
+                int lrn;
+                if (cnt[DeckDueCounts.LRN_CARDS] > mReportLimit) {
+                    // the per-deck query only sums the first mReportLimit cards, so let it decide which
+                    lrn = _lrnForDeck(did);
+                } else {
+                    lrn = cnt[DeckDueCounts.LRN] + Math.min(mReportLimit, cnt[DeckDueCounts.LRN_DAY]);
+                }
                 // reviews
                 int rlim = _deckRevLimitSingle(deck);
                 if (!TextUtils.isEmpty(p)) {
                     rlim = Math.min(rlim, lims.get(p)[1]);
                 }
-                int rev = _revForDeck(deck.getLong("id"), rlim);
+                int rev = Math.min(Math.min(rlim, mReportLimit), cnt[DeckDueCounts.REV]);
                 // save to list
-                data.add(new DeckDueTreeNode(deck.getString("name"), deck.getLong("id"), rev, lrn, _new));
+                data.add(new DeckDueTreeNode(deck.getString("name"), did, rev, lrn, _new));
                 // add deck as a parent
                 lims.put(deck.getString("name"), new Integer[]{nlim, rlim});
             }
@@ -429,11 +565,101 @@ public class Sched {
     }
 
 
+    /**
+     * Not in libanki. Due cards of every deck. The counts are kept in memory and adjusted as cards are answered,
+     * buried or suspended, and only counted again (in one pass over the cards table) when they have gone stale.
+     * The counts are not limited; deckDueList() applies the deck and parent limits to them.
+     * @return Map from did to an array indexed by the DeckDueCounts constants. Decks without due cards may be missing.
+     */
+    private HashMap<Long, int[]> _dueCountsByDeck() {
+        if (mDueCounts == null || !mDueCounts.isCurrent(mCol.getDb(), mToday)) {
+            mDueCounts = new DeckDueCounts(mCol.getDb(), mToday);
+        }
+        try {
+            return mDueCounts.counts(Utils.intNow() + mCol.getConf().getInt("collapseTime"));
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Not in libanki. Take the cards matching WHERE out of the in-memory deck counts before changing them. Must be
+     * followed by {@link #_addToDueCounts(String)} with the same clause once the change is written.
+     */
+    public void _removeFromDueCounts(String where) {
+        if (mDueCounts == null) {
+            return;
+        }
+        if (mDueCounts.isCurrent(mCol.getDb(), mToday)) {
+            mDueCounts.remove(where);
+        } else {
+            mDueCounts = null;
+        }
+    }
+
+
+    /** Not in libanki. Put the cards matching WHERE back into the in-memory deck counts after changing them. */
+    public void _addToDueCounts(String where) {
+        if (mDueCounts != null) {
+            mDueCounts.add(where);
+        }
+    }
+
+
+    /**
+     * Not in libanki. Take CARD out of the in-memory deck counts before answering it. Its queue and due are known, so
+     * unlike _removeFromDueCounts(String) this doesn't read it again. Must be followed by
+     * {@link #_addToDueCounts(Card)} once the answer is written.
+     */
+    private void _removeFromDueCounts(Card card) {
+        if (mDueCounts == null) {
+            return;
+        }
+        if (mDueCounts.isCurrent(mCol.getDb(), mToday)) {
+            mDueCounts.remove(card);
+        } else {
+            mDueCounts = null;
+        }
+    }
+
+
+    /** Not in libanki. Put CARD back into the in-memory deck counts once its answer is written. */
+    private void _addToDueCounts(Card card) {
+        if (mDueCounts != null) {
+            mDueCounts.add(card);
+        }
+    }
+
+
     public List<DeckDueTreeNode> deckDueTree() {
         return _groupChildren(deckDueList());
     }
 
 
+    /**
+     * Not in libanki. Set the estimated study time of every node of the deck tree NODES, from the answers given in
+     * the deck and its subdecks. This may have to load the review statistics, so like the tree itself it should be
+     * worked out in the background.
+     */
+    public void setEtas(List<DeckDueTreeNode> nodes) {
+        _setEtas(nodes);
+    }
+
+
+    /** @return The ids of the decks of NODES and their subdecks. */
+    private List<Long> _setEtas(List<DeckDueTreeNode> nodes) {
+        List<Long> all = new ArrayList<>();
+        for (DeckDueTreeNode node : nodes) {
+            List<Long> dids = _setEtas(node.children);
+            dids.add(node.did);
+            node.eta = etaForDecks(new int[] { node.newCount, node.lrnCount, node.revCount }, dids);
+            all.addAll(dids);
+        }
+        return all;
+    }
+
+
     private List<DeckDueTreeNode> _groupChildren(List<DeckDueTreeNode> grps) {
         // first, split the group names into components
         for (DeckDueTreeNode g : grps) {
@@ -498,12 +724,12 @@ public class Sched {
                 _new += ch.newCount;
             }
             // limit the counts to the deck's limits
-            JSONObject conf = mCol.getDecks().confForDid(did);
+            DeckConfig conf = mCol.getDecks().config(did);
             JSONObject deck = mCol.getDecks().get(did);
             try {
-                if (conf.getInt("dyn") == 0) {
-                    rev = Math.max(0, Math.min(rev, conf.getJSONObject("rev").getInt("perDay") - deck.getJSONArray("revToday").getInt(1)));
-                    _new = Math.max(0, Math.min(_new, conf.getJSONObject("new").getInt("perDay") - deck.getJSONArray("newToday").getInt(1)));
+                if (!conf.dyn) {
+                    rev = Math.max(0, Math.min(rev, conf.rev.perDay - deck.getJSONArray("revToday").getInt(1)));
+                    _new = Math.max(0, Math.min(_new, conf.newConf.perDay - deck.getJSONArray("newToday").getInt(1)));
                 }
             } catch (JSONException e) {
                 throw new RuntimeException(e);
@@ -560,17 +786,11 @@ public class Sched {
      */
 
     private void _resetNewCount() {
-        try {
-            mNewCount = _walkingCount(Sched.class.getDeclaredMethod("_deckNewLimitSingle", JSONObject.class),
-                    Sched.class.getDeclaredMethod("_cntFnNew", long.class, int.class));
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
+        mNewCount = _walkingCount(mNewCountFn);
     }
 
 
     // Used as an argument for _walkingCount() in _resetNewCount() above
-    @SuppressWarnings("unused")
     private int _cntFnNew(long did, int lim) {
         return mCol.getDb().queryScalar(
                 "SELECT count() FROM (SELECT 1 FROM cards WHERE did = " + did + " AND queue = 0 LIMIT " + lim + ")");
@@ -581,6 +801,7 @@ public class Sched {
         _resetNewCount();
         mNewDids = new LinkedList<>(mCol.getDecks().active());
         mNewQueue.clear();
+        mNewSiblings.clear();
         _updateNewCardRatio();
     }
 
@@ -592,28 +813,49 @@ public class Sched {
         if (mNewCount == 0) {
             return false;
         }
-        while (!mNewDids.isEmpty()) {
-            long did = mNewDids.getFirst();
-            int lim = Math.min(mQueueLimit, _deckNewLimit(did));
+        if (_fillNewQueue(mNewDids, mNewQueue, mNewSiblings, mNewCountFn)) {
+            return true;
+        }
+        if (mNewCount != 0) {
+            // if we didn't get a card but the count is non-zero,
+            // we need to check again for any cards that were
+            // removed from the queue but not buried
+            _resetNew();
+            return _fillNew();
+        }
+        return false;
+    }
+
+
+    /**
+     * Not in libanki. The loop of _fillNew(): fill QUEUE and SIBLINGS from the first deck in DIDS with new cards
+     * within its limit under FN, dropping the decks without any from DIDS.
+     */
+    private boolean _fillNewQueue(LinkedList<Long> dids, CardIdQueue queue, SiblingIndex siblings, CountFn fn) {
+        while (!dids.isEmpty()) {
+            long did = dids.getFirst();
+            int lim = Math.min(mQueueLimit, _deckNewLimit(did, fn));
             Cursor cur = null;
             if (lim != 0) {
-                mNewQueue.clear();
+                queue.clear();
+                siblings.clear();
                 try {
                     // fill the queue with the current did
                     cur = mCol
                             .getDb()
                             .getDatabase()
-                            .rawQuery("SELECT id FROM cards WHERE did = " + did + " AND queue = 0 order by due LIMIT " + lim,
-                                    null);
+                            .rawQuery("SELECT id, nid FROM cards WHERE did = " + did + " AND queue = 0 order by due LIMIT "
+                                    + lim, null);
                     while (cur.moveToNext()) {
-                        mNewQueue.add(cur.getLong(0));
+                        queue.add(cur.getLong(0));
+                        siblings.add(cur.getLong(1), cur.getLong(0));
                     }
                 } finally {
                     if (cur != null && !cur.isClosed()) {
                         cur.close();
                     }
                 }
-                if (!mNewQueue.isEmpty()) {
+                if (!queue.isEmpty()) {
                     // Note: libanki reverses mNewQueue and returns the last element in _getNewCard().
                     // AnkiDroid differs by leaving the queue intact and returning the *first* element
                     // in _getNewCard().
@@ -621,14 +863,7 @@ public class Sched {
                 }
             }
             // nothing left in the deck; move to next
-            mNewDids.remove();
-        }
-        if (mNewCount != 0) {
-            // if we didn't get a card but the count is non-zero,
-            // we need to check again for any cards that were
-            // removed from the queue but not buried
-            _resetNew();
-            return _fillNew();
+            dids.remove();
         }
         return false;
     }
@@ -637,7 +872,7 @@ public class Sched {
     private Card _getNewCard() {
         if (_fillNew()) {
             mNewCount -= 1;
-            return mCol.getCard(mNewQueue.remove());
+            return _popCard(mNewQueue);
         }
         return null;
     }
@@ -688,32 +923,17 @@ public class Sched {
 
 
     private int _deckNewLimit(long did) {
-        return _deckNewLimit(did, null);
+        return _deckNewLimit(did, mNewCountFn);
     }
 
 
-    private int _deckNewLimit(long did, Method fn) {
-        try {
-            if (fn == null) {
-                fn = Sched.class.getDeclaredMethod("_deckNewLimitSingle", JSONObject.class);
-            }
-            List<JSONObject> decks = mCol.getDecks().parents(did);
-            decks.add(mCol.getDecks().get(did));
-            int lim = -1;
-            // for the deck and each of its parents
-            int rem = 0;
-            for (JSONObject g : decks) {
-                rem = (Integer) fn.invoke(Sched.this, g);
-                if (lim == -1) {
-                    lim = rem;
-                } else {
-                    lim = Math.min(rem, lim);
-                }
-            }
-            return lim;
-        } catch (IllegalArgumentException | NoSuchMethodException | InvocationTargetException | IllegalAccessException e) {
-            throw new RuntimeException(e);
+    private int _deckNewLimit(long did, CountFn fn) {
+        // for the deck and each of its parents
+        int lim = fn.limit(mCol.getDecks().get(did));
+        for (long p : _deckParents(did)) {
+            lim = Math.min(fn.limit(mCol.getDecks().get(p)), lim);
         }
+        return lim;
     }
 
 
@@ -733,8 +953,8 @@ public class Sched {
             if (g.getInt("dyn") != 0) {
                 return mReportLimit;
             }
-            JSONObject c = mCol.getDecks().confForDid(g.getLong("id"));
-            return Math.max(0, c.getJSONObject("new").getInt("perDay") - g.getJSONArray("newToday").getInt(1));
+            DeckConfig c = mCol.getDecks().config(g.getLong("id"));
+            return Math.max(0, c.newConf.perDay - g.getJSONArray("newToday").getInt(1));
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
@@ -777,26 +997,26 @@ public class Sched {
         if (!mLrnQueue.isEmpty()) {
             return true;
         }
+        return _fillLrnQueue(mLrnQueue, mDayCutoff);
+    }
+
+
+    /** Not in libanki. Fill QUEUE with the sub-day learning cards due before CUTOFF. */
+    private boolean _fillLrnQueue(CardIdHeap queue, long cutoff) {
         Cursor cur = null;
-        mLrnQueue.clear();
+        queue.clear();
         try {
             cur = mCol
                     .getDb()
                     .getDatabase()
                     .rawQuery(
                             "SELECT due, id FROM cards WHERE did IN " + _deckLimit() + " AND queue = 1 AND due < "
-                                    + mDayCutoff + " LIMIT " + mReportLimit, null);
+                                    + cutoff + " LIMIT " + mReportLimit, null);
+            // as it arrives sorted by did first, it goes into a heap ordered by due
             while (cur.moveToNext()) {
-                mLrnQueue.add(new long[] { cur.getLong(0), cur.getLong(1) });
+                queue.add(cur.getLong(0), cur.getLong(1));
             }
-            // as it arrives sorted by did first, we need to sort it
-            Collections.sort(mLrnQueue, new Comparator<long[]>() {
-                @Override
-                public int compare(long[] lhs, long[] rhs) {
-                    return Long.valueOf(lhs[0]).compareTo(rhs[0]);
-                }
-            });
-            return !mLrnQueue.isEmpty();
+            return !queue.isEmpty();
         } finally {
             if (cur != null && !cur.isClosed()) {
                 cur.close();
@@ -820,9 +1040,8 @@ public class Sched {
                     throw new RuntimeException(e);
                 }
             }
-            if (mLrnQueue.getFirst()[0] < cutoff) {
-                long id = mLrnQueue.remove()[1];
-                Card card = mCol.getCard(id);
+            if (mLrnQueue.getFirstKey() < cutoff) {
+                Card card = _takeCard(mLrnQueue.remove());
                 mLrnCount -= card.getLeft() / 1000;
                 return card;
             }
@@ -831,6 +1050,23 @@ public class Sched {
     }
 
 
+    /**
+     * Not in libanki. When the next sub-day learning card of the current decks becomes due, so that a caller
+     * waiting for it can schedule a wakeup instead of polling getCard().
+     * @return Due time in seconds since the epoch, or 0 if no learning card is due before the day cutoff.
+     */
+    public long nextLrnDue() {
+        _checkDay();
+        if (!mHaveQueues) {
+            reset();
+        }
+        if (_fillLrn()) {
+            return mLrnQueue.getFirstKey();
+        }
+        return 0;
+    }
+
+
     // daily learning
     private boolean _fillLrnDay() {
         if (mLrnCount == 0) {
@@ -839,39 +1075,48 @@ public class Sched {
         if (!mLrnDayQueue.isEmpty()) {
             return true;
         }
-        while (mLrnDids.size() > 0) {
-            long did = mLrnDids.getFirst();
+        return _fillLrnDayQueue(mLrnDids, mLrnDayQueue, mToday);
+    }
+
+
+    /**
+     * Not in libanki. The loop of _fillLrnDay(): fill QUEUE from the first deck in DIDS with day learning cards due
+     * on TODAY, dropping the decks without any from DIDS.
+     */
+    private boolean _fillLrnDayQueue(LinkedList<Long> dids, CardIdQueue queue, int today) {
+        while (dids.size() > 0) {
+            long did = dids.getFirst();
             // fill the queue with the current did
-            mLrnDayQueue.clear();
+            queue.clear();
             Cursor cur = null;
             try {
                 cur = mCol
                         .getDb()
                         .getDatabase()
                         .rawQuery(
-                                "SELECT id FROM cards WHERE did = " + did + " AND queue = 3 AND due <= " + mToday
+                                "SELECT id FROM cards WHERE did = " + did + " AND queue = 3 AND due <= " + today
                                         + " LIMIT " + mQueueLimit, null);
                 while (cur.moveToNext()) {
-                    mLrnDayQueue.add(cur.getLong(0));
+                    queue.add(cur.getLong(0));
                 }
             } finally {
                 if (cur != null && !cur.isClosed()) {
                     cur.close();
                 }
             }
-            if (mLrnDayQueue.size() > 0) {
+            if (queue.size() > 0) {
                 // order
                 Random r = new Random();
-                r.setSeed(mToday);
-                Collections.shuffle(mLrnDayQueue, r);
+                r.setSeed(today);
+                queue.shuffle(r);
                 // is the current did empty?
-                if (mLrnDayQueue.size() < mQueueLimit) {
-                    mLrnDids.remove();
+                if (queue.size() < mQueueLimit) {
+                    dids.remove();
                 }
                 return true;
             }
             // nothing left in the deck; move to next
-            mLrnDids.remove();
+            dids.remove();
         }
         return false;
     }
@@ -880,7 +1125,7 @@ public class Sched {
     private Card _getLrnDayCard() {
         if (_fillLrnDay()) {
             mLrnCount -= 1;
-            return mCol.getCard(mLrnDayQueue.remove());
+            return _popCard(mLrnDayQueue);
         }
         return null;
     }
@@ -890,7 +1135,7 @@ public class Sched {
      * @param ease 1=no, 2=yes, 3=remove
      */
     private void _answerLrnCard(Card card, int ease) {
-        JSONObject conf = _lrnConf(card);
+        DeckConfig.Steps conf = _lrnConf(card);
         int type;
         if (card.getODid() != 0 && !card.getWasNew()) {
             type = 3;
@@ -915,22 +1160,15 @@ public class Sched {
             if (ease == 2) {
                 // decrement real left count and recalculate left today
                 int left = (card.getLeft() % 1000) - 1;
-                try {
-                    card.setLeft(_leftToday(conf.getJSONArray("delays"), left) * 1000 + left);
-                } catch (JSONException e) {
-                    throw new RuntimeException(e);
-                }
+                card.setLeft(_leftToday(conf.delaySecs, left) * 1000 + left);
                 // failed
             } else {
                 card.setLeft(_startingLeft(card));
                 boolean resched = _resched(card);
-                if (conf.has("mult") && resched) {
+                if (conf instanceof DeckConfig.Lapse && resched) {
                     // review that's lapsed
-                    try {
-                        card.setIvl(Math.max(Math.max(1, (int) (card.getIvl() * conf.getDouble("mult"))), conf.getInt("minInt")));
-                    } catch (JSONException e) {
-                        throw new RuntimeException(e);
-                    }
+                    DeckConfig.Lapse lapse = (DeckConfig.Lapse) conf;
+                    card.setIvl(Math.max(Math.max(1, (int) (card.getIvl() * lapse.mult)), lapse.minInt));
                 } else {
                     // new card; no ivl adjustment
                     // pass
@@ -954,7 +1192,7 @@ public class Sched {
                 // it twice in a row
                 card.setQueue(1);
                 if (!mLrnQueue.isEmpty() && mRevCount == 0 && mNewCount == 0) {
-                    long smallestDue = mLrnQueue.getFirst()[0];
+                    long smallestDue = mLrnQueue.getFirstKey();
                     card.setDue(Math.max(card.getDue(), smallestDue + 1));
                 }
                 _sortIntoLrn(card.getDue(), card.getId());
@@ -969,30 +1207,21 @@ public class Sched {
     }
 
 
-    private int _delayForGrade(JSONObject conf, int left) {
+    private int _delayForGrade(DeckConfig.Steps conf, int left) {
         left = left % 1000;
-        try {
-            double delay;
-            JSONArray ja = conf.getJSONArray("delays");
-            int len = ja.length();
-            try {
-                delay = ja.getDouble(len - left);
-            } catch (JSONException e) {
-            	if (conf.getJSONArray("delays").length() > 0) {
-            		delay = conf.getJSONArray("delays").getDouble(0);
-            	} else {
-            		// user deleted final step; use dummy value
-            		delay = 1.0;
-            	}
-            }
-            return (int) (delay * 60.0);
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+        int len = conf.delaySecs.length;
+        if (len - left >= 0 && len - left < len) {
+            return conf.delaySecs[len - left];
+        } else if (len > 0) {
+            return conf.delaySecs[0];
+        } else {
+            // user deleted final step; use dummy value
+            return 60;
         }
     }
 
 
-    private JSONObject _lrnConf(Card card) {
+    private DeckConfig.Steps _lrnConf(Card card) {
         if (card.getType() == 2) {
             return _lapseConf(card);
         } else {
@@ -1001,7 +1230,7 @@ public class Sched {
     }
 
 
-    private void _rescheduleAsRev(Card card, JSONObject conf, boolean early) {
+    private void _rescheduleAsRev(Card card, DeckConfig.Steps conf, boolean early) {
         boolean lapse = (card.getType() == 2);
         if (lapse) {
             if (_resched(card)) {
@@ -1011,7 +1240,7 @@ public class Sched {
             }
             card.setODue(0);
         } else {
-            _rescheduleNew(card, conf, early);
+            _rescheduleNew(card, (DeckConfig.New) conf, early);
         }
         card.setQueue(2);
         card.setType(2);
@@ -1032,40 +1261,32 @@ public class Sched {
 
 
     private int _startingLeft(Card card) {
-        try {
-            JSONObject conf;
-        	if (card.getType() == 2) {
-        		conf = _lapseConf(card);
-        	} else {
-        		conf = _lrnConf(card);
-        	}
-            int tot = conf.getJSONArray("delays").length();
-            int tod = _leftToday(conf.getJSONArray("delays"), tot);
-            return tot + tod * 1000;
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+        DeckConfig.Steps conf;
+        if (card.getType() == 2) {
+            conf = _lapseConf(card);
+        } else {
+            conf = _lrnConf(card);
         }
+        int tot = conf.delaySecs.length;
+        int tod = _leftToday(conf.delaySecs, tot);
+        return tot + tod * 1000;
     }
 
 
     /* the number of steps that can be completed by the day cutoff */
-    private int _leftToday(JSONArray delays, int left) {
-        return _leftToday(delays, left, 0);
+    private int _leftToday(int[] delaySecs, int left) {
+        return _leftToday(delaySecs, left, 0);
     }
 
 
-    private int _leftToday(JSONArray delays, int left, long now) {
+    private int _leftToday(int[] delaySecs, int left, long now) {
         if (now == 0) {
             now = Utils.intNow();
         }
         int ok = 0;
-        int offset = Math.min(left, delays.length());
+        int offset = Math.min(left, delaySecs.length);
         for (int i = 0; i < offset; i++) {
-            try {
-                now += (int) (delays.getDouble(delays.length() - offset + i) * 60.0);
-            } catch (JSONException e) {
-                throw new RuntimeException(e);
-            }
+            now += delaySecs[delaySecs.length - offset + i];
             if (now > mDayCutoff) {
                 break;
             }
@@ -1075,62 +1296,50 @@ public class Sched {
     }
 
 
-    private int _graduatingIvl(Card card, JSONObject conf, boolean early) {
+    private int _graduatingIvl(Card card, DeckConfig.Steps conf, boolean early) {
         return _graduatingIvl(card, conf, early, true);
     }
 
 
-    private int _graduatingIvl(Card card, JSONObject conf, boolean early, boolean adj) {
+    private int _graduatingIvl(Card card, DeckConfig.Steps conf, boolean early, boolean adj) {
         if (card.getType() == 2) {
             // lapsed card being relearnt
             if (card.getODid() != 0) {
-                try {
-                    if (conf.getBoolean("resched")) {
-                        return _dynIvlBoost(card);
-                    }
-                } catch (JSONException e) {
-                    throw new RuntimeException(e);
+                if (((DeckConfig.Lapse) conf).resched) {
+                    return _dynIvlBoost(card);
                 }
             }
             return card.getIvl();
         }
         int ideal;
-        JSONArray ja;
-        try {
-            ja = conf.getJSONArray("ints");
-            if (!early) {
-                // graduate
-                ideal = ja.getInt(0);
-            } else {
-                ideal = ja.getInt(1);
-            }
-            if (adj) {
-                return _adjRevIvl(card, ideal);
-            } else {
-                return ideal;
-            }
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+        int[] ints = ((DeckConfig.New) conf).ints;
+        if (!early) {
+            // graduate
+            ideal = ints[0];
+        } else {
+            ideal = ints[1];
+        }
+        if (adj) {
+            return _adjRevIvl(card, ideal);
+        } else {
+            return ideal;
         }
     }
 
 
     /* Reschedule a new card that's graduated for the first time. */
-    private void _rescheduleNew(Card card, JSONObject conf, boolean early) {
+    private void _rescheduleNew(Card card, DeckConfig.New conf, boolean early) {
         card.setIvl(_graduatingIvl(card, conf, early));
         card.setDue(mToday + card.getIvl());
-        try {
-            card.setFactor(conf.getInt("initialFactor"));
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+        card.setFactor(conf.initialFactor);
     }
 
 
-    private void _logLrn(Card card, int ease, JSONObject conf, boolean leaving, int type, int lastLeft) {
+    private void _logLrn(Card card, int ease, DeckConfig.Steps conf, boolean leaving, int type, int lastLeft) {
         int lastIvl = -(_delayForGrade(conf, lastLeft));
         int ivl = leaving ? card.getIvl() : -(_delayForGrade(conf, card.getLeft()));
         log(card.getId(), mCol.usn(), ease, ivl, lastIvl, card.getFactor(), card.timeTaken(), type);
+        getReviewStats().add(_homeDid(card), mToday, type, ease, card.timeTaken());
     }
 
 
@@ -1192,11 +1401,7 @@ public class Sched {
      */
 
     private int _deckRevLimit(long did) {
-        try {
-            return _deckNewLimit(did, Sched.class.getDeclaredMethod("_deckRevLimitSingle", JSONObject.class));
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
+        return _deckNewLimit(did, mRevCountFn);
     }
 
 
@@ -1205,8 +1410,8 @@ public class Sched {
             if (d.getInt("dyn") != 0) {
                 return mReportLimit;
             }
-            JSONObject c = mCol.getDecks().confForDid(d.getLong("id"));
-            return Math.max(0, c.getJSONObject("rev").getInt("perDay") - d.getJSONArray("revToday").getInt(1));
+            DeckConfig c = mCol.getDecks().config(d.getLong("id"));
+            return Math.max(0, c.rev.perDay - d.getJSONArray("revToday").getInt(1));
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
@@ -1220,17 +1425,11 @@ public class Sched {
 
 
     private void _resetRevCount() {
-        try {
-            mRevCount = _walkingCount(Sched.class.getDeclaredMethod("_deckRevLimitSingle", JSONObject.class),
-                    Sched.class.getDeclaredMethod("_cntFnRev", long.class, int.class));
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
-        }
+        mRevCount = _walkingCount(mRevCountFn);
     }
 
 
-    // Dynamically invoked in _walkingCount, passed as a parameter in _resetRevCount
-    @SuppressWarnings("unused")
+    // Used as an argument for _walkingCount() in _resetRevCount() above
     private int _cntFnRev(long did, int lim) {
         return mCol.getDb().queryScalar(
                 "SELECT count() FROM (SELECT id FROM cards WHERE did = " + did + " AND queue = 2 and due <= " + mToday
@@ -1241,6 +1440,7 @@ public class Sched {
     private void _resetRev() {
         _resetRevCount();
         mRevQueue.clear();
+        mRevSiblings.clear();
         mRevDids = mCol.getDecks().active();
     }
 
@@ -1252,29 +1452,51 @@ public class Sched {
         if (mRevCount == 0) {
             return false;
         }
-        while (mRevDids.size() > 0) {
-            long did = mRevDids.getFirst();
-            int lim = Math.min(mQueueLimit, _deckRevLimit(did));
+        if (_fillRevQueue(mRevDids, mRevQueue, mRevSiblings, mRevCountFn, mToday)) {
+            return true;
+        }
+        if (mRevCount != 0) {
+            // if we didn't get a card but the count is non-zero,
+            // we need to check again for any cards that were
+            // removed from the queue but not buried
+            _resetRev();
+            return _fillRev();
+        }
+        return false;
+    }
+
+
+    /**
+     * Not in libanki. The loop of _fillRev(): fill QUEUE and SIBLINGS from the first deck in DIDS with reviews due on
+     * TODAY within its limit under FN, dropping the decks without any from DIDS.
+     */
+    private boolean _fillRevQueue(LinkedList<Long> dids, CardIdQueue queue, SiblingIndex siblings, CountFn fn,
+            int today) {
+        while (dids.size() > 0) {
+            long did = dids.getFirst();
+            int lim = Math.min(mQueueLimit, _deckNewLimit(did, fn));
             Cursor cur = null;
             if (lim != 0) {
-                mRevQueue.clear();
+                queue.clear();
+                siblings.clear();
                 // fill the queue with the current did
                 try {
                     cur = mCol
                             .getDb()
                             .getDatabase()
                             .rawQuery(
-                                    "SELECT id FROM cards WHERE did = " + did + " AND queue = 2 AND due <= " + mToday
+                                    "SELECT id, nid FROM cards WHERE did = " + did + " AND queue = 2 AND due <= " + today
                                             + " LIMIT " + lim, null);
                     while (cur.moveToNext()) {
-                        mRevQueue.add(cur.getLong(0));
+                        queue.add(cur.getLong(0));
+                        siblings.add(cur.getLong(1), cur.getLong(0));
                     }
                 } finally {
                     if (cur != null && !cur.isClosed()) {
                         cur.close();
                     }
                 }
-                if (!mRevQueue.isEmpty()) {
+                if (!queue.isEmpty()) {
                     // ordering
                     try {
                         if (mCol.getDecks().get(did).getInt("dyn") != 0) {
@@ -1284,28 +1506,21 @@ public class Sched {
                             // in _getRevCard().
                         } else {
                             Random r = new Random();
-                            r.setSeed(mToday);
-                            Collections.shuffle(mRevQueue, r);
+                            r.setSeed(today);
+                            queue.shuffle(r);
                         }
                     } catch (JSONException e) {
                         throw new RuntimeException(e);
                     }
                     // is the current did empty?
-                    if (mRevQueue.size() < lim) {
-                        mRevDids.remove();
+                    if (queue.size() < lim) {
+                        dids.remove();
                     }
                     return true;
                 }
             }
             // nothing left in the deck; move to next
-            mRevDids.remove();
-        }
-        if (mRevCount != 0) {
-            // if we didn't get a card but the count is non-zero,
-            // we need to check again for any cards that were
-            // removed from the queue but not buried
-            _resetRev();
-            return _fillRev();
+            dids.remove();
         }
         return false;
     }
@@ -1314,7 +1529,7 @@ public class Sched {
     private Card _getRevCard() {
         if (_fillRev()) {
             mRevCount -= 1;
-            return mCol.getCard(mRevQueue.remove());
+            return _popCard(mRevQueue);
         } else {
             return null;
         }
@@ -1345,60 +1560,51 @@ public class Sched {
 
 
     private int _rescheduleLapse(Card card) {
-        JSONObject conf;
-        try {
-            conf = _lapseConf(card);
-            card.setLastIvl(card.getIvl());
-            if (_resched(card)) {
-                card.setLapses(card.getLapses() + 1);
-                card.setIvl(_nextLapseIvl(card, conf));
-                card.setFactor(Math.max(1300, card.getFactor() - 200));
-                card.setDue(mToday + card.getIvl());
-                // if it's a filtered deck, update odue as well
-                if (card.getODid() != 0) {
-                    card.setODue(card.getDue());
-                }
-            }
-            // if suspended as a leech, nothing to do
-            int delay = 0;
-            if (_checkLeech(card, conf) && card.getQueue() == -1) {
-                return delay;
-            }
-            // if no relearning steps, nothing to do
-            if (conf.getJSONArray("delays").length() == 0) {
-                return delay;
-            }
-            // record rev due date for later
-            if (card.getODue() == 0) {
+        DeckConfig.Lapse conf = _lapseConf(card);
+        card.setLastIvl(card.getIvl());
+        if (_resched(card)) {
+            card.setLapses(card.getLapses() + 1);
+            card.setIvl(mAnswerPreview != null ? mAnswerPreview.getRevIvl(1) : _nextLapseIvl(card, conf));
+            card.setFactor(Math.max(1300, card.getFactor() - 200));
+            card.setDue(mToday + card.getIvl());
+            // if it's a filtered deck, update odue as well
+            if (card.getODid() != 0) {
                 card.setODue(card.getDue());
             }
-            delay = _delayForGrade(conf, 0);
-            card.setDue((long) (delay + Utils.now()));
-            card.setLeft(_startingLeft(card));
-            // queue 1
-            if (card.getDue() < mDayCutoff) {
-                mLrnCount += card.getLeft() / 1000;
-                card.setQueue(1);
-                _sortIntoLrn(card.getDue(), card.getId());
-            } else {
-                // day learn queue
-                long ahead = ((card.getDue() - mDayCutoff) / 86400) + 1;
-                card.setDue(mToday + ahead);
-                card.setQueue(3);
-            }
+        }
+        // if suspended as a leech, nothing to do
+        int delay = 0;
+        if (_checkLeech(card, conf) && card.getQueue() == -1) {
             return delay;
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
         }
+        // if no relearning steps, nothing to do
+        if (conf.delays.length == 0) {
+            return delay;
+        }
+        // record rev due date for later
+        if (card.getODue() == 0) {
+            card.setODue(card.getDue());
+        }
+        delay = _delayForGrade(conf, 0);
+        card.setDue((long) (delay + Utils.now()));
+        card.setLeft(_startingLeft(card));
+        // queue 1
+        if (card.getDue() < mDayCutoff) {
+            mLrnCount += card.getLeft() / 1000;
+            card.setQueue(1);
+            _sortIntoLrn(card.getDue(), card.getId());
+        } else {
+            // day learn queue
+            long ahead = ((card.getDue() - mDayCutoff) / 86400) + 1;
+            card.setDue(mToday + ahead);
+            card.setQueue(3);
+        }
+        return delay;
     }
 
 
-    private int _nextLapseIvl(Card card, JSONObject conf) {
-        try {
-            return Math.max(conf.getInt("minInt"), (int)(card.getIvl() * conf.getDouble("mult")));
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+    private int _nextLapseIvl(Card card, DeckConfig.Lapse conf) {
+        return Math.max(conf.minInt, (int)(card.getIvl() * conf.mult));
     }
 
 
@@ -1424,6 +1630,7 @@ public class Sched {
     private void _logRev(Card card, int ease, int delay) {
         log(card.getId(), mCol.usn(), ease, ((delay != 0) ? (-delay) : card.getIvl()), card.getLastIvl(),
                 card.getFactor(), card.timeTaken(), 1);
+        getReviewStats().add(_homeDid(card), mToday, 1, ease, card.timeTaken());
     }
 
 
@@ -1436,26 +1643,22 @@ public class Sched {
      * Ideal next interval for CARD, given EASE.
      */
     private int _nextRevIvl(Card card, int ease) {
-        try {
-            long delay = _daysLate(card);
-            int interval = 0;
-            JSONObject conf = _revConf(card);
-            double fct = card.getFactor() / 1000.0;
-            int ivl2 = _constrainedIvl((int)((card.getIvl() + delay/4) * 1.2), conf, card.getIvl());
-            int ivl3 = _constrainedIvl((int)((card.getIvl() + delay/2) * fct), conf, ivl2);
-            int ivl4 = _constrainedIvl((int)((card.getIvl() + delay) * fct * conf.getDouble("ease4")), conf, ivl3);
-            if (ease == 2) {
-                interval = ivl2;
-            } else if (ease == 3) {
-                interval = ivl3;
-            } else if (ease == 4) {
-            	interval = ivl4;
-            }
-            // interval capped?
-            return Math.min(interval, conf.getInt("maxIvl"));
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+        long delay = _daysLate(card);
+        int interval = 0;
+        DeckConfig.Rev conf = _revConf(card);
+        double fct = card.getFactor() / 1000.0;
+        int ivl2 = _constrainedIvl((int)((card.getIvl() + delay/4) * 1.2), conf, card.getIvl());
+        int ivl3 = _constrainedIvl((int)((card.getIvl() + delay/2) * fct), conf, ivl2);
+        int ivl4 = _constrainedIvl((int)((card.getIvl() + delay) * fct * conf.ease4), conf, ivl3);
+        if (ease == 2) {
+            interval = ivl2;
+        } else if (ease == 3) {
+            interval = ivl3;
+        } else if (ease == 4) {
+            interval = ivl4;
+        }
+        // interval capped?
+        return Math.min(interval, conf.maxIvl);
     }
 
     private int _fuzzedIvl(int ivl) {
@@ -1486,9 +1689,8 @@ public class Sched {
 
 
     /** Integer interval after interval factor and prev+1 constraints applied */
-    private int _constrainedIvl(int ivl, JSONObject conf, double prev) {
-    	double newIvl = ivl;
-    	newIvl = ivl * conf.optDouble("ivlFct",1.0);
+    private int _constrainedIvl(int ivl, DeckConfig.Rev conf, double prev) {
+        double newIvl = ivl * conf.ivlFct;
         return (int) Math.max(newIvl, prev + 1);
     }
 
@@ -1503,7 +1705,7 @@ public class Sched {
 
 
     private void _updateRevIvl(Card card, int ease) {
-        int idealIvl = _nextRevIvl(card, ease);
+        int idealIvl = mAnswerPreview != null ? mAnswerPreview.getRevIvl(ease) : _nextRevIvl(card, ease);
         card.setIvl(_adjRevIvl(card, idealIvl));
     }
 
@@ -1528,6 +1730,17 @@ public class Sched {
 
 
     public List<Long> rebuildDyn(long did) {
+        return rebuildDyn(did, null);
+    }
+
+
+    /**
+     * Not in libanki. Rebuild a dynamic deck, reporting the progress as a percentage to PROGRESS. The rebuild is done
+     * in one transaction; if the task of PROGRESS is cancelled, it is rolled back and the deck is left as it was.
+     *
+     * @return The ids of the cards moved into the deck, or null if there are none or the rebuild was cancelled.
+     */
+    public List<Long> rebuildDyn(long did, DeckTask.ProgressCallback progress) {
         if (did == 0) {
             did = mCol.getDecks().selected();
         }
@@ -1540,9 +1753,20 @@ public class Sched {
         } catch (JSONException e1) {
             throw new RuntimeException(e1);
         }
-        // move any existing cards back first, then fill
-        emptyDyn(did);
-        List<Long> ids = _fillDyn(deck);
+        List<Long> ids;
+        mCol.getDb().beginTransaction();
+        try {
+            // move any existing cards back first, then fill
+            emptyDyn(did);
+            ids = _fillDyn(deck, progress);
+            if (ids == null) {
+                Timber.i("rebuildDyn() cancelled");
+                return null;
+            }
+            mCol.getDb().setTransactionSuccessful();
+        } finally {
+            mCol.getDb().endTransaction();
+        }
         if (ids.isEmpty()) {
             return null;
         }
@@ -1552,11 +1776,16 @@ public class Sched {
     }
 
 
-    private List<Long> _fillDyn(JSONObject deck) {
-        JSONArray terms;
-        List<Long> ids;
+    /**
+     * Move the cards matching the search of DECK into it. The matching ids are written to a temporary table in the
+     * order of the deck, and the cards are moved with UPDATEs that read their position from it, rather than with
+     * one statement per card.
+     *
+     * @return The ids of the moved cards, or null if the task of PROGRESS was cancelled.
+     */
+    private List<Long> _fillDyn(JSONObject deck, DeckTask.ProgressCallback progress) {
         try {
-            terms = deck.getJSONArray("terms").getJSONArray(0);
+            JSONArray terms = deck.getJSONArray("terms").getJSONArray(0);
             String search = terms.getString(0);
             int limit = terms.getInt(1);
             int order = terms.getInt(2);
@@ -1565,17 +1794,40 @@ public class Sched {
                 search = String.format(Locale.US, "(%s)", search);
             }
             search = String.format(Locale.US, "%s -is:suspended -is:buried -deck:filtered", search);
-            ids = mCol.findCards(search, orderlimit);
-            if (ids.isEmpty()) {
-                return ids;
+            Finder finder = new Finder(mCol);
+            Pair<String, String[]> query = finder.findCardsQuery(search, orderlimit);
+            if (query == null) {
+                return new ArrayList<>();
+            }
+            DB db = mCol.getDb();
+            // the rowid of an empty table starts at 1, so pos - 1 is the index of the card in the search results
+            db.execute("CREATE TEMP TABLE IF NOT EXISTS dyn_ids (pos INTEGER PRIMARY KEY, id INTEGER NOT NULL)");
+            db.execute("CREATE INDEX IF NOT EXISTS dyn_ids_id ON dyn_ids (id)");
+            db.execute("DELETE FROM dyn_ids");
+            try {
+                db.execute("INSERT INTO dyn_ids (id) " + query.first, query.second);
+            } catch (SQLException e) {
+                // invalid grouping
+                return new ArrayList<>();
+            } finally {
+                finder.release();
+            }
+            if (progress != null && progress.isCancelled()) {
+                return null;
+            }
+            List<Long> ids = db.queryColumn(Long.class, "SELECT id FROM dyn_ids ORDER BY pos", 0);
+            if (!ids.isEmpty()) {
+                // move the cards over
+                mCol.log(deck.getLong("id"), ids);
+                if (!_moveToDyn(deck.getLong("id"), ids.size(), progress)) {
+                    return null;
+                }
             }
-            // move the cards over
-            mCol.log(deck.getLong("id"), ids);
-            _moveToDyn(deck.getLong("id"), ids);
+            db.execute("DELETE FROM dyn_ids");
+            return ids;
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
-        return ids;
     }
 
 
@@ -1589,6 +1841,7 @@ public class Sched {
             lim = "did = " + did;
         }
         mCol.log(mCol.getDb().queryColumn(Long.class, "select id from cards where " + lim, 0));
+        mPrefetched.clear();
         // move out of cram queue
         mCol.getDb().execute(
                 "update cards set did = odid, queue = (case when type = 1 then 0 " +
@@ -1650,21 +1903,34 @@ public class Sched {
     }
 
 
-    private void _moveToDyn(long did, List<Long> ids) {
-        ArrayList<Object[]> data = new ArrayList<>();
-        long t = Utils.intNow();
+    /**
+     * Move the COUNT cards listed in the dyn_ids table to deck DID. Without PROGRESS this is a single UPDATE; with
+     * it, the cards are moved in batches so that progress can be reported and cancellation noticed in between.
+     *
+     * @return False if the task of PROGRESS was cancelled.
+     */
+    private boolean _moveToDyn(long did, int count, DeckTask.ProgressCallback progress) {
         int u = mCol.usn();
-        for (long c = 0; c < ids.size(); c++) {
-            // start at -100000 so that reviews are all due
-            data.add(new Object[] { did, -100000 + c, u, ids.get((int) c) });
-        }
+        int batch = progress == null ? count : DYN_PROGRESS_BATCH;
         // due reviews stay in the review queue. careful: can't use "odid or did", as sqlite converts to boolean
         String queue = "(CASE WHEN type = 2 AND (CASE WHEN odue THEN odue <= " + mToday +
                 " ELSE due <= " + mToday + " END) THEN 2 ELSE 0 END)";
-        mCol.getDb().executeMany(
-                "UPDATE cards SET odid = (CASE WHEN odid THEN odid ELSE did END), " +
-                        "odue = (CASE WHEN odue THEN odue ELSE due END), did = ?, queue = " +
-                        queue + ", due = ?, usn = ? WHERE id = ?", data);
+        for (int done = 0; done < count; done += batch) {
+            if (progress != null && progress.isCancelled()) {
+                return false;
+            }
+            // start at -100000 so that reviews are all due
+            mCol.getDb().execute(
+                    "UPDATE cards SET odid = (CASE WHEN odid THEN odid ELSE did END), " +
+                            "odue = (CASE WHEN odue THEN odue ELSE due END), did = ?, queue = " + queue +
+                            ", due = (SELECT -100000 + pos - 1 FROM dyn_ids WHERE dyn_ids.id = cards.id), usn = ? " +
+                            "WHERE id IN (SELECT id FROM dyn_ids WHERE pos > ? AND pos <= ?)",
+                    new Object[] { did, u, done, done + batch });
+            if (progress != null) {
+                progress.publishProgress(new DeckTask.TaskData(Math.min(count, done + batch) * 100 / count));
+            }
+        }
+        return true;
     }
 
 
@@ -1676,12 +1942,7 @@ public class Sched {
         long elapsed = card.getIvl() - (card.getODue() - mToday);
         double factor = ((card.getFactor() / 1000.0) + 1.2) / 2.0;
         int ivl = Math.max(1, Math.max(card.getIvl(), (int) (elapsed * factor)));
-        JSONObject conf = _revConf(card);
-        try {
-            return Math.min(conf.getInt("maxIvl"), ivl);
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+        return Math.min(_revConf(card).maxIvl, ivl);
     }
 
 
@@ -1689,42 +1950,43 @@ public class Sched {
      * Leeches ****************************************************************** *****************************
      */
 
+    /** Not in libanki. True if a card with LAPSES lapses is a leech under the lapse CONF. */
+    private boolean _isLeech(int lapses, DeckConfig.Lapse conf) {
+        int lf = conf.leechFails;
+        if (lf == 0) {
+            return false;
+        }
+        // if over threshold or every half threshold reps after that
+        return lapses >= lf && (lapses - lf) % Math.max(lf / 2, 1) == 0;
+    }
+
+
     /** Leech handler. True if card was a leech. */
-    private boolean _checkLeech(Card card, JSONObject conf) {
-        int lf;
-        try {
-            lf = conf.getInt("leechFails");
-            if (lf == 0) {
-                return false;
-            }
-            // if over threshold or every half threshold reps after that
-            if (card.getLapses() >= lf && (card.getLapses() - lf) % Math.max(lf / 2, 1) == 0) {
-                // add a leech tag
-                Note n = card.note();
-                n.addTag("leech");
-                n.flush();
-                // handle
-                if (conf.getInt("leechAction") == 0) {
-                    // if it has an old due, remove it from cram/relearning
-                    if (card.getODue() != 0) {
-                        card.setDue(card.getODue());
-                    }
-                    if (card.getODid() != 0) {
-                        card.setDid(card.getODid());
-                    }
-                    card.setODue(0);
-                    card.setODid(0);
-                    card.setQueue(-1);
+    private boolean _checkLeech(Card card, DeckConfig.Lapse conf) {
+        if (_isLeech(card.getLapses(), conf)) {
+            // add a leech tag
+            Note n = card.note();
+            n.addTag("leech");
+            n.flush();
+            // handle
+            if (conf.leechAction == 0) {
+                // if it has an old due, remove it from cram/relearning
+                if (card.getODue() != 0) {
+                    card.setDue(card.getODue());
                 }
-                // notify UI
-                if (mContextReference != null) {
-                    Context context = mContextReference.get();
-                    Hooks.getInstance(context).runHook("leech", card, context);
+                if (card.getODid() != 0) {
+                    card.setDid(card.getODid());
                 }
-                return true;
+                card.setODue(0);
+                card.setODid(0);
+                card.setQueue(-1);
             }
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+            // notify UI
+            if (mContextReference != null) {
+                Context context = mContextReference.get();
+                Hooks.getInstance(context).runHook("leech", card, context);
+            }
+            return true;
         }
         return false;
     }
@@ -1739,77 +2001,31 @@ public class Sched {
     }
 
 
-    private JSONObject _newConf(Card card) {
-        try {
-            JSONObject conf = _cardConf(card);
-            // normal deck
-            if (card.getODid() == 0) {
-                return conf.getJSONObject("new");
-            }
-            // dynamic deck; override some attributes, use original deck for others
-            JSONObject oconf = mCol.getDecks().confForDid(card.getODid());
-            JSONArray delays = conf.optJSONArray("delays");
-            if (delays == null) {
-                delays = oconf.getJSONObject("new").getJSONArray("delays");
-            }
-            JSONObject dict = new JSONObject();
-            // original deck
-            dict.put("ints", oconf.getJSONObject("new").getJSONArray("ints"));
-            dict.put("initialFactor", oconf.getJSONObject("new").getInt("initialFactor"));
-            dict.put("bury", oconf.getJSONObject("new").optBoolean("bury", true));
-            // overrides
-            dict.put("delays", delays);
-            dict.put("separate", conf.getBoolean("separate"));
-            dict.put("order", Consts.NEW_CARDS_DUE);
-            dict.put("perDay", mReportLimit);
-            return dict;
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+    private DeckConfig.New _newConf(Card card) {
+        DeckConfig conf = mCol.getDecks().config(card.getDid());
+        // normal deck
+        if (card.getODid() == 0) {
+            return conf.newConf;
         }
+        // dynamic deck; override some attributes, use original deck for others
+        return conf.filteredNew(mCol.getDecks().config(card.getODid()), mReportLimit);
     }
 
 
-    private JSONObject _lapseConf(Card card) {
-        try {
-            JSONObject conf = _cardConf(card);
-            // normal deck
-            if (card.getODid() == 0) {
-                return conf.getJSONObject("lapse");
-            }
-            // dynamic deck; override some attributes, use original deck for others
-            JSONObject oconf = mCol.getDecks().confForDid(card.getODid());
-            JSONArray delays = conf.optJSONArray("delays");
-            if (delays == null) {
-                delays = oconf.getJSONObject("lapse").getJSONArray("delays");
-            }
-            JSONObject dict = new JSONObject();
-            // original deck
-            dict.put("minInt", oconf.getJSONObject("lapse").getInt("minInt"));
-            dict.put("leechFails", oconf.getJSONObject("lapse").getInt("leechFails"));
-            dict.put("leechAction", oconf.getJSONObject("lapse").getInt("leechAction"));
-            dict.put("mult", oconf.getJSONObject("lapse").getDouble("mult"));
-            // overrides
-            dict.put("delays", delays);
-            dict.put("resched", conf.getBoolean("resched"));
-            return dict;
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+    private DeckConfig.Lapse _lapseConf(Card card) {
+        DeckConfig conf = mCol.getDecks().config(card.getDid());
+        // normal deck
+        if (card.getODid() == 0) {
+            return conf.lapse;
         }
+        // dynamic deck; override some attributes, use original deck for others
+        return conf.filteredLapse(mCol.getDecks().config(card.getODid()));
     }
 
 
-    private JSONObject _revConf(Card card) {
-        try {
-            JSONObject conf = _cardConf(card);
-            // normal deck
-            if (card.getODid() == 0) {
-                return conf.getJSONObject("rev");
-            }
-            // dynamic deck
-            return mCol.getDecks().confForDid(card.getODid()).getJSONObject("rev");
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+    private DeckConfig.Rev _revConf(Card card) {
+        // dynamic decks use the options of the original deck
+        return mCol.getDecks().config(card.getODid() == 0 ? card.getDid() : card.getODid()).rev;
     }
 
 
@@ -1819,15 +2035,8 @@ public class Sched {
 
 
     private boolean _resched(Card card) {
-        JSONObject conf = _cardConf(card);
-        try {
-            if (conf.getInt("dyn") == 0) {
-                return true;
-            }
-            return conf.getBoolean("resched");
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+        // always true for normal decks
+        return mCol.getDecks().config(card.getDid()).resched;
     }
 
 
@@ -1877,12 +2086,213 @@ public class Sched {
 
     public void _checkDay() {
         // check if the day has rolled over
-        if (Utils.now() > mDayCutoff) {
+        if (Utils.now() > mDayCutoff && !_swapInNextDay()) {
             reset();
         }
     }
 
 
+    /**
+     * Next day *****************************************************************
+     * *****************************************
+     */
+
+    /**
+     * Not in libanki. How long before the day cutoff {@link #prepareNextDay()} does its work. Anything done to the
+     * collection in between makes the prepared queues useless, so earlier would mostly be wasted.
+     */
+    public static final int NEXT_DAY_WINDOW = 6 * 3600;
+
+
+    /**
+     * Not in libanki. The counts and first queue fills of the next day, and what they were computed from. They are
+     * only used if none of it has changed by the time the day rolls over.
+     */
+    private static class NextDay {
+        final int today;
+        final long cardsMod;
+        final long decksSaveCount;
+        final List<Long> activeDids;
+
+        int newCount;
+        int lrnCount;
+        int revCount;
+        final CardIdQueue newQueue = new CardIdQueue();
+        final SiblingIndex newSiblings = new SiblingIndex();
+        final CardIdHeap lrnQueue = new CardIdHeap();
+        final CardIdQueue lrnDayQueue = new CardIdQueue();
+        final CardIdQueue revQueue = new CardIdQueue();
+        final SiblingIndex revSiblings = new SiblingIndex();
+        LinkedList<Long> newDids;
+        LinkedList<Long> lrnDids;
+        LinkedList<Long> revDids;
+
+
+        NextDay(int today, long cardsMod, long decksSaveCount, List<Long> activeDids) {
+            this.today = today;
+            this.cardsMod = cardsMod;
+            this.decksSaveCount = decksSaveCount;
+            this.activeDids = activeDids;
+        }
+    }
+
+
+    // The limits of the next day, when the cards studied today no longer count
+    private final CountFn mNextDayNewCountFn = new CountFn() {
+        @Override
+        public int limit(JSONObject deck) {
+            try {
+                if (deck.getInt("dyn") != 0) {
+                    return mReportLimit;
+                }
+                return mCol.getDecks().config(deck.getLong("id")).newConf.perDay;
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+
+        @Override
+        public int count(long did, int lim) {
+            return _cntFnNew(did, lim);
+        }
+    };
+
+
+    private final CountFn mNextDayRevCountFn = new CountFn() {
+        @Override
+        public int limit(JSONObject deck) {
+            try {
+                if (deck.getInt("dyn") != 0) {
+                    return mReportLimit;
+                }
+                return mCol.getDecks().config(deck.getLong("id")).rev.perDay;
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+
+        @Override
+        public int count(long did, int lim) {
+            return mCol.getDb().queryScalar(
+                    "SELECT count() FROM (SELECT id FROM cards WHERE did = " + did + " AND queue = 2 and due <= "
+                            + (mToday + 1) + " LIMIT " + lim + ")");
+        }
+    };
+
+
+    /**
+     * Not in libanki. Compute the counts and the first queue fills of the next day, so that the first getCard() after
+     * the day cutoff can use them instead of rebuilding the queues while the user waits. Meant to be called in the
+     * background when the app is idle; it does nothing until {@link #NEXT_DAY_WINDOW} before the cutoff, or when the
+     * rollover would unbury cards.
+     *
+     * @return Whether the next day is prepared.
+     */
+    public boolean prepareNextDay() {
+        long now = Utils.intNow();
+        if (now > mDayCutoff || mDayCutoff - now > NEXT_DAY_WINDOW) {
+            return false;
+        }
+        if (isNextDayPrepared()) {
+            return true;
+        }
+        LinkedList<Long> active = mCol.getDecks().active();
+        mNextDay = null;
+        // the rollover unburies all cards, which these queues couldn't take into account
+        if (mCol.getDb().queryScalar("SELECT 1 FROM cards WHERE queue = -2 LIMIT 1") != 0) {
+            return false;
+        }
+        NextDay next = new NextDay(mToday + 1, mCol.getDb().getCardsMod(), mCol.getDecks().getSaveCount(), active);
+        long cutoff = mDayCutoff + 86400;
+        next.lrnCount = mCol.getDb().queryScalar(
+                "SELECT sum(left / 1000) FROM (SELECT left FROM cards WHERE did IN " + _deckLimit()
+                        + " AND queue = 1 AND due < " + cutoff + " LIMIT " + mReportLimit + ")");
+        next.lrnCount += mCol.getDb().queryScalar(
+                "SELECT count() FROM cards WHERE did IN " + _deckLimit() + " AND queue = 3 AND due <= " + next.today
+                        + " LIMIT " + mReportLimit);
+        next.revCount = _walkingCount(mNextDayRevCountFn);
+        next.newCount = _walkingCount(mNextDayNewCountFn);
+        _fillLrnQueue(next.lrnQueue, cutoff);
+        next.lrnDids = new LinkedList<>(active);
+        _fillLrnDayQueue(next.lrnDids, next.lrnDayQueue, next.today);
+        next.revDids = new LinkedList<>(active);
+        _fillRevQueue(next.revDids, next.revQueue, next.revSiblings, mNextDayRevCountFn, next.today);
+        next.newDids = new LinkedList<>(active);
+        _fillNewQueue(next.newDids, next.newQueue, next.newSiblings, mNextDayNewCountFn);
+        mNextDay = next;
+        return true;
+    }
+
+
+    /** Not in libanki. True if the next day is prepared, and nothing has changed since that would make it stale. */
+    public boolean isNextDayPrepared() {
+        return mNextDay != null && _isCurrent(mNextDay, mCol.getDecks().active());
+    }
+
+
+    /** Not in libanki. True if neither the cards nor the decks have changed since NEXT was prepared. */
+    private boolean _isCurrent(NextDay next, List<Long> active) {
+        return next.cardsMod == mCol.getDb().getCardsMod()
+                && next.decksSaveCount == mCol.getDecks().getSaveCount()
+                && next.activeDids.equals(active);
+    }
+
+
+    /**
+     * Not in libanki. Roll the day over with the queues prepared by {@link #prepareNextDay()}, if they are still
+     * current and for the day we're rolling over to.
+     *
+     * @return False if there was nothing to use, and the caller should reset().
+     */
+    private boolean _swapInNextDay() {
+        NextDay next = mNextDay;
+        mNextDay = null;
+        if (next == null || !mHaveQueues || !_isCurrent(next, mCol.getDecks().active())) {
+            return false;
+        }
+        mPrefetched.clear();
+        mDeckParents.clear();
+        mDeckIdsByName = null;
+        _updateCutoff();
+        if (mToday != next.today) {
+            // more than one day has passed
+            _resetLrn();
+            _resetRev();
+            _resetNew();
+            return true;
+        }
+        mLrnCount = next.lrnCount;
+        mLrnQueue.clear();
+        while (!next.lrnQueue.isEmpty()) {
+            long due = next.lrnQueue.getFirstKey();
+            mLrnQueue.add(due, next.lrnQueue.remove());
+        }
+        mLrnDayQueue.clear();
+        for (long id : next.lrnDayQueue.toArray()) {
+            mLrnDayQueue.add(id);
+        }
+        mLrnDids = next.lrnDids;
+        mRevCount = next.revCount;
+        mRevQueue.clear();
+        for (long id : next.revQueue.toArray()) {
+            mRevQueue.add(id);
+        }
+        mRevSiblings = next.revSiblings;
+        mRevDids = next.revDids;
+        mNewCount = next.newCount;
+        mNewQueue.clear();
+        for (long id : next.newQueue.toArray()) {
+            mNewQueue.add(id);
+        }
+        mNewSiblings = next.newSiblings;
+        mNewDids = next.newDids;
+        _updateNewCardRatio();
+        return true;
+    }
+
+
     /**
      * Deck finished state ******************************************************
      * *****************************************
@@ -1993,57 +2403,90 @@ public class Sched {
      * Return the next interval for CARD, in seconds.
      */
     public int nextIvl(Card card, int ease) {
-        try {
-            if (card.getQueue() == 0 || card.getQueue() == 1 || card.getQueue() == 3) {
-                return _nextLrnIvl(card, ease);
-            } else if (ease == 1) {
-                // lapsed
-                JSONObject conf = _lapseConf(card);
-                if (conf.getJSONArray("delays").length() > 0) {
-                    return (int) (conf.getJSONArray("delays").getDouble(0) * 60.0);
+        return answerPreview(card).getIvl(ease);
+    }
+
+
+    /**
+     * Not in libanki. The outcome of every answer button for CARD. It is computed without changing the card, and
+     * cached on it until the card is answered or otherwise changed.
+     */
+    public AnswerPreview answerPreview(Card card) {
+        AnswerPreview preview = card.getAnswerPreview();
+        if (preview == null || !preview.isFor(card, mToday)) {
+            preview = _previewAnswers(card);
+            card.setAnswerPreview(preview);
+        }
+        return preview;
+    }
+
+
+    private AnswerPreview _previewAnswers(Card card) {
+        AnswerPreview preview = new AnswerPreview(card, mToday, answerButtons(card));
+        if (card.getQueue() == 0 || card.getQueue() == 1 || card.getQueue() == 3) {
+            // new cards start with a full set of steps
+            int left = card.getQueue() == 0 ? _startingLeft(card) : card.getLeft();
+            DeckConfig.Steps conf = _lrnConf(card);
+            for (int ease = 1; ease <= 4; ease++) {
+                if (ease == 1) {
+                    // fail
+                    _previewLrnStep(preview, ease, _delayForGrade(conf, conf.delays.length));
+                } else if (ease == 3 || left % 1000 - 1 <= 0) {
+                    // early removal, or graduate
+                    _previewGraduation(preview, card, conf, ease, ease == 3);
+                } else {
+                    _previewLrnStep(preview, ease, _delayForGrade(conf, left % 1000 - 1));
                 }
-                return _nextLapseIvl(card, conf) * 86400;
+            }
+        } else {
+            boolean resched = _resched(card);
+            // lapsed
+            DeckConfig.Lapse conf = _lapseConf(card);
+            int lapseIvl = _nextLapseIvl(card, conf);
+            preview.setRevIvl(1, lapseIvl);
+            long due = resched ? mToday + lapseIvl : card.getDue();
+            if (_isLeech(resched ? card.getLapses() + 1 : card.getLapses(), conf)
+                    && conf.leechAction == 0) {
+                // suspended
+                int ivl = conf.delays.length > 0 ? _delayForGrade(conf, 0) : lapseIvl * 86400;
+                preview.set(1, ivl, -1, card.getODue() != 0 ? card.getODue() : due);
+            } else if (conf.delays.length > 0) {
+                _previewLrnStep(preview, 1, _delayForGrade(conf, 0));
             } else {
-                // review
-                return _nextRevIvl(card, ease) * 86400;
+                preview.set(1, lapseIvl * 86400, 2, due);
+            }
+            // review
+            for (int ease = 2; ease <= 4; ease++) {
+                int ivl = _nextRevIvl(card, ease);
+                preview.setRevIvl(ease, ivl);
+                preview.set(ease, ivl * 86400, 2, resched ? mToday + ivl : card.getODue());
             }
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
         }
+        return preview;
     }
 
 
-    private int _nextLrnIvl(Card card, int ease) {
-        // this isn't easily extracted from the learn code
-        if (card.getQueue() == 0) {
-            card.setLeft(_startingLeft(card));
+    /** Record a step of DELAY seconds in the (day) learning queue as the outcome of EASE. */
+    private void _previewLrnStep(AnswerPreview preview, int ease, int delay) {
+        long due = Utils.intNow() + delay;
+        if (due < mDayCutoff) {
+            preview.set(ease, delay, 1, due);
+        } else {
+            preview.set(ease, delay, 3, mToday + ((due - mDayCutoff) / 86400) + 1);
         }
-        JSONObject conf = _lrnConf(card);
-        try {
-            if (ease == 1) {
-                // fail
-                return _delayForGrade(conf, conf.getJSONArray("delays").length());
-            } else if (ease == 3) {
-                // early removal
-                if (!_resched(card)) {
-                    return 0;
-                }
-                return _graduatingIvl(card, conf, true, false) * 86400;
-            } else {
-                int left = card.getLeft() % 1000 - 1;
-                if (left <= 0) {
-                    // graduate
-                    if (!_resched(card)) {
-                        return 0;
-                    }
-                    return _graduatingIvl(card, conf, false, false) * 86400;
-                } else {
-                    return _delayForGrade(conf, left);
-                }
-            }
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+    }
+
+
+    /** Record the graduation of a learning card as the outcome of EASE. */
+    private void _previewGraduation(AnswerPreview preview, Card card, DeckConfig.Steps conf, int ease, boolean early) {
+        boolean lapse = card.getType() == 2;
+        if (!_resched(card)) {
+            // leaving a filtered deck as it was
+            preview.set(ease, 0, lapse ? 2 : 0, lapse ? card.getODue() : 0);
+            return;
         }
+        int ivl = _graduatingIvl(card, conf, early, false);
+        preview.set(ease, ivl * 86400, 2, lapse ? Math.max(mToday + 1, card.getODue()) : mToday + ivl);
     }
 
 
@@ -2056,11 +2499,15 @@ public class Sched {
      */
     public void suspendCards(long[] ids) {
         mCol.log(ids);
+        mPrefetched.clear();
+        String counted = "id IN " + Utils.ids2str(ids);
+        _removeFromDueCounts(counted);
         remFromDyn(ids);
         removeLrn(ids);
         mCol.getDb().execute(
                 "UPDATE cards SET queue = -1, mod = " + Utils.intNow() + ", usn = " + mCol.usn() + " WHERE id IN "
                         + Utils.ids2str(ids));
+        _addToDueCounts(counted);
     }
 
 
@@ -2069,18 +2516,26 @@ public class Sched {
      */
     public void unsuspendCards(long[] ids) {
         mCol.log(ids);
+        mPrefetched.clear();
+        String counted = "id IN " + Utils.ids2str(ids);
+        _removeFromDueCounts(counted);
         mCol.getDb().execute(
                 "UPDATE cards SET queue = type, mod = " + Utils.intNow() + ", usn = " + mCol.usn()
                         + " WHERE queue = -1 AND id IN " + Utils.ids2str(ids));
+        _addToDueCounts(counted);
     }
 
 
     public void buryCards(long[] cids) {
         mCol.log(cids);
+        mPrefetched.clear();
+        String counted = "id in " + Utils.ids2str(cids);
+        _removeFromDueCounts(counted);
         remFromDyn(cids);
         removeLrn(cids);
         mCol.getDb().execute("update cards set queue=-2,mod=?,usn=? where id in " + Utils.ids2str(cids),
                 new Object[]{Utils.now(), mCol.usn()});
+        _addToDueCounts(counted);
     }
 
 
@@ -2100,44 +2555,47 @@ public class Sched {
      */
 
     private void _burySiblings(Card card) {
-        LinkedList<Long> toBury = new LinkedList<>();
-        JSONObject nconf = _newConf(card);
-        boolean buryNew = nconf.optBoolean("bury", true);
-        JSONObject rconf = _revConf(card);
-        boolean buryRev = rconf.optBoolean("bury", true);
-        // loop through and remove from queues
-        Cursor cur = null;
-        try {
-            cur = mCol.getDb().getDatabase().rawQuery(String.format(Locale.US,
-                    "select id, queue from cards where nid=%d and id!=%d "+
-                    "and (queue=0 or (queue=2 and due<=%d))", card.getNid(), card.getId(), mToday), null);
-            while (cur.moveToNext()) {
-                long cid = cur.getLong(0);
-                int queue = cur.getInt(1);
-                if (queue == 2) {
-                    if (buryRev) {
-                        toBury.add(cid);
-                    }
-                    // if bury disabled, we still discard to give same-day spacing
-                    mRevQueue.remove(cid);
-                } else {
-                    // if bury is disabled, we still discard to give same-day spacing
-                    if (buryNew) {
-                        toBury.add(cid);
-                    }
-                    mNewQueue.remove(cid);
-                }
+        boolean buryNew = _newConf(card).bury;
+        boolean buryRev = _revConf(card).bury;
+        // remove from queues; if bury is disabled, we still discard to give same-day spacing
+        // Not in libanki: the queued siblings are known from the sibling indexes, without a query
+        _discardSiblings(card, mRevQueue, mRevSiblings.remove(card.getNid()));
+        _discardSiblings(card, mNewQueue, mNewSiblings.remove(card.getNid()));
+        // then bury, queued or not
+        if (buryNew || buryRev) {
+            String queues;
+            if (buryNew && buryRev) {
+                queues = "(queue = 0 OR (queue = 2 AND due <= " + mToday + "))";
+            } else if (buryNew) {
+                queues = "queue = 0";
+            } else {
+                queues = "queue = 2 AND due <= " + mToday;
             }
-        } finally {
-            if (cur != null && !cur.isClosed()) {
-                cur.close();
+            String siblings = "nid = " + card.getNid() + " AND id != " + card.getId() + " AND " + queues;
+            // Not in libanki: the siblings may not be queued, so they are read to take them out of the deck counts
+            _removeFromDueCounts(siblings);
+            mCol.getDb().execute("UPDATE cards SET queue = -2, mod = ?, usn = ? WHERE " + siblings,
+                    new Object[] { Utils.now(), mCol.usn() });
+            // buried cards aren't counted, so there is nothing to put back
+            if (mDueCounts != null) {
+                mDueCounts.stamp();
             }
+            // and they were discarded from the prefetched cards above
+            mPrefetchedMod = mCol.getDb().getCardsMod();
+            mCol.log(card.getNid());
         }
-        // then bury
-        if (toBury.size() > 0) {
-            mCol.getDb().execute("update cards set queue=-2,mod=?,usn=? where id in " + Utils.ids2str(toBury),
-                    new Object[] { Utils.now(), mCol.usn() });
-            mCol.log(toBury);
+    }
+
+
+    private void _discardSiblings(Card card, CardIdQueue queue, long[] cids) {
+        if (cids == null) {
+            return;
+        }
+        for (long cid : cids) {
+            if (cid != card.getId()) {
+                queue.remove(cid);
+                mPrefetched.remove(cid);
+            }
         }
     }
 
@@ -2148,6 +2606,7 @@ public class Sched {
 
     /** Put cards at the end of the new queue. */
     public void forgetCards(long[] ids) {
+        mPrefetched.clear();
         remFromDyn(ids);
         mCol.getDb().execute("update cards set type=0,queue=0,ivl=0,due=0,odue=0,factor=2500" +
                 " where id in " + Utils.ids2str(ids));
@@ -2174,6 +2633,7 @@ public class Sched {
             int r = rnd.nextInt(imax - imin + 1) + imin;
             d.add(new Object[] { Math.max(1, r), r + t, mCol.usn(), mod, 2500, id });
         }
+        mPrefetched.clear();
         remFromDyn(ids);
         mCol.getDb().executeMany(
                 "update cards set type=2,queue=2,ivl=?,due=?,odue=0, " +
@@ -2205,83 +2665,172 @@ public class Sched {
 
 
     public void sortCards(long[] cids, int start, int step, boolean shuffle, boolean shift) {
-        String scids = Utils.ids2str(cids);
-        long now = Utils.intNow();
-        ArrayList<Long> nids = new ArrayList<>();
-        for (long id : cids) {
-        	long nid = mCol.getDb().queryLongScalar("SELECT nid FROM cards WHERE id = " + id);
-        	if (!nids.contains(nid)) {
-        		nids.add(nid);
-        	}
-        }
-        if (nids.size() == 0) {
-            // no new cards
-            return;
-        }
-        // determine nid ordering
-        HashMap<Long, Long> due = new HashMap<>();
-        if (shuffle) {
-            Collections.shuffle(nids);
-        }
-        for (int c = 0; c < nids.size(); c++) {
-            due.put(nids.get(c), (long) (start + c * step));
-        }
-        int high = start + step * (nids.size() - 1);
-        // shift?
-        if (shift) {
-            int low = mCol.getDb().queryScalar(
-                    "SELECT min(due) FROM cards WHERE due >= " + start + " AND type = 0 AND id NOT IN " + scids);
-            if (low != 0) {
-                int shiftby = high - low + 1;
-                mCol.getDb().execute(
-                        "UPDATE cards SET mod = " + now + ", usn = " + mCol.usn() + ", due = due + " + shiftby
-                                + " WHERE id NOT IN " + scids + " AND due >= " + low + " AND queue = 0");
-            }
-        }
-        // reorder cards
-        ArrayList<Object[]> d = new ArrayList<>();
-        Cursor cur = null;
+        sortCards(cids, start, step, shuffle, shift, null);
+    }
+
+
+    /**
+     * Not in libanki. Give the new cards of CIDS consecutive positions, by note, reporting the progress as a
+     * percentage to PROGRESS.
+     *
+     * The notes are numbered in a temporary table in the order they first appear in CIDS, or in random order if
+     * SHUFFLE is set, and the cards then take their position from it in set-based UPDATEs, all in one transaction.
+     */
+    public void sortCards(long[] cids, int start, int step, boolean shuffle, boolean shift,
+            DeckTask.ProgressCallback progress) {
+        DB db = mCol.getDb();
+        db.beginTransaction();
         try {
-            cur = mCol.getDb().getDatabase()
-                    .rawQuery("SELECT id, nid FROM cards WHERE type = 0 AND id IN " + scids, null);
-            while (cur.moveToNext()) {
-                long nid = cur.getLong(1);
-                d.add(new Object[] { due.get(nid), now, mCol.usn(), cur.getLong(0) });
+            _prepareSortTables();
+            ArrayList<Object[]> rows = new ArrayList<>();
+            for (long cid : cids) {
+                rows.add(new Object[] { cid });
+            }
+            db.executeMany("INSERT INTO sort_cids (id) VALUES (?)", rows);
+            if (shuffle) {
+                db.execute("INSERT INTO sort_nids (nid) SELECT nid FROM (SELECT DISTINCT c.nid AS nid "
+                        + "FROM sort_cids s, cards c WHERE c.id = s.id) ORDER BY random()");
+            } else {
+                // the unique constraint drops all but the first card of each note
+                db.execute("INSERT OR IGNORE INTO sort_nids (nid) SELECT c.nid FROM sort_cids s, cards c "
+                        + "WHERE c.id = s.id ORDER BY s.pos");
             }
+            _repositionNew("id IN (SELECT id FROM sort_cids)", start, step, shift, progress, 0, 1);
+            db.setTransactionSuccessful();
         } finally {
-            if (cur != null && !cur.isClosed()) {
-                cur.close();
-            }
+            db.endTransaction();
         }
-        mCol.getDb().executeMany("UPDATE cards SET due = ?, mod = ?, usn = ? WHERE id = ?", d);
     }
 
 
     public void randomizeCards(long did) {
-        List<Long> cids = mCol.getDb().queryColumn(Long.class, "select id from cards where did = " + did, 0);
-        sortCards(Utils.toPrimitive(cids), 1, 1, true, false);
+        randomizeCards(did, null);
+    }
+
+
+    /** Not in libanki. Randomize the new cards of DID, reporting the progress as a percentage to PROGRESS. */
+    public void randomizeCards(long did, DeckTask.ProgressCallback progress) {
+        _sortDeckInTransaction(did, true, progress);
     }
 
 
     public void orderCards(long did) {
-        List<Long> cids = mCol.getDb().queryColumn(Long.class, "SELECT id FROM cards WHERE did = " + did + " ORDER BY id", 0);
-        sortCards(Utils.toPrimitive(cids), 1, 1, false, false);
+        orderCards(did, null);
+    }
+
+
+    /** Not in libanki. Put the new cards of DID in the order they were added, reporting progress to PROGRESS. */
+    public void orderCards(long did, DeckTask.ProgressCallback progress) {
+        _sortDeckInTransaction(did, false, progress);
     }
 
 
     public void resortConf(JSONObject conf) {
+        resortConf(conf, null);
+    }
+
+
+    /** Not in libanki. Reorder the new cards of every deck using CONF, reporting the progress to PROGRESS. */
+    public void resortConf(JSONObject conf, DeckTask.ProgressCallback progress) {
         List<Long> dids = mCol.getDecks().didsForConf(conf);
+        mCol.getDb().beginTransaction();
         try {
-            for (long did : dids) {
-                if (conf.getJSONObject("new").getLong("order") == 0) {
-                    randomizeCards(did);
-                } else {
-                    orderCards(did);
-                }
+            boolean shuffle = conf.getJSONObject("new").getLong("order") == 0;
+            for (int i = 0; i < dids.size(); i++) {
+                _sortDeck(dids.get(i), shuffle, progress, i, dids.size());
             }
+            mCol.getDb().setTransactionSuccessful();
         } catch (JSONException e) {
             throw new RuntimeException(e);
+        } finally {
+            mCol.getDb().endTransaction();
+        }
+    }
+
+
+    private void _sortDeckInTransaction(long did, boolean shuffle, DeckTask.ProgressCallback progress) {
+        mCol.getDb().beginTransaction();
+        try {
+            _sortDeck(did, shuffle, progress, 0, 1);
+            mCol.getDb().setTransactionSuccessful();
+        } finally {
+            mCol.getDb().endTransaction();
+        }
+    }
+
+
+    /**
+     * Number the new cards of DID from 1, by note: in random order if SHUFFLE is set, otherwise in the order the
+     * notes' first cards were added. This is deck PART of PARTS being sorted, for the progress.
+     */
+    private void _sortDeck(long did, boolean shuffle, DeckTask.ProgressCallback progress, int part, int parts) {
+        DB db = mCol.getDb();
+        _prepareSortTables();
+        if (shuffle) {
+            db.execute("INSERT INTO sort_nids (nid) SELECT nid FROM (SELECT DISTINCT nid FROM cards WHERE did = "
+                    + did + ") ORDER BY random()");
+        } else {
+            db.execute("INSERT OR IGNORE INTO sort_nids (nid) SELECT nid FROM cards WHERE did = " + did
+                    + " ORDER BY id");
+        }
+        _repositionNew("did = " + did, 1, 1, false, progress, part, parts);
+    }
+
+
+    /** Create the temporary tables used to reposition new cards, or empty them if they exist. */
+    private void _prepareSortTables() {
+        DB db = mCol.getDb();
+        // the rowid of an empty table starts at 1, so pos - 1 is the index of the note in the new order
+        db.execute("CREATE TEMP TABLE IF NOT EXISTS sort_cids (pos INTEGER PRIMARY KEY, id INTEGER NOT NULL)");
+        db.execute("CREATE TEMP TABLE IF NOT EXISTS sort_nids (pos INTEGER PRIMARY KEY, nid INTEGER NOT NULL UNIQUE)");
+        db.execute("DELETE FROM sort_cids");
+        db.execute("DELETE FROM sort_nids");
+    }
+
+
+    /**
+     * Give the new cards matching WHERE the positions of their notes in the sort_nids table, starting at START and
+     * STEP apart. If SHIFT is set, the other new cards at or after START are moved up to make room.
+     *
+     * Without PROGRESS the cards are moved in a single UPDATE; with it, in batches of notes, after each of which
+     * the progress is published as part PART of PARTS.
+     */
+    private void _repositionNew(String where, int start, int step, boolean shift, DeckTask.ProgressCallback progress,
+            int part, int parts) {
+        DB db = mCol.getDb();
+        mPrefetched.clear();
+        int count = db.queryScalar("SELECT count() FROM sort_nids");
+        if (count == 0) {
+            // no new cards
+            return;
+        }
+        long now = Utils.intNow();
+        int usn = mCol.usn();
+        int high = start + step * (count - 1);
+        // shift?
+        if (shift) {
+            int low = db.queryScalar(
+                    "SELECT min(due) FROM cards WHERE due >= " + start + " AND type = 0 AND NOT (" + where + ")");
+            if (low != 0) {
+                int shiftby = high - low + 1;
+                db.execute("UPDATE cards SET mod = " + now + ", usn = " + usn + ", due = due + " + shiftby
+                        + " WHERE NOT (" + where + ") AND due >= " + low + " AND queue = 0");
+            }
         }
+        // reorder cards
+        int batch = progress == null ? count : REPOSITION_PROGRESS_BATCH;
+        for (int done = 0; done < count; done += batch) {
+            db.execute("UPDATE cards SET due = (SELECT ? + (pos - 1) * ? FROM sort_nids "
+                    + "WHERE sort_nids.nid = cards.nid), mod = ?, usn = ? WHERE type = 0 AND " + where
+                    + " AND nid IN (SELECT nid FROM sort_nids WHERE pos > ? AND pos <= ?)",
+                    new Object[] { start, step, now, usn, done, done + batch });
+            if (progress != null) {
+                int percent = (int) ((part + (double) Math.min(count, done + batch) / count) * 100 / parts);
+                progress.publishProgress(new DeckTask.TaskData(percent));
+            }
+        }
+        db.execute("DELETE FROM sort_cids");
+        db.execute("DELETE FROM sort_nids");
     }
 
 
@@ -2296,14 +2845,10 @@ public class Sched {
         if (did == null) {
             did = mCol.getDecks().selected();
         }
-        JSONObject conf = mCol.getDecks().confForDid(did);
+        DeckConfig conf = mCol.getDecks().config(did);
         // in order due?
-        try {
-            if (conf.getJSONObject("new").getInt("order") == Consts.NEW_CARDS_RANDOM) {
-                randomizeCards(did);
-            }
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
+        if (!conf.dyn && conf.newConf.order == Consts.NEW_CARDS_RANDOM) {
+            randomizeCards(did);
         }
     }
 
@@ -2375,57 +2920,35 @@ public class Sched {
     }
 
 
-    /** estimates remaining time for learning (based on last seven days) */
+    /**
+     * estimates remaining time for learning (based on last seven days)
+     *
+     * Not in libanki: the statistics of the last seven days are kept up to date by {@link ReviewStats} instead of
+     * being read from the revlog, so RELOAD no longer makes a difference.
+     */
     public int eta(int[] counts, boolean reload) {
-        double revYesRate;
-        double revTime;
-        double lrnYesRate;
-        double lrnTime;
-        if (reload || mEtaCache[0] == -1) {
-            Cursor cur = null;
-            try {
-                cur = mCol
-                        .getDb()
-                        .getDatabase()
-                        .rawQuery(
-                                "SELECT avg(CASE WHEN ease > 1 THEN 1.0 ELSE 0.0 END), avg(time) FROM revlog WHERE type = 1 AND id > "
-                                        + ((mCol.getSched().getDayCutoff() - (7 * 86400)) * 1000), null);
-                if (!cur.moveToFirst()) {
-                    return -1;
-                }
-                revYesRate = cur.getDouble(0);
-                revTime = cur.getDouble(1);
+        return _eta(counts, getReviewStats().rates(mToday, null));
+    }
 
-                if (!cur.isClosed()) {
-                    cur.close();
-                }
 
-                cur = mCol
-                        .getDb()
-                        .getDatabase()
-                        .rawQuery(
-                                "SELECT avg(CASE WHEN ease = 3 THEN 1.0 ELSE 0.0 END), avg(time) FROM revlog WHERE type != 1 AND id > "
-                                        + ((mCol.getSched().getDayCutoff() - (7 * 86400)) * 1000), null);
-                if (!cur.moveToFirst()) {
-                    return -1;
-                }
-                lrnYesRate = cur.getDouble(0);
-                lrnTime = cur.getDouble(1);
-            } finally {
-                if (cur != null && !cur.isClosed()) {
-                    cur.close();
-                }
-            }
-            mEtaCache[0] = revYesRate;
-            mEtaCache[1] = revTime;
-            mEtaCache[2] = lrnYesRate;
-            mEtaCache[3] = lrnTime;
-        } else {
-            revYesRate = mEtaCache[0];
-            revTime = mEtaCache[1];
-            lrnYesRate = mEtaCache[2];
-            lrnTime = mEtaCache[3];
+    /**
+     * Not in libanki. Like {@link #eta(int[])}, but estimated from the answers given in the decks DIDS, or in the
+     * whole collection if there are none in the last seven days.
+     */
+    public int etaForDecks(int[] counts, Iterable<Long> dids) {
+        ReviewStats stats = getReviewStats();
+        if (stats.answers(mToday, dids) == 0) {
+            dids = null;
         }
+        return _eta(counts, stats.rates(mToday, dids));
+    }
+
+
+    private int _eta(int[] counts, double[] rates) {
+        double revYesRate = rates[0];
+        double revTime = rates[1];
+        double lrnYesRate = rates[2];
+        double lrnTime = rates[3];
         // rev cards
         double eta = revTime * counts[2];
         // lrn cards
@@ -2436,6 +2959,21 @@ public class Sched {
     }
 
 
+    /** Not in libanki. The rolling answer statistics of the collection. */
+    public ReviewStats getReviewStats() {
+        if (mReviewStats == null) {
+            mReviewStats = new ReviewStats(mCol);
+        }
+        return mReviewStats;
+    }
+
+
+    /** Not in libanki. The deck CARD belongs to outside of filtered decks, which its answers are counted for. */
+    public static long _homeDid(Card card) {
+        return card.getODid() != 0 ? card.getODid() : card.getDid();
+    }
+
+
     public void decrementCounts(Card card) {
         int type = card.getQueue();
         switch (type) {
@@ -2455,31 +2993,80 @@ public class Sched {
     }
 
 
+    /**
+     * Pop the next id from QUEUE and return its card. Not in libanki.
+     *
+     * Rather than loading each card on its own, the card is loaded together with the ones queued behind it, up to
+     * mPrefetchLimit cards in a single query. The extra cards are kept until they reach the head of a queue, so most
+     * calls don't touch the database. The extra cards are dropped if anything else writes to the cards in the meantime,
+     * see _dropStalePrefetched().
+     */
+    private Card _popCard(CardIdQueue queue) {
+        _dropStalePrefetched();
+        long id = queue.remove();
+        if (mPrefetched.containsKey(id) || mPrefetchLimit <= 1) {
+            return _takeCard(id);
+        }
+        // the buffer holds cards from another queue; replace them with the ones at the head of this queue
+        mPrefetched.clear();
+        long[] ids = new long[mPrefetchLimit];
+        ids[0] = id;
+        int n = 1 + queue.peek(ids, 1);
+        mPrefetched.putAll(mCol.getCards(Arrays.copyOf(ids, n)));
+        mPrefetchedMod = mCol.getDb().getCardsMod();
+        Card card = mPrefetched.remove(id);
+        if (card == null) {
+            throw new RuntimeException(" No card with id " + id);
+        }
+        return card;
+    }
+
+
+    /**
+     * The card with id ID, from the prefetched cards if it is there. Used directly for the learning queue, where
+     * the cards after the head are not known in order and are usually not due yet. Not in libanki.
+     */
+    private Card _takeCard(long id) {
+        _dropStalePrefetched();
+        Card card = mPrefetched.remove(id);
+        if (card != null) {
+            return card;
+        }
+        return mCol.getCard(id);
+    }
+
+
+    /**
+     * Drop the prefetched cards if the cards table was written since they were loaded, other than by the scheduler's
+     * own writes to cards that aren't among them: the browser, the note editor, the content provider or a sync may
+     * have changed them. Not in libanki.
+     */
+    private void _dropStalePrefetched() {
+        if (!mPrefetched.isEmpty() && mPrefetchedMod != mCol.getDb().getCardsMod()) {
+            mPrefetched.clear();
+        }
+    }
+
+
+    /**
+     * Set how many queued cards are loaded per query. 1 loads every card on its own. Not in libanki.
+     */
+    public void setPrefetchLimit(int limit) {
+        mPrefetchLimit = limit;
+        mPrefetched.clear();
+    }
+
+
     /**
      * Sorts a card into the lrn queue LIBANKI: not in libanki
      */
     private void _sortIntoLrn(long due, long id) {
-        Iterator i = mLrnQueue.listIterator();
-        int idx = 0;
-        while (i.hasNext()) {
-            if (((long[]) i.next())[0] > due) {
-                break;
-            } else {
-                idx++;
-            }
-        }
-        mLrnQueue.add(idx, new long[] { due, id });
+        mLrnQueue.add(due, id);
     }
 
 
     public boolean leechActionSuspend(Card card) {
-        JSONObject conf;
-        try {
-            conf = _cardConf(card).getJSONObject("lapse");
-            return conf.getInt("leechAction") == 0;
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
+        return _lapseConf(card).leechAction == 0;
     }
 
 
@@ -2505,6 +3092,8 @@ public class Sched {
         public int revCount;
         public int lrnCount;
         public int newCount;
+        // Not in libanki: estimated minutes of study, see setEtas()
+        public int eta;
         public List<DeckDueTreeNode> children = new ArrayList<>();
 
         public DeckDueTreeNode(String[] names, long did, int revCount, int lrnCount, int newCount) {
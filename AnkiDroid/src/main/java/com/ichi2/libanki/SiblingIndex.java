@@ -0,0 +1,40 @@
+package com.ichi2.libanki;
+
+import java.util.HashMap;
+
+/**
+ * The ids of the cards put in a study queue, by note, so that the scheduler can take a card's siblings out of its
+ * queues without asking the database which cards they are. The index is filled along with the queue and cleared with
+ * it; cards that have since left the queue may still be listed, which is harmless since removing them from the queue
+ * again does nothing.
+ */
+public class SiblingIndex {
+
+    private final HashMap<Long, long[]> mCards = new HashMap<>();
+
+
+    public void clear() {
+        mCards.clear();
+    }
+
+
+    /** Record that card CID of note NID was queued. */
+    public void add(long nid, long cid) {
+        long[] cids = mCards.get(nid);
+        if (cids == null) {
+            mCards.put(nid, new long[] { cid });
+        } else {
+            // notes have a handful of cards at most
+            long[] more = new long[cids.length + 1];
+            System.arraycopy(cids, 0, more, 0, cids.length);
+            more[cids.length] = cid;
+            mCards.put(nid, more);
+        }
+    }
+
+
+    /** Forget the cards of note NID, and return them, or null if none were queued. */
+    public long[] remove(long nid) {
+        return mCards.remove(nid);
+    }
+}
@@ -0,0 +1,131 @@
+package com.ichi2.libanki;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Not in libanki. The tags of the notes as one row per note and tag, so that tag searches and the tag lists of decks
+ * are indexed lookups instead of scans of the tags string of every note.
+ *
+ * The rows are kept in the note_tags table of the collection, which desktop Anki and the sync protocol ignore. It's
+ * built from the notes the first time it's needed, and then updated along with the tags of notes: by Note.flush(),
+ * note removal, Tags.bulkAdd() and bulkRem(), sync merges and imports. Check Database rebuilds it, and
+ * {@link LocalTables} drops it when the collection is opened after it was changed outside AnkiDroid.
+ */
+public class TagIndex {
+
+    public static final String TABLE = "note_tags";
+
+    private Collection mCol;
+    /** The database the index is known to be built in. */
+    private DB mBuiltDb;
+
+
+    TagIndex(Collection col) {
+        mCol = col;
+    }
+
+
+    /** Build the index if it doesn't exist yet in the collection. */
+    public void load() {
+        if (isBuilt()) {
+            return;
+        }
+        // building the index doesn't change anything that needs saving or syncing
+        boolean mod = mCol.getDb().getMod();
+        // filled under another name, so that an interrupted build doesn't leave a partial index behind
+        mCol.getDb().execute("DROP TABLE IF EXISTS " + TABLE + "_new");
+        mCol.getDb().execute("CREATE TABLE " + TABLE + "_new (tag TEXT NOT NULL COLLATE NOCASE, "
+                + "nid INTEGER NOT NULL, PRIMARY KEY (tag, nid))");
+        List<Object[]> rows = new ArrayList<>();
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery("SELECT id, tags FROM notes WHERE tags != ''", null);
+            while (cur.moveToNext()) {
+                _rows(rows, cur.getLong(0), cur.getString(1));
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        mCol.getDb().executeMany("INSERT OR IGNORE INTO " + TABLE + "_new VALUES (?,?)", rows);
+        mCol.getDb().execute("CREATE INDEX IF NOT EXISTS ix_" + TABLE + "_nid ON " + TABLE + "_new (nid)");
+        mCol.getDb().execute("ALTER TABLE " + TABLE + "_new RENAME TO " + TABLE);
+        mCol.getDb().setMod(mod);
+        mBuiltDb = mCol.getDb();
+    }
+
+
+    /** Drop the index; it's rebuilt from the notes when it's next needed. */
+    public void invalidate() {
+        mCol.getDb().execute("DROP TABLE IF EXISTS " + TABLE);
+        mBuiltDb = null;
+    }
+
+
+    /** Index note NID as having TAGS, a tags string as stored in the notes table. */
+    public void put(long nid, String tags) {
+        if (!isBuilt()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>();
+        _rows(rows, nid, tags);
+        mCol.getDb().execute("DELETE FROM " + TABLE + " WHERE nid = " + nid);
+        mCol.getDb().executeMany("INSERT OR IGNORE INTO " + TABLE + " VALUES (?,?)", rows);
+    }
+
+
+    /** Index the notes NIDS with the tags they have in the notes table. */
+    public void update(long[] nids) {
+        if (!isBuilt() || nids.length == 0) {
+            return;
+        }
+        String strids = Utils.ids2str(nids);
+        List<Object[]> rows = new ArrayList<>();
+        Cursor cur = null;
+        try {
+            cur = mCol.getDb().getDatabase().rawQuery("SELECT id, tags FROM notes WHERE id IN " + strids, null);
+            while (cur.moveToNext()) {
+                _rows(rows, cur.getLong(0), cur.getString(1));
+            }
+        } finally {
+            if (cur != null && !cur.isClosed()) {
+                cur.close();
+            }
+        }
+        mCol.getDb().execute("DELETE FROM " + TABLE + " WHERE nid IN " + strids);
+        mCol.getDb().executeMany("INSERT OR IGNORE INTO " + TABLE + " VALUES (?,?)", rows);
+    }
+
+
+    /** Take the notes of STRIDS, as made by Utils.ids2str(), off the index. */
+    public void remove(String strids) {
+        if (!isBuilt()) {
+            return;
+        }
+        mCol.getDb().execute("DELETE FROM " + TABLE + " WHERE nid IN " + strids);
+    }
+
+
+    private boolean isBuilt() {
+        // a full sync or a reopen replaces the database under us; LocalTables has dropped the table if it's stale
+        if (mBuiltDb != mCol.getDb()) {
+            if (mCol.getDb().queryScalar(
+                    "SELECT count() FROM sqlite_master WHERE type = 'table' AND name = '" + TABLE + "'") == 0) {
+                return false;
+            }
+            mBuiltDb = mCol.getDb();
+        }
+        return true;
+    }
+
+
+    private void _rows(List<Object[]> rows, long nid, String tags) {
+        for (String tag : mCol.getTags().split(tags)) {
+            rows.add(new Object[] { tag, nid });
+        }
+    }
+}
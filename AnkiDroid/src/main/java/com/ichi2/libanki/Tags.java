@@ -26,7 +26,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -55,6 +54,8 @@ public class Tags {
     private Collection mCol;
     private TreeMap<String, Integer> mTags = new TreeMap<>();
     private boolean mChanged;
+    // Not in libanki: the tags of the notes, see TagIndex
+    private TagIndex mIndex;
 
 
     /**
@@ -64,6 +65,7 @@ public class Tags {
 
     public Tags(Collection col) {
         mCol = col;
+        mIndex = new TagIndex(col);
     }
 
 
@@ -143,29 +145,16 @@ public class Tags {
         // when called with a null argument, the old list is cleared first.
         String lim;
         if (nids != null) {
-            lim = " WHERE id IN " + Utils.ids2str(nids);
+            lim = " WHERE nid IN " + Utils.ids2str(nids);
         } else {
             lim = "";
             mTags.clear();
             mChanged = true;
         }
-        List<String> tags = new ArrayList<>();
-        Cursor cursor = null;
-        try {
-            cursor = mCol.getDb().getDatabase().rawQuery("SELECT DISTINCT tags FROM notes"+lim, null);
-            while (cursor.moveToNext()) {
-                tags.add(cursor.getString(0));
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        HashSet<String> tagSet = new HashSet<>();
-        for (String s : split(TextUtils.join(" ", tags))) {
-            tagSet.add(s);
-        }
-        register(tagSet);
+        // Not in libanki: read from the tag index rather than split the tags of every note
+        mIndex.load();
+        register(mCol.getDb().queryColumn(String.class,
+                "SELECT DISTINCT tag COLLATE BINARY FROM " + TagIndex.TABLE + lim, 0));
     }
 
 
@@ -186,21 +175,21 @@ public class Tags {
     * @return a list of the tags
     */
     public ArrayList<String> byDeck(long did, boolean children) {
-        String sql;
+        String lim;
         if (children) {
             ArrayList<Long> dids = new ArrayList<>();
             dids.add(did);
             for (long id : mCol.getDecks().children(did).values()) {
                 dids.add(id);
             }
-            sql = "SELECT DISTINCT n.tags FROM cards c, notes n WHERE c.nid = n.id AND c.did IN " + Utils.ids2str(Utils.arrayList2array(dids));
+            lim = "c.did IN " + Utils.ids2str(Utils.arrayList2array(dids));
         } else {
-            sql = "SELECT DISTINCT n.tags FROM cards c, notes n WHERE c.nid = n.id AND c.did = " + did;
+            lim = "c.did = " + did;
         }
-        List<String> tags = mCol.getDb().queryColumn(String.class, sql, 0);
-        // Cast to set to remove duplicates
-        // Use methods used to get all tags to parse tags here as well.
-        return new ArrayList<>(new HashSet<>(split(TextUtils.join(" ", tags))));
+        // Not in libanki: the tag index gives each tag once per note, already split
+        mIndex.load();
+        return mCol.getDb().queryColumn(String.class, "SELECT DISTINCT t.tag COLLATE BINARY FROM cards c, "
+                + TagIndex.TABLE + " t WHERE t.nid = c.nid AND " + lim, 0);
     }
 
 
@@ -210,10 +199,9 @@ public class Tags {
      */
 
     /**
-     * FIXME: This method must be fixed before it is used. See note below.
      * Add/remove tags in bulk. TAGS is space-separated.
      *
-     * @param ids The cards to tag.
+     * @param ids The notes to tag.
      * @param tags List of tags to add/remove. They are space-separated.
      * @param add True/False to add/remove.
      */
@@ -222,10 +210,6 @@ public class Tags {
     }
 
 
-    /**
-     * FIXME: This method must be fixed before it is used. Its behaviour is currently incorrect.
-     * This method is currently unused in AnkiDroid so it will not cause any errors in its current state.
-     */
     public void bulkAdd(List<Long> ids, String tags, boolean add) {
         List<String> newTags = split(tags);
         if (newTags == null || newTags.isEmpty()) {
@@ -274,7 +258,8 @@ public class Tags {
             }
         }
         // update tags
-        mCol.getDb().executeMany("update notes set tags=:t,mod=:n,usn=:u where id = :id", res);
+        mCol.getDb().executeMany("update notes set tags=?,mod=?,usn=? where id = ?", res);
+        mIndex.update(Utils.arrayList2array(nids));
     }
 
 
@@ -395,6 +380,11 @@ public class Tags {
      */
 
 
+    public TagIndex getIndex() {
+        return mIndex;
+    }
+
+
     /** Add a tag to the collection. We use this method instead of exposing mTags publicly.*/
     public void add(String key, Integer value) {
         mTags.put(key, value);
@@ -27,12 +27,10 @@ import com.ichi2.anki.CollectionHelper;
 import com.ichi2.anki.R;
 import com.ichi2.anki.stats.StatsMetaInfo;
 import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.DeckConfig;
 import com.ichi2.libanki.Decks;
 import com.ichi2.libanki.Stats;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -504,26 +502,22 @@ public class AdvancedStatistics extends Hook  {
 
             Timber.d("Trying to get deck settings for deck with id=" + did);
 
-            JSONObject conf = decks.confForDid(did);
+            DeckConfig conf = decks.config(did);
 
             int newPerDay = Settings.getMaxNewPerDay();
             int revPerDay = Settings.getMaxReviewsPerDay();
             int initialFactor = Settings.getInitialFactor();
 
-            try {
-                if (conf.getInt("dyn") == 0) {
-                    revPerDay = conf.getJSONObject("rev").getInt("perDay");
-                    newPerDay = conf.getJSONObject("new").getInt("perDay");
-                    initialFactor = conf.getJSONObject("new").getInt("initialFactor");
-
-                    Timber.d("rev.perDay=" + revPerDay);
-                    Timber.d("new.perDay=" + newPerDay);
-                    Timber.d("new.initialFactor=" + initialFactor);
-                } else {
-                    Timber.d("dyn=" + conf.getInt("dyn"));
-                }
-            } catch (JSONException e) {
-                throw new RuntimeException(e);
+            if (!conf.dyn) {
+                revPerDay = conf.rev.perDay;
+                newPerDay = conf.newConf.perDay;
+                initialFactor = conf.newConf.initialFactor;
+
+                Timber.d("rev.perDay=" + revPerDay);
+                Timber.d("new.perDay=" + newPerDay);
+                Timber.d("new.initialFactor=" + initialFactor);
+            } else {
+                Timber.d("dyn=1");
             }
 
             return new Deck(did, newPerDay, revPerDay, initialFactor);
@@ -111,8 +111,8 @@ public class Anki2Importer extends Importer {
         mDecks = new HashMap<>();
         try {
             // Use transactions for performance and rollbacks in case of error
-            mDst.getDb().getDatabase().beginTransaction();
-            mDst.getMedia().getDb().getDatabase().beginTransaction();
+            mDst.getDb().beginTransaction();
+            mDst.getMedia().getDb().beginTransaction();
 
             if (!TextUtils.isEmpty(mDeckPrefix)) {
                 long id = mDst.getDecks().id(mDeckPrefix);
@@ -126,11 +126,11 @@ public class Anki2Importer extends Importer {
             publishProgress(100, 100, 25);
             _postImport();
             publishProgress(100, 100, 50);
-            mDst.getDb().getDatabase().setTransactionSuccessful();
-            mDst.getMedia().getDb().getDatabase().setTransactionSuccessful();
+            mDst.getDb().setTransactionSuccessful();
+            mDst.getMedia().getDb().setTransactionSuccessful();
         } finally {
-            mDst.getDb().getDatabase().endTransaction();
-            mDst.getMedia().getDb().getDatabase().endTransaction();
+            mDst.getDb().endTransaction();
+            mDst.getMedia().getDb().endTransaction();
         }
         mDst.getDb().execute("vacuum");
         publishProgress(100, 100, 65);
@@ -267,6 +267,7 @@ public class Anki2Importer extends Importer {
         mDst.getDb().executeMany("insert or replace into notes values (?,?,?,?,?,?,?,?,?,?,?)", update);
         long[] das = Utils.arrayList2array(dirty);
         mDst.updateFieldCache(das);
+        mDst.getTags().getIndex().update(das);
         mDst.getTags().registerNotes(das);
     }
 
@@ -567,6 +568,9 @@ public class Anki2Importer extends Importer {
         // apply
         mDst.getDb().executeMany("insert or ignore into cards values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", cards);
         mDst.getDb().executeMany("insert or ignore into revlog values (?,?,?,?,?,?,?,?,?)", revlog);
+        if (!revlog.isEmpty()) {
+            mDst.getSched().getReviewStats().invalidate();
+        }
         mLog.add(getRes().getString(R.string.import_complete_count, cnt));
     }
 
@@ -95,7 +95,7 @@ public class Syncer {
             return new Object[] { "badAuth" };
         }
         try {
-            mCol.getDb().getDatabase().beginTransaction();
+            mCol.getDb().beginTransaction();
             try {
                 Timber.i("Sync: getting meta data from server");
                 JSONObject rMeta = new JSONObject(mServer.stream2String(ret.getEntity().getContent()));
@@ -217,9 +217,9 @@ public class Syncer {
                 finish(mod);
 
                 publishProgress(con, R.string.sync_writing_db);
-                mCol.getDb().getDatabase().setTransactionSuccessful();
+                mCol.getDb().setTransactionSuccessful();
             } finally {
-                mCol.getDb().getDatabase().endTransaction();
+                mCol.getDb().endTransaction();
             }
         } catch (JSONException | IllegalStateException e) {
             throw new RuntimeException(e);
@@ -438,7 +438,7 @@ public class Syncer {
      * Chunked syncing ********************************************************************
      */
 
-    private void prepareToChunk() {
+    public void prepareToChunk() {
         mTablesLeft = new LinkedList<>();
         mTablesLeft.add("revlog");
         mTablesLeft.add("cards");
@@ -822,7 +822,10 @@ public class Syncer {
                 throw new RuntimeException(e);
             }
         }
-
+        if (logs.length() > 0) {
+            // the answer statistics have to be rebuilt to count them
+            mCol.getSched().getReviewStats().invalidate();
+        }
     }
 
 
@@ -875,6 +878,7 @@ public class Syncer {
         for (Object[] n : newerRows(notes, "notes", 4)) {
             mCol.getDb().execute("INSERT OR REPLACE INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", n);
             mCol.updateFieldCache(new long[]{Long.valueOf(((Number) n[0]).longValue())});
+            mCol.getTags().getIndex().put(((Number) n[0]).longValue(), (String) n[5]);
         }
     }
 
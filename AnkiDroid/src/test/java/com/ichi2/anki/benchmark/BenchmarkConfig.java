@@ -0,0 +1,43 @@
+package com.ichi2.anki.benchmark;
+
+import java.io.File;
+
+/**
+ * Parameters of a benchmark run, read from system properties (set by benchmark.gradle from the -P options of the
+ * same name). Two runs with the same parameters build the same collection and run the same operations.
+ */
+public class BenchmarkConfig {
+
+    /** Number of notes. Every note has two cards. */
+    public final int notes;
+    /** Number of decks, nested up to four levels deep. */
+    public final int decks;
+    /** Number of review log entries. */
+    public final int revlog;
+    /** Seed of the random generator used to build the collection. */
+    public final long seed;
+    /** Iterations run before measuring, to let the JIT and the SQLite page cache settle. */
+    public final int warmup;
+    /** Measured iterations. */
+    public final int iterations;
+    /** Directory the reports are written to. */
+    public final File reportDir;
+
+
+    public BenchmarkConfig() {
+        notes = Integer.getInteger("benchmarkNotes", 10000);
+        decks = Integer.getInteger("benchmarkDecks", 50);
+        revlog = Integer.getInteger("benchmarkRevlog", 100000);
+        seed = Long.getLong("benchmarkSeed", 42);
+        warmup = Integer.getInteger("benchmarkWarmup", 3);
+        iterations = Integer.getInteger("benchmarkIterations", 10);
+        reportDir = new File(System.getProperty("benchmarkReportDir", "build/reports/benchmark"));
+    }
+
+
+    @Override
+    public String toString() {
+        return "notes=" + notes + " decks=" + decks + " revlog=" + revlog + " seed=" + seed + " warmup=" + warmup
+                + " iterations=" + iterations;
+    }
+}
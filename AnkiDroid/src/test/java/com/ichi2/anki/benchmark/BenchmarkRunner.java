@@ -0,0 +1,157 @@
+package com.ichi2.anki.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small harness in the spirit of JMH: every benchmark is run for a number of warmup iterations that are thrown
+ * away, then for a number of measured iterations. Each iteration times a fixed number of operations, and the
+ * report gives the average time per operation with its spread over the measured iterations.
+ */
+public class BenchmarkRunner {
+
+    /** A benchmarked operation. */
+    public static abstract class Op {
+        /** Called before every iteration, outside of the measured time. */
+        public void setUp() throws Exception {
+        }
+
+
+        /** Run one iteration. */
+        public abstract void run() throws Exception;
+    }
+
+
+    public static class Result {
+        public final String name;
+        public final int opsPerIteration;
+        public final double[] nsPerOp;
+
+
+        Result(String name, int opsPerIteration, double[] nsPerOp) {
+            this.name = name;
+            this.opsPerIteration = opsPerIteration;
+            this.nsPerOp = nsPerOp;
+        }
+
+
+        public double mean() {
+            double sum = 0;
+            for (double ns : nsPerOp) {
+                sum += ns;
+            }
+            return sum / nsPerOp.length;
+        }
+
+
+        public double stdDev() {
+            if (nsPerOp.length < 2) {
+                return 0;
+            }
+            double mean = mean();
+            double sq = 0;
+            for (double ns : nsPerOp) {
+                sq += (ns - mean) * (ns - mean);
+            }
+            return Math.sqrt(sq / (nsPerOp.length - 1));
+        }
+
+
+        public double min() {
+            double min = Double.MAX_VALUE;
+            for (double ns : nsPerOp) {
+                min = Math.min(min, ns);
+            }
+            return min;
+        }
+
+
+        public double opsPerSecond() {
+            return 1e9 / mean();
+        }
+    }
+
+
+    private final BenchmarkConfig mConfig;
+    private final List<Result> mResults = new ArrayList<>();
+
+
+    public BenchmarkRunner(BenchmarkConfig config) {
+        mConfig = config;
+    }
+
+
+    /**
+     * Run OP for the configured warmup and measured iterations.
+     * @param opsPerIteration Number of operations done by one call to {@link Op#run()}.
+     */
+    public Result measure(String name, int opsPerIteration, Op op) throws Exception {
+        for (int i = 0; i < mConfig.warmup; i++) {
+            op.setUp();
+            op.run();
+        }
+        double[] nsPerOp = new double[mConfig.iterations];
+        for (int i = 0; i < mConfig.iterations; i++) {
+            op.setUp();
+            long start = System.nanoTime();
+            op.run();
+            nsPerOp[i] = (double) (System.nanoTime() - start) / opsPerIteration;
+        }
+        Result result = new Result(name, opsPerIteration, nsPerOp);
+        mResults.add(result);
+        System.out.println(format(result));
+        return result;
+    }
+
+
+    public List<Result> getResults() {
+        return mResults;
+    }
+
+
+    /**
+     * Write the results as a text table (NAME.txt) and as CSV (NAME.csv) to the report directory. The header of both
+     * records the parameters of the run, so reports of different runs can be compared.
+     */
+    public void writeReport(String name) throws IOException {
+        File dir = mConfig.reportDir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String header = "# " + mConfig + " java=" + System.getProperty("java.version") + " os="
+                + System.getProperty("os.name") + "/" + System.getProperty("os.arch");
+        PrintWriter txt = new PrintWriter(new FileWriter(new File(dir, name + ".txt")));
+        try {
+            txt.println(header);
+            txt.println(String.format(Locale.US, "%-48s %6s %14s %12s %14s %12s", "Benchmark", "Cnt", "ns/op",
+                    "Error", "min ns/op", "ops/s"));
+            for (Result r : mResults) {
+                txt.println(format(r));
+            }
+        } finally {
+            txt.close();
+        }
+        PrintWriter csv = new PrintWriter(new FileWriter(new File(dir, name + ".csv")));
+        try {
+            csv.println(header);
+            csv.println("benchmark,iterations,ops_per_iteration,mean_ns_per_op,stddev_ns_per_op,min_ns_per_op,ops_per_s");
+            for (Result r : mResults) {
+                csv.println(String.format(Locale.US, "\"%s\",%d,%d,%.1f,%.1f,%.1f,%.2f", r.name.replace("\"", "\"\""),
+                        r.nsPerOp.length, r.opsPerIteration, r.mean(), r.stdDev(), r.min(), r.opsPerSecond()));
+            }
+        } finally {
+            csv.close();
+        }
+    }
+
+
+    private static String format(Result r) {
+        return String.format(Locale.US, "%-48s %6d %14.1f ± %10.1f %14.1f %12.2f", r.name, r.nsPerOp.length, r.mean(),
+                r.stdDev(), r.min(), r.opsPerSecond());
+    }
+}
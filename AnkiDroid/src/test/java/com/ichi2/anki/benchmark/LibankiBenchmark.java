@@ -0,0 +1,180 @@
+package com.ichi2.anki.benchmark;
+
+import com.ichi2.anki.BuildConfig;
+import com.ichi2.libanki.Card;
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Sched;
+import com.ichi2.libanki.Storage;
+import com.ichi2.libanki.Utils;
+import com.ichi2.libanki.sync.Syncer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Throughput of the libanki hot paths on a synthetic collection. Robolectric provides the Android SQLite and JSON
+ * classes, so this runs headless on a plain JVM:
+ *
+ *   ./gradlew :AnkiDroid:testDebugUnitTest -Pbenchmark
+ *
+ * See benchmark.gradle for the parameters. The read-only benchmarks run first; the sync and scheduler benchmarks,
+ * which change the collection, run last.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class LibankiBenchmark {
+
+    /** Searches as typed in the browser: deck, state, tag, field, plain text, added and property searches. */
+    private static final String[] QUERIES = { "deck:" + SyntheticCollection.ROOT + "::D1", "is:due", "is:new",
+            "tag:tag7", "front:word12*", "word123", "word1* -word2*", "added:7", "rated:30", "prop:ivl>100" };
+    private static final int RENDER_CARDS = 100;
+    private static final int ANSWERS = 100;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private BenchmarkConfig mConfig;
+    private BenchmarkRunner mRunner;
+    private Collection mCol;
+
+
+    @Before
+    public void setUp() throws Exception {
+        mConfig = new BenchmarkConfig();
+        mRunner = new BenchmarkRunner(mConfig);
+        File path = new File(mFolder.getRoot(), "collection.anki2");
+        mCol = Storage.Collection(RuntimeEnvironment.application, path.getPath());
+        long start = System.currentTimeMillis();
+        SyntheticCollection.fill(mCol, mConfig);
+        System.out.println("Built collection (" + mConfig + ") in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+
+    @After
+    public void tearDown() {
+        if (mCol != null) {
+            mCol.close();
+        }
+    }
+
+
+    @Test
+    public void benchmark() throws Exception {
+        deckDueTree();
+        findCards();
+        renderQA();
+        syncChunk();
+        getAndAnswerCard();
+        mRunner.writeReport("libanki");
+    }
+
+
+    private void deckDueTree() throws Exception {
+        final Sched sched = mCol.getSched();
+        mRunner.measure("Sched.deckDueTree (counted)", 1, new BenchmarkRunner.Op() {
+            @Override
+            public void setUp() {
+                // a write the scheduler didn't do, so the counts are loaded again
+                mCol.getDb().execute("UPDATE cards SET mod = mod WHERE id = 0");
+            }
+
+
+            @Override
+            public void run() {
+                sched.deckDueTree();
+            }
+        });
+        mRunner.measure("Sched.deckDueTree (kept)", 1, new BenchmarkRunner.Op() {
+            @Override
+            public void run() {
+                sched.deckDueTree();
+            }
+        });
+    }
+
+
+    private void findCards() throws Exception {
+        for (final String query : QUERIES) {
+            mRunner.measure("Finder.findCards \"" + query + "\"", 1, new BenchmarkRunner.Op() {
+                @Override
+                public void run() {
+                    mCol.findCards(query);
+                }
+            });
+        }
+    }
+
+
+    private void renderQA() throws Exception {
+        long[] cids = Utils.arrayList2array(mCol.getDb().queryColumn(Long.class,
+                "SELECT id FROM cards ORDER BY id LIMIT " + RENDER_CARDS, 0));
+        final ArrayList<Object[]> data = mCol._qaData("AND c.id IN " + Utils.ids2str(cids));
+        assertEquals(RENDER_CARDS, data.size());
+        mRunner.measure("Collection._renderQA", RENDER_CARDS, new BenchmarkRunner.Op() {
+            @Override
+            public void run() {
+                for (Object[] d : data) {
+                    HashMap<String, String> qa = mCol._renderQA(d);
+                    assertNotNull(qa.get("q"));
+                }
+            }
+        });
+    }
+
+
+    private void syncChunk() throws Exception {
+        final Syncer[] syncer = new Syncer[1];
+        mRunner.measure("Syncer.chunk (all local changes)", 1, new BenchmarkRunner.Op() {
+            @Override
+            public void setUp() {
+                // chunking marks the rows as synced, so mark everything as changed again
+                mCol.getDb().execute("UPDATE revlog SET usn = -1");
+                mCol.getDb().execute("UPDATE cards SET usn = -1");
+                mCol.getDb().execute("UPDATE notes SET usn = -1");
+                syncer[0] = new Syncer(mCol, null);
+                syncer[0].prepareToChunk();
+            }
+
+
+            @Override
+            public void run() throws Exception {
+                JSONObject chunk;
+                do {
+                    chunk = syncer[0].chunk();
+                } while (!chunk.getBoolean("done"));
+            }
+        });
+    }
+
+
+    private void getAndAnswerCard() throws Exception {
+        final Sched sched = mCol.getSched();
+        sched.reset();
+        mRunner.measure("Sched.getCard + answerCard", ANSWERS, new BenchmarkRunner.Op() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ANSWERS; i++) {
+                    Card card = sched.getCard();
+                    assertNotNull("Ran out of due cards, use more notes", card);
+                    // mostly good, with some lapses to keep the learning queue busy
+                    sched.answerCard(card, i % 4 == 0 ? 1 : 3);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,134 @@
+package com.ichi2.anki.benchmark;
+
+import com.ichi2.libanki.Collection;
+import com.ichi2.libanki.Decks;
+import com.ichi2.libanki.Utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fills an empty collection with decks, notes, cards and review log entries drawn from a seeded random generator.
+ * The mix of cards is meant to look like a collection in use: mostly reviews spread around today, a share of new
+ * cards, a few in learning and some suspended.
+ */
+public class SyntheticCollection {
+
+    /** The name of the top level deck. Every generated deck is below it. */
+    public static final String ROOT = "Bench";
+    /** Number of different words in the note fields. */
+    public static final int WORDS = 5000;
+    /** Number of different tags. Every note has up to three. */
+    public static final int TAGS = 50;
+
+    private static final long DAY_MS = 86400000L;
+
+
+    /**
+     * Fill COL according to CONFIG. The collection must be empty and have the stock "Basic (and reversed card)"
+     * model.
+     */
+    public static void fill(Collection col, BenchmarkConfig config) throws JSONException {
+        Random r = new Random(config.seed);
+        Decks decks = col.getDecks();
+        long[] dids = new long[config.decks];
+        String[] names = new String[config.decks];
+        for (int i = 0; i < config.decks; i++) {
+            // every deck has up to four children, which makes a tree four levels deep with the default 50 decks
+            names[i] = (i == 0 ? ROOT : names[(i - 1) / 4]) + "::D" + i;
+            dids[i] = decks.id(names[i]);
+        }
+        // high limits, so the scheduler benchmarks don't run out of cards
+        JSONObject conf = decks.confForDid(dids[0]);
+        conf.getJSONObject("new").put("perDay", 9999);
+        conf.getJSONObject("rev").put("perDay", 9999);
+        decks.save(conf);
+        decks.select(decks.id(ROOT));
+
+        long mid = col.getModels().byName("Basic (and reversed card)").getLong("id");
+        int today = col.getSched().getToday();
+        long now = Utils.intNow();
+        long base = 1000000000000L;
+        List<Object[]> notes = new ArrayList<>();
+        List<Object[]> cards = new ArrayList<>();
+        List<Long> reviewed = new ArrayList<>();
+        for (int i = 0; i < config.notes; i++) {
+            long nid = base + i;
+            String front = words(r, 1 + r.nextInt(4));
+            String back = words(r, 3 + r.nextInt(20));
+            StringBuilder tags = new StringBuilder();
+            for (int t = r.nextInt(4); t > 0; t--) {
+                tags.append(" tag").append(r.nextInt(TAGS));
+            }
+            notes.add(new Object[] { nid, Long.toString(nid, 36), mid, now, -1,
+                    tags.length() == 0 ? "" : tags.append(' ').toString(), front + "\u001f" + back, front,
+                    Utils.fieldChecksum(front), 0, "" });
+            long did = dids[r.nextInt(dids.length)];
+            for (int ord = 0; ord < 2; ord++) {
+                long cid = base + 2 * i + ord;
+                int p = r.nextInt(100);
+                int type;
+                int queue;
+                long due;
+                int ivl = 0;
+                int left = 0;
+                if (p < 40) {
+                    type = queue = 0;
+                    due = i;
+                } else if (p < 45) {
+                    type = queue = 1;
+                    due = now - 3600 + r.nextInt(7200);
+                    left = 1002;
+                } else if (p < 95) {
+                    type = queue = 2;
+                    ivl = 1 + r.nextInt(365);
+                    due = today - 10 + r.nextInt(40);
+                    reviewed.add(cid);
+                } else {
+                    type = 2;
+                    queue = -1;
+                    ivl = 1 + r.nextInt(365);
+                    due = today + r.nextInt(40);
+                    reviewed.add(cid);
+                }
+                cards.add(new Object[] { cid, nid, did, ord, now, -1, type, queue, due, ivl,
+                        type == 2 ? 1300 + 100 * r.nextInt(20) : 0, type == 2 ? 1 + r.nextInt(20) : 0,
+                        type == 2 ? r.nextInt(3) : 0, left, 0, 0, 0, "" });
+            }
+        }
+        col.getDb().executeMany("INSERT INTO notes VALUES (?,?,?,?,?,?,?,?,?,?,?)", notes);
+        col.getDb().executeMany("INSERT INTO cards VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", cards);
+
+        // review history over the last year, in id (time) order
+        List<Object[]> revlog = new ArrayList<>();
+        if (!reviewed.isEmpty()) {
+            long start = now * 1000 - 365 * DAY_MS;
+            long step = Math.max(1, 365 * DAY_MS / Math.max(1, config.revlog));
+            for (int i = 0; i < config.revlog; i++) {
+                long cid = reviewed.get(r.nextInt(reviewed.size()));
+                int ease = 1 + r.nextInt(4);
+                int ivl = 1 + r.nextInt(100);
+                revlog.add(new Object[] { start + i * step, cid, -1, ease, ivl, Math.max(1, ivl / 2), 2500,
+                        1000 + r.nextInt(20000), 1 });
+            }
+        }
+        col.getDb().executeMany("INSERT INTO revlog VALUES (?,?,?,?,?,?,?,?,?)", revlog);
+        col.save();
+    }
+
+
+    private static String words(Random r, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append("word").append(r.nextInt(WORDS));
+        }
+        return sb.toString();
+    }
+}
@@ -159,7 +159,7 @@ public final class AddContentApi {
      * @return a list of duplicate notes
      */
     public List<NoteInfo> findDuplicateNotes(long mid, String key) {
-        SparseArray<List<NoteInfo>> notes = getCompat().findDuplicateNotes(mid, Collections.singletonList(key));
+        SparseArray<List<NoteInfo>> notes = getCompat().findDuplicateNotes(mid, Collections.singletonList(key), false);
         if (notes.size() == 0) {
             return Collections.emptyList();
         }
@@ -174,7 +174,21 @@ public final class AddContentApi {
      * @return a SparseArray with a list of duplicate notes for each key
      */
     public SparseArray<List<NoteInfo>> findDuplicateNotes(long mid, List<String> keys) {
-        return getCompat().findDuplicateNotes(mid, keys);
+        return getCompat().findDuplicateNotes(mid, keys, false);
+    }
+
+    /**
+     * As findDuplicateNotes(long, List), but if ignoreHtml is true the keys and first fields are compared without
+     * their HTML and with only the file names of their media, as AnkiDroid compares them when checking for duplicates.
+     * Content provider spec v1 can't compare them this way, so on older versions of AnkiDroid the keys are always
+     * compared as they are.
+     * @param mid model id
+     * @param keys list of keys
+     * @param ignoreHtml whether to ignore HTML and media markup when comparing keys
+     * @return a SparseArray with a list of duplicate notes for each key
+     */
+    public SparseArray<List<NoteInfo>> findDuplicateNotes(long mid, List<String> keys, boolean ignoreHtml) {
+        return getCompat().findDuplicateNotes(mid, keys, ignoreHtml);
     }
 
     /**
@@ -614,9 +628,10 @@ public final class AddContentApi {
          * For each key, look for an existing note that has matching first field
          * @param modelId the model ID to limit the search to
          * @param keys  list of keys for each note
+         * @param ignoreHtml whether to compare the keys and first fields without HTML and media, where supported
          * @return array with a list of NoteInfo objects for each key if duplicates exist
          */
-        SparseArray<List<NoteInfo>> findDuplicateNotes(long modelId, List<String> keys);
+        SparseArray<List<NoteInfo>> findDuplicateNotes(long modelId, List<String> keys, boolean ignoreHtml);
     }
 
     private class CompatV1 implements Compat {
@@ -643,7 +658,7 @@ public final class AddContentApi {
         }
 
         @Override
-        public SparseArray<List<NoteInfo>> findDuplicateNotes(long modelId, List<String> keys) {
+        public SparseArray<List<NoteInfo>> findDuplicateNotes(long modelId, List<String> keys, boolean ignoreHtml) {
             // Content provider spec v1 does not support direct querying of the notes table, so use Anki browser syntax
             String modelName = getModelName(modelId);
             String[] modelFieldList = getFieldList(modelId);
@@ -699,13 +714,14 @@ public final class AddContentApi {
         }
 
         @Override
-        public SparseArray<List<NoteInfo>> findDuplicateNotes(long modelId, List<String> keys) {
+        public SparseArray<List<NoteInfo>> findDuplicateNotes(long modelId, List<String> keys, boolean ignoreHtml) {
             // Build set of checksums and a HashMap from the key (first field) back to the original index in fieldsArray
+            // The checksum is always of the stripped field, so it also finds the notes compared without HTML and media
             Set<Long> csums = new HashSet<>(keys.size());
             Map<String, List<Integer>> keyToIndexesMap = new HashMap<>(keys.size());
             for (int i = 0; i < keys.size(); i++) {
-                String key = keys.get(i);
-                csums.add(Utils.fieldChecksum(key));
+                String key = ignoreHtml ? Utils.stripHTMLMedia(keys.get(i)) : keys.get(i);
+                csums.add(Utils.fieldChecksum(keys.get(i)));
                 if (!keyToIndexesMap.containsKey(key)) {    // Use a list as some keys could potentially be duplicated
                     keyToIndexesMap.put(key, new ArrayList<Integer>());
                 }
@@ -726,9 +742,10 @@ public final class AddContentApi {
                     if (note == null) {
                         continue;
                     }
-                    if (keyToIndexesMap.containsKey(note.getKey())) { // skip notes that match csum but not key
+                    String key = ignoreHtml ? Utils.stripHTMLMedia(note.getKey()) : note.getKey();
+                    if (keyToIndexesMap.containsKey(key)) { // skip notes that match csum but not key
                         // Add copy of note to EVERY position in duplicates array corresponding to the current key
-                        List<Integer> outputPos = keyToIndexesMap.get(note.getKey());
+                        List<Integer> outputPos = keyToIndexesMap.get(key);
                         for (int i = 0; i < outputPos.size(); i++) {
                             addNoteToDuplicatesArray(i > 0 ? new NoteInfo(note) : note, duplicates, outputPos.get(i));
                         }
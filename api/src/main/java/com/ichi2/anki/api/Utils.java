@@ -88,7 +88,7 @@ class Utils {
     /**
      * Strip HTML but keep media filenames
      */
-    private static String stripHTMLMedia(String s) {
+    static String stripHTMLMedia(String s) {
         Matcher imgMatcher = imgPattern.matcher(s);
         return stripHTML(imgMatcher.replaceAll(" $1 "));
     }